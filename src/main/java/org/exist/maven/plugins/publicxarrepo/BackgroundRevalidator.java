@@ -0,0 +1,86 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Revalidates cached packages in the background, for the
+ * {@code stale-while-revalidate} resolution mode.
+ *
+ * A package is resolved from the cache straight away, whilst the remote
+ * repo is checked (and any newer version downloaded into the cache) by a
+ * background task, so that the next build can use it.
+ *
+ * The log output of each task is buffered, and replayed once the task
+ * completes, in the order that the tasks were submitted.
+ */
+class BackgroundRevalidator {
+
+    private final ExecutorService executorService;
+    private final Log log;
+
+    private final List<String> descriptions = new ArrayList<>();
+    private final List<BufferedLog> logs = new ArrayList<>();
+    private final List<Future<Void>> futures = new ArrayList<>();
+
+    /**
+     * @param threads the maximum number of tasks to run concurrently.
+     * @param log the log to replay the output of the tasks to.
+     */
+    BackgroundRevalidator(final int threads, final Log log) {
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, threads), ResolutionExecutor.newThreadFactory("xar-revalidator-"));
+        this.log = log;
+    }
+
+    /**
+     * Submit a task to run in the background.
+     *
+     * @param description a description of the task, used when reporting failures.
+     * @param task the task.
+     */
+    synchronized void submit(final String description, final ResolutionExecutor.Task<Void> task) {
+        final BufferedLog taskLog = new BufferedLog(log);
+        descriptions.add(description);
+        logs.add(taskLog);
+        futures.add(executorService.submit(() -> task.call(taskLog)));
+    }
+
+    /**
+     * Wait for the tasks to complete, and report their output.
+     *
+     * Any tasks that have not completed within the timeout are abandoned,
+     * they will be attempted again by the next build.
+     *
+     * @param timeoutMillis the maximum time to wait for all of the tasks.
+     */
+    synchronized void awaitCompletion(final long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (final ExecutionException e) {
+                    logs.get(i).warn("Unable to revalidate package " + descriptions.get(i) + ": " + e.getCause().getMessage());
+                } catch (final TimeoutException e) {
+                    logs.get(i).warn("Abandoned revalidation of package " + descriptions.get(i) + " after "
+                            + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis) + "s, it will be attempted again by the next build");
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    logs.get(i).flush();
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Log} which records messages in memory so that they
+ * may later be replayed to another log.
+ *
+ * Used by the {@link ResolutionExecutor} so that the output of
+ * concurrently resolved packages is not interleaved.
+ */
+class BufferedLog implements Log {
+
+    private enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private final Log target;
+    private final List<Entry> entries = new ArrayList<>();
+
+    BufferedLog(final Log target) {
+        this.target = target;
+    }
+
+    /**
+     * Replay all recorded messages to the target log, and
+     * then forget them.
+     */
+    synchronized void flush() {
+        for (final Entry entry : entries) {
+            switch (entry.level) {
+                case DEBUG:
+                    replay(entry, target::debug, target::debug, target::debug);
+                    break;
+                case INFO:
+                    replay(entry, target::info, target::info, target::info);
+                    break;
+                case WARN:
+                    replay(entry, target::warn, target::warn, target::warn);
+                    break;
+                case ERROR:
+                    replay(entry, target::error, target::error, target::error);
+                    break;
+            }
+        }
+        entries.clear();
+    }
+
+    /**
+     * Replay a recorded message by the method of the target log that
+     * matches what was recorded, as not every log accepts a null content
+     * or error (e.g. {@code SystemStreamLog}).
+     */
+    private static void replay(final Entry entry, final Consumer<CharSequence> content,
+            final Consumer<Throwable> error, final BiConsumer<CharSequence, Throwable> contentAndError) {
+        if (entry.error == null) {
+            content.accept(entry.content);
+        } else if (entry.content == null) {
+            error.accept(entry.error);
+        } else {
+            contentAndError.accept(entry.content, entry.error);
+        }
+    }
+
+    private synchronized void record(final Level level, @Nullable final CharSequence content, @Nullable final Throwable error) {
+        entries.add(new Entry(level, content, error));
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return target.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(final CharSequence content) {
+        record(Level.DEBUG, content, null);
+    }
+
+    @Override
+    public void debug(final CharSequence content, final Throwable error) {
+        record(Level.DEBUG, content, error);
+    }
+
+    @Override
+    public void debug(final Throwable error) {
+        record(Level.DEBUG, null, error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return target.isInfoEnabled();
+    }
+
+    @Override
+    public void info(final CharSequence content) {
+        record(Level.INFO, content, null);
+    }
+
+    @Override
+    public void info(final CharSequence content, final Throwable error) {
+        record(Level.INFO, content, error);
+    }
+
+    @Override
+    public void info(final Throwable error) {
+        record(Level.INFO, null, error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return target.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(final CharSequence content) {
+        record(Level.WARN, content, null);
+    }
+
+    @Override
+    public void warn(final CharSequence content, final Throwable error) {
+        record(Level.WARN, content, error);
+    }
+
+    @Override
+    public void warn(final Throwable error) {
+        record(Level.WARN, null, error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return target.isErrorEnabled();
+    }
+
+    @Override
+    public void error(final CharSequence content) {
+        record(Level.ERROR, content, null);
+    }
+
+    @Override
+    public void error(final CharSequence content, final Throwable error) {
+        record(Level.ERROR, content, error);
+    }
+
+    @Override
+    public void error(final Throwable error) {
+        record(Level.ERROR, null, error);
+    }
+
+    private static class Entry {
+        final Level level;
+        @Nullable final CharSequence content;
+        @Nullable final Throwable error;
+
+        Entry(final Level level, @Nullable final CharSequence content, @Nullable final Throwable error) {
+            this.level = level;
+            this.content = content;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A record of the state of a previous resolution: a hash of its inputs
+ * (the configuration of the mojo), the time that it was performed, and
+ * the fingerprint of each package that it placed in the output directory.
+ *
+ * If the inputs are unchanged and every package in the output directory
+ * still matches its fingerprint, then the resolution need not be
+ * performed again.
+ */
+class BuildStamp {
+
+    private final String inputs;
+    private final long resolved;
+    private final List<String> fileNames;
+    private final List<Fingerprint> fingerprints;
+
+    /**
+     * @param inputs the hash of the inputs, see {@link #hashInputs(List)}.
+     * @param resolved the time of the resolution, in milliseconds since the epoch.
+     * @param fileNames the file names of the packages in the output directory.
+     * @param fingerprints the fingerprints of the packages, in the same order as the file names.
+     */
+    BuildStamp(final String inputs, final long resolved, final List<String> fileNames,
+            final List<Fingerprint> fingerprints) {
+        this.inputs = inputs;
+        this.resolved = resolved;
+        this.fileNames = Collections.unmodifiableList(fileNames);
+        this.fingerprints = Collections.unmodifiableList(fingerprints);
+    }
+
+    /**
+     * Compute the hash of the inputs to a resolution.
+     *
+     * @param inputs the inputs, in a stable order.
+     *
+     * @return the hash.
+     */
+    static String hashInputs(final List<String> inputs) throws IOException {
+        final MessageDigest digest = FileUtils.newSha256Digest();
+        for (final String input : inputs) {
+            final byte[] bytes = (input != null ? input : "").getBytes(UTF_8);
+            // length prefixed, so that the boundaries between inputs are unambiguous
+            digest.update((byte) (bytes.length >>> 24));
+            digest.update((byte) (bytes.length >>> 16));
+            digest.update((byte) (bytes.length >>> 8));
+            digest.update((byte) bytes.length);
+            digest.update(bytes);
+        }
+        return FileUtils.toHexString(digest.digest());
+    }
+
+    /**
+     * Read a stamp.
+     *
+     * @param file the stamp file.
+     *
+     * @return the stamp, or null if there is no valid stamp.
+     */
+    static @Nullable BuildStamp read(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+
+        final String inputs = properties.getProperty("inputs");
+        if (inputs == null) {
+            return null;
+        }
+
+        final long resolved;
+        final int count;
+        try {
+            resolved = Long.parseLong(properties.getProperty("resolved"));
+            count = Integer.parseInt(properties.getProperty("count"));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+
+        final List<String> fileNames = new ArrayList<>(count);
+        final List<Fingerprint> fingerprints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String fileName = properties.getProperty("file." + i);
+            final Fingerprint fingerprint = Fingerprint.fromProperties(properties, i + ".");
+            if (fileName == null || fingerprint == null) {
+                return null;
+            }
+            fileNames.add(fileName);
+            fingerprints.add(fingerprint);
+        }
+
+        return new BuildStamp(inputs, resolved, fileNames, fingerprints);
+    }
+
+    /**
+     * Write the stamp.
+     *
+     * @param file the stamp file.
+     */
+    void write(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("inputs", inputs);
+        properties.setProperty("resolved", Long.toString(resolved));
+        properties.setProperty("count", Integer.toString(fileNames.size()));
+        for (int i = 0; i < fileNames.size(); i++) {
+            properties.setProperty("file." + i, fileNames.get(i));
+            fingerprints.get(i).toProperties(properties, i + ".");
+        }
+
+        // write to a temporary file and then move it into place, so that readers never see a partial stamp
+        final Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        final Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, null);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    String getInputs() {
+        return inputs;
+    }
+
+    long getResolved() {
+        return resolved;
+    }
+
+    /**
+     * Determine if the packages in the output directory are unchanged
+     * since the stamp was taken.
+     *
+     * @param outputDirectory the output directory.
+     * @param paranoidVerify true to verify the checksum of each package,
+     *     rather than trusting its fingerprint.
+     *
+     * @return true if every package is unchanged.
+     */
+    boolean outputsMatch(final Path outputDirectory, final boolean paranoidVerify) throws IOException {
+        for (int i = 0; i < fileNames.size(); i++) {
+            final Path file = outputDirectory.resolve(fileNames.get(i));
+            if (!Files.exists(file) || !fingerprints.get(i).matches(file)) {
+                return false;
+            }
+            if (paranoidVerify && !fingerprints.get(i).getSha256().equals(FileUtils.sha256(file))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,136 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on an entry of the cache, which is respected by every
+ * thread and process that shares the cache directory.
+ *
+ * It is used so that only one process downloads a package into the cache,
+ * whilst the others wait and then reuse the cached package.
+ *
+ * The lock is held on a lock file through the operating system, so if
+ * the process holding it crashes, the lock is released by the operating
+ * system; the lock file that is left behind is simply locked again by the
+ * next process.
+ */
+class CacheLock implements AutoCloseable {
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final ReentrantLock jvmLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private CacheLock(final ReentrantLock jvmLock, final FileChannel channel, final FileLock fileLock) {
+        this.jvmLock = jvmLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Acquire the lock, waiting for up to the timeout if it is held elsewhere.
+     *
+     * Must be closed by the same thread that acquired it.
+     *
+     * @param lockFile the lock file.
+     * @param timeoutMillis the maximum time to wait for the lock.
+     * @param log the log to write to.
+     *
+     * @return the lock, or null if it could not be acquired within the timeout.
+     */
+    static @Nullable CacheLock acquire(final Path lockFile, final long timeoutMillis, final Log log) throws IOException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+        final ReentrantLock jvmLock = PathLocks.forPath(lockFile);
+        try {
+            if (!jvmLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted whilst waiting for lock: " + lockFile);
+        }
+
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(lockFile.getParent());
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            boolean waiting = false;
+            while (true) {
+                final FileLock fileLock = channel.tryLock();
+                if (fileLock != null) {
+                    if (waiting) {
+                        log.info("Acquired lock: " + lockFile.getFileName());
+                    }
+                    recordOwner(channel);
+                    return new CacheLock(jvmLock, channel, fileLock);
+                }
+
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    channel.close();
+                    jvmLock.unlock();
+                    return null;
+                }
+
+                if (!waiting) {
+                    log.info("Waiting for another process to release lock: " + lockFile.getFileName());
+                    waiting = true;
+                }
+                try {
+                    Thread.sleep(Math.min(POLL_INTERVAL_MS, remaining));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted whilst waiting for lock: " + lockFile);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            if (jvmLock.isHeldByCurrentThread()) {
+                jvmLock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Record who holds the lock in the lock file, to help anyone diagnosing a build that is waiting.
+     */
+    private static void recordOwner(final FileChannel channel) throws IOException {
+        final byte[] owner = (ManagementFactory.getRuntimeMXBean().getName() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(owner), 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                fileLock.release();
+            } finally {
+                channel.close();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+}
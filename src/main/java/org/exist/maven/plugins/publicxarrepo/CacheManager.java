@@ -4,147 +4,786 @@ import com.evolvedbinary.j8fu.tuple.Tuple2;
 import org.apache.maven.plugin.logging.Log;
 
 import javax.annotation.Nullable;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileLock;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 import static com.evolvedbinary.j8fu.tuple.Tuple.Tuple;
 import static org.exist.maven.plugins.publicxarrepo.FileUtils.sha256;
 import static org.exist.maven.plugins.publicxarrepo.PackageInfo.METADATA_FILE_EXTENSION;
 
 public class CacheManager {
+    private static final String LOCKS_DIRECTORY_NAME = "locks";
+    private static final String LOCK_FILE_EXTENSION = ".lock";
+    static final String OBJECTS_DIRECTORY_NAME = "objects";
+    static final String ACCESS_FILE_EXTENSION = ".access";
+    private static final String EVICTION_LOCK_NAME = "eviction";
+    private static final Pattern OBJECT_NAME = Pattern.compile("[0-9a-f]{3,}");
+
+    /**
+     * The cache directories that have been migrated from the flat layout by this JVM.
+     */
+    private static final Set<Path> MIGRATED = ConcurrentHashMap.newKeySet();
+
     private final Path dir;
     private final Log log;
+    private final boolean paranoidVerify;
+    private final Materializer materializer;
 
     public CacheManager(final Path dir, final Log log) {
+        this(dir, log, false);
+    }
+
+    public CacheManager(final Path dir, final Log log, final boolean paranoidVerify) {
+        this(dir, log, paranoidVerify, new Materializer(Materializer.Strategy.COPY));
+    }
+
+    /**
+     * @param dir the directory of the cache.
+     * @param log the log to write to.
+     * @param paranoidVerify true to compute the checksum of a cached package
+     *     every time it is retrieved, rather than trusting its {@link Fingerprint}.
+     * @param materializer how to materialize packages in the cache.
+     */
+    CacheManager(final Path dir, final Log log, final boolean paranoidVerify, final Materializer materializer) {
         this.dir = dir;
         this.log = log;
+        this.paranoidVerify = paranoidVerify;
+        this.materializer = materializer;
     }
 
     /**
-     * Get the path of a package from the cache.
+     * Get a package from the cache.
      *
      * @param pkg the package to retrieve from the cache.
      * @param pkgInfo the latest info about the package, or null if not available.
      *
-     * @return the path of the package in the cache, or null if not available
+     * @return the cached package, or null if not available
      *
      */
-    public @Nullable Path get(final Package pkg, final @Nullable PackageInfo pkgInfo) throws IOException {
-        final Tuple2<SemanticVersion, Path> cachedVersion = getVersionFromCache(pkg);
-        if (cachedVersion == null) {
+    public @Nullable Cached get(final Package pkg, final @Nullable PackageInfo pkgInfo) throws IOException {
+        migrateFlatLayout();
+
+        if (pkgInfo != null) {
+            // the object is addressed by its checksum, so if it is present it is the requested package
+            final Path object = objectPath(pkgInfo.getSha256());
+            if (!Files.exists(object)) {
+                return null;
+            }
+            if (!verifiedSha256(object).equals(pkgInfo.getSha256())) {
+                log.warn("SHA-256 checksum of cached " + pkgInfo.getPath() + " does not match remote server version, cached version will be refreshed...");
+                return null;
+            }
+            recordAccess(object);
+            return new Cached(object, pkgInfo);
+        }
+
+        /* if no version is specified in pkg then get the latest */
+        final Tuple2<SemanticVersion, PackageDb.Entry> cachedEntry = PackageDb.findEntry(dir, getAbbrevAndOrName(pkg), VersionQuery.forPackage(pkg));
+        if (cachedEntry == null) {
             return null;
         }
 
-        if (pkgInfo != null) {
-            final SemanticVersion pkgInfoVersion = SemanticVersion.parse(pkgInfo.getVersion());
+        final PackageInfo cachedPkgInfo = cachedEntry._2.getPkgInfo();
+        final Path object = objectPath(cachedPkgInfo.getSha256());
+        if (!Files.exists(object)) {
+            return null;
+        }
+        if (!verifiedSha256(object).equals(cachedPkgInfo.getSha256())) {
+            log.warn("SHA-256 checksum of cached " + cachedPkgInfo.getPath() + " does not match its recorded checksum, ignoring it...");
+            return null;
+        }
+        recordAccess(object);
+        return new Cached(object, cachedPkgInfo);
+    }
 
-            if (cachedVersion._1.compareTo(pkgInfoVersion) != 0) {
-                // the version from the cache is not the latest/correct
-                return null;
+    /**
+     * Get the SHA-256 checksum of a cached file.
+     *
+     * The checksum is only computed if the file has changed since its
+     * {@link Fingerprint} was taken, or if paranoid verification is enabled.
+     *
+     * @param file the cached file.
+     *
+     * @return the SHA-256 checksum.
+     */
+    private String verifiedSha256(final Path file) throws IOException {
+        if (!paranoidVerify) {
+            final Fingerprint fingerprint = Fingerprint.read(file);
+            if (fingerprint != null && fingerprint.matches(file)) {
+                return fingerprint.getSha256();
             }
+        }
 
-            //
-            if (!sha256(cachedVersion._2).equals(pkgInfo.getSha256())) {
-                // sha256 does not match!
-                log.warn("SHA-256 checksum of " + cachedVersion._2.getFileName() + " does not match remote server version, cached version will be refreshed...");
-                return null;
+        final String sha256 = sha256(file);
+        Fingerprint.of(file, sha256).write(file);
+        return sha256;
+    }
+
+    /**
+     * Store a package in the cache.
+     *
+     * The package is stored as an object addressed by its checksum, so
+     * a package that is already stored (e.g. under another name) is not
+     * stored again.
+     *
+     * @param pkg the requested package.
+     * @param pkgInfo the info about the package, whose checksum has been verified.
+     * @param path the package.
+     */
+    public void put(final Package pkg, final PackageInfo pkgInfo, final Path path) throws IOException {
+        migrateFlatLayout();
+
+        final Path object = objectPath(pkgInfo.getSha256());
+
+        final ReentrantLock jvmLock = PathLocks.forPath(object);
+        jvmLock.lock();
+        try {
+            if (!Files.exists(object) || !verifiedSha256(object).equals(pkgInfo.getSha256())) {
+                Files.createDirectories(object.getParent());
+
+                /* materialize as a temporary file and then move it into place, so that readers never see a partial
+                   file, and so that an existing file (which may be hard linked elsewhere) is replaced rather than written to */
+                final Path tempFile = Files.createTempFile(object.getParent(), object.getFileName().toString(), ".tmp");
+                try {
+                    materializer.materialize(path, tempFile, log);
+                    moveIntoPlace(tempFile, object);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+
+                // NOTE: the download has already been verified against the checksum of the pkgInfo
+                Fingerprint.of(object, pkgInfo.getSha256()).write(object);
             }
+        } finally {
+            jvmLock.unlock();
         }
+        recordAccess(object);
+        PackageDb.addEntry(dir, getAbbrevAndOrName(pkg), new PackageDb.Entry(pkgInfo, Files.size(object), System.currentTimeMillis()));
+    }
 
-        return cachedVersion._2;
+    /**
+     * Record that an object has been used, by setting the last modified
+     * time of its access file. The object itself is never touched, as
+     * that would invalidate its {@link Fingerprint}.
+     *
+     * @param object the object.
+     */
+    private void recordAccess(final Path object) {
+        final Path accessFile = accessFile(object);
+        try {
+            try {
+                Files.setLastModifiedTime(accessFile, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (final NoSuchFileException e) {
+                Files.write(accessFile, new byte[0]);
+            }
+        } catch (final IOException e) {
+            // NOTE: the access time is only a hint for eviction, so a read-only cache is still usable
+            log.debug("Unable to record access of " + dir.relativize(object) + ": " + e.getMessage());
+        }
     }
 
-    private @Nullable Tuple2<SemanticVersion, Path> getVersionFromCache(final Package pkg) throws IOException {
-        final List<PackageInfo> cachedPackageInfos = PackageDb.findPackageInfos(dir, getAbbrevAndOrName(pkg));
-        if (cachedPackageInfos.isEmpty()) {
-            return null;
+    private static Path accessFile(final Path object) {
+        return object.resolveSibling(object.getFileName() + ACCESS_FILE_EXTENSION);
+    }
+
+    /**
+     * Evict the least recently used packages from the cache, until the
+     * cache holds no package which has not been used within the maximum
+     * age, and the total size of the packages is within the maximum size.
+     *
+     * Eviction never waits: if another thread or process is already
+     * evicting then nothing is done, and a package which is locked (e.g.
+     * because it is being downloaded) is skipped, to be evicted by a later
+     * pass if still necessary. The entries of an evicted package are
+     * removed from the {@link PackageDb} before its files are deleted, so
+     * that it is no longer found by name.
+     *
+     * @param maxSize the maximum total size of the packages in bytes, or -1 for no limit.
+     * @param maxAgeMillis the maximum time since a package was last used, or -1 for no limit.
+     *
+     * @return the number of packages evicted.
+     */
+    int evict(final long maxSize, final long maxAgeMillis) throws IOException {
+        if (maxSize < 0 && maxAgeMillis < 0) {
+            return 0;
+        }
+
+        final Path objectsDir = dir.resolve(OBJECTS_DIRECTORY_NAME);
+        if (!Files.isDirectory(objectsDir)) {
+            return 0;
         }
 
-        final SemanticVersion pkgVersion = pkg.getVersion() != null ? SemanticVersion.parse(pkg.getVersion()) : null;
-        final SemanticVersion pkgSemanticVersion = pkg.getSemanticVersion() != null ? SemanticVersion.parse(pkg.getSemanticVersion()) : null;
-        final SemanticVersion pkgSemanticVersionMin = pkg.getSemanticVersionMin() != null ? SemanticVersion.parse(pkg.getSemanticVersionMin()) : null;
-        final SemanticVersion pkgSemanticVersionMax = pkg.getSemanticVersionMax() != null ? SemanticVersion.parse(pkg.getSemanticVersionMax()) : null;
+        try (final CacheLock evictionLock = CacheLock.acquire(dir.resolve(LOCKS_DIRECTORY_NAME).resolve(EVICTION_LOCK_NAME + LOCK_FILE_EXTENSION), 0, log)) {
+            if (evictionLock == null) {
+                log.debug("The cache is already being evicted by another process");
+                return 0;
+            }
 
-        SemanticVersion latestVersion = SemanticVersion.parse("0.0.0");
-        Path latestVersionPath = null;
+            final List<CachedObject> objects = listObjects(objectsDir);
+            objects.sort(Comparator.comparingLong(object -> object.lastAccess));
+            long totalSize = 0;
+            for (final CachedObject object : objects) {
+                totalSize += object.size;
+            }
 
-        for (final PackageInfo cachedPackageInfo : cachedPackageInfos) {
+            final long oldest = maxAgeMillis >= 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+            final List<CachedObject> victims = new ArrayList<>();
+            final List<CacheLock> victimLocks = new ArrayList<>();
+            try {
+                for (final CachedObject object : objects) {
+                    final boolean tooOld = object.lastAccess < oldest;
+                    final boolean tooBig = maxSize >= 0 && totalSize > maxSize;
+                    if (!tooOld && !tooBig) {
+                        // the objects are in order of last access, so no later object is a victim either
+                        break;
+                    }
 
-            final SemanticVersion filePackageVersion = SemanticVersion.parse(cachedPackageInfo.getVersion());
+                    final CacheLock lock = CacheLock.acquire(dir.resolve(LOCKS_DIRECTORY_NAME).resolve(object.sha256 + LOCK_FILE_EXTENSION), 0, log);
+                    if (lock == null) {
+                        log.debug("Skipping eviction of locked " + dir.relativize(object.file));
+                        continue;
+                    }
+                    victimLocks.add(lock);
+                    victims.add(object);
+                    totalSize -= object.size;
+                }
 
-            /* check the filePackageVersion against pkg, if no version specified in pkg then get the latest */
+                if (victims.isEmpty()) {
+                    return 0;
+                }
 
-            if (pkgVersion != null) {
-                if (pkgVersion.compareTo(filePackageVersion) == 0) {
-                    return Tuple(filePackageVersion, dir.resolve(cachedPackageInfo.getPath()));
+                final Set<String> sha256s = new HashSet<>();
+                for (final CachedObject victim : victims) {
+                    sha256s.add(victim.sha256);
                 }
+                PackageDb.removeEntries(dir, sha256s);
 
-            } else if (pkgSemanticVersion != null) {
-                if (pkgSemanticVersion.compareTo(filePackageVersion) == 0) {
-                    return Tuple(filePackageVersion, dir.resolve(cachedPackageInfo.getPath()));
+                long evictedSize = 0;
+                for (final CachedObject victim : victims) {
+                    final ReentrantLock jvmLock = PathLocks.forPath(victim.file);
+                    jvmLock.lock();
+                    try {
+                        Files.deleteIfExists(victim.file);
+                        Files.deleteIfExists(Fingerprint.fingerprintFile(victim.file));
+                        Files.deleteIfExists(accessFile(victim.file));
+                    } finally {
+                        jvmLock.unlock();
+                    }
+                    evictedSize += victim.size;
+                    log.debug("Evicted " + dir.relativize(victim.file) + " from the cache");
+                }
+                log.info("Evicted " + victims.size() + " package(s) (" + evictedSize / 1024 + " KB) from the cache");
+                return victims.size();
+            } finally {
+                for (final CacheLock lock : victimLocks) {
+                    lock.close();
                 }
+            }
+        }
+    }
+
+    /**
+     * Verify every package in the cache, by computing its checksum (in
+     * parallel) and comparing it with the checksum that it is addressed by.
+     *
+     * Corrupt packages are removed along with their entries in the
+     * {@link PackageDb}, fingerprints that no longer match an intact
+     * package are rewritten, and entries of the db whose package no longer
+     * exists, as well as fingerprints, access files and the metadata files
+     * of earlier versions whose package no longer exists, are removed. A
+     * package which is locked (e.g. because it is being downloaded) is
+     * skipped.
+     *
+     * @param pool the pool to compute the checksums with.
+     *
+     * @return the outcome of the verification.
+     */
+    VerifyResult verify(final ForkJoinPool pool) throws IOException {
+        migrateFlatLayout();
+
+        final Path objectsDir = dir.resolve(OBJECTS_DIRECTORY_NAME);
+        final List<CachedObject> objects = Files.isDirectory(objectsDir) ? listObjects(objectsDir) : new ArrayList<>();
 
-            } else if (pkgSemanticVersionMin != null) {
-                if (pkgSemanticVersionMin.compareTo(filePackageVersion) <= 0 && filePackageVersion.compareTo(latestVersion) > 0) {
-                    latestVersion = filePackageVersion;
-                    latestVersionPath = dir.resolve(cachedPackageInfo.getPath());
+        final List<Callable<Throwable>> tasks = new ArrayList<>(objects.size());
+        final String[] actualSha256s = new String[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            final int index = i;
+            tasks.add(() -> {
+                try {
+                    actualSha256s[index] = FileUtils.sha256(objects.get(index).file);
+                    return null;
+                } catch (final IOException e) {
+                    return e;
                 }
+            });
+        }
 
-            } else if (pkgSemanticVersionMax != null) {
-                if (pkgSemanticVersionMax.compareTo(filePackageVersion) >= 0 && filePackageVersion.compareTo(latestVersion) > 0) {
-                    latestVersion = filePackageVersion;
-                    latestVersionPath = dir.resolve(cachedPackageInfo.getPath());
+        final VerifyResult result = new VerifyResult();
+        final List<Future<Throwable>> futures = pool.invokeAll(tasks);
+        final Set<String> corruptSha256s = new HashSet<>();
+        final List<CacheLock> corruptLocks = new ArrayList<>();
+        try {
+            for (int i = 0; i < objects.size(); i++) {
+                final CachedObject object = objects.get(i);
+                final Throwable error = getQuietly(futures.get(i));
+                if (error instanceof NoSuchFileException) {
+                    // evicted by another process
+                    continue;
+                } else if (error != null) {
+                    throw new IOException("Unable to verify " + dir.relativize(object.file) + ": " + error.getMessage(), error);
                 }
 
-            } else {
-                if (filePackageVersion.compareTo(latestVersion) > 0) {
-                    latestVersion = filePackageVersion;
-                    latestVersionPath = dir.resolve(cachedPackageInfo.getPath());
+                result.verified++;
+                result.verifiedSize += object.size;
+                if (object.sha256.equals(actualSha256s[i])) {
+                    final Fingerprint fingerprint = Fingerprint.read(object.file);
+                    if (fingerprint == null || !fingerprint.matches(object.file) || !object.sha256.equals(fingerprint.getSha256())) {
+                        Fingerprint.of(object.file, object.sha256).write(object.file);
+                        result.repaired++;
+                    }
+                    continue;
                 }
+
+                final CacheLock lock = CacheLock.acquire(dir.resolve(LOCKS_DIRECTORY_NAME).resolve(object.sha256 + LOCK_FILE_EXTENSION), 0, log);
+                if (lock == null) {
+                    log.warn("Skipping corrupt " + dir.relativize(object.file) + " as it is locked by another process");
+                    continue;
+                }
+                // it may have been replaced by whoever held the lock before us
+                if (Files.exists(object.file) && object.sha256.equals(FileUtils.sha256(object.file))) {
+                    lock.close();
+                    continue;
+                }
+                corruptLocks.add(lock);
+                corruptSha256s.add(object.sha256);
+                log.warn("SHA-256 checksum of cached " + dir.relativize(object.file) + " does not match, removing it...");
+            }
+
+            // the entries of corrupt packages, and of any package which no longer exists
+            final Set<String> removedSha256s = new HashSet<>(corruptSha256s);
+            for (final PackageDb.Entry entry : PackageDb.findAllEntries(dir)) {
+                final String sha256 = entry.getPkgInfo().getSha256().toLowerCase(Locale.ENGLISH);
+                if (!OBJECT_NAME.matcher(sha256).matches() || corruptSha256s.contains(sha256)) {
+                    continue;
+                }
+                if (!Files.exists(objectPath(sha256)) && removedSha256s.add(sha256)) {
+                    result.orphanedEntries++;
+                }
+            }
+            if (!removedSha256s.isEmpty()) {
+                PackageDb.removeEntries(dir, removedSha256s);
+            }
+
+            for (final String sha256 : corruptSha256s) {
+                final Path object = objectPath(sha256);
+                final ReentrantLock jvmLock = PathLocks.forPath(object);
+                jvmLock.lock();
+                try {
+                    Files.deleteIfExists(object);
+                    Files.deleteIfExists(Fingerprint.fingerprintFile(object));
+                    Files.deleteIfExists(accessFile(object));
+                } finally {
+                    jvmLock.unlock();
+                }
+                result.removed++;
+            }
+        } finally {
+            for (final CacheLock lock : corruptLocks) {
+                lock.close();
             }
         }
 
-        if (latestVersionPath == null) {
-            return null;
+        if (Files.isDirectory(objectsDir)) {
+            result.orphanedFiles = removeOrphanedSidecars(objectsDir);
+        }
+        if (Files.isDirectory(dir)) {
+            result.orphanedFiles += removeFlatSidecars();
         }
+        return result;
+    }
 
-        return Tuple(latestVersion, latestVersionPath);
+    private static @Nullable Throwable getQuietly(final Future<Throwable> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted whilst verifying the cache");
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        }
     }
 
-    public void put(final Package pkg, final PackageInfo pkgInfo, final Path path) throws IOException {
-        final Path destFile = dir.resolve(path.getFileName());
-        try (final FileOutputStream os = new FileOutputStream(destFile.toFile(), false)) {
-            final FileLock lock = os.getChannel().lock();
+    /**
+     * Remove fingerprints and access files whose object no longer exists.
+     *
+     * @return the number of files removed.
+     */
+    private static int removeOrphanedSidecars(final Path objectsDir) throws IOException {
+        int removed = 0;
+        try (final DirectoryStream<Path> prefixes = Files.newDirectoryStream(objectsDir, Files::isDirectory)) {
+            for (final Path prefix : prefixes) {
+                try (final DirectoryStream<Path> files = Files.newDirectoryStream(prefix)) {
+                    for (final Path file : files) {
+                        final String fileName = file.getFileName().toString();
+                        final String objectName;
+                        if (fileName.endsWith(Fingerprint.FINGERPRINT_FILE_EXTENSION)) {
+                            objectName = fileName.substring(0, fileName.length() - Fingerprint.FINGERPRINT_FILE_EXTENSION.length());
+                        } else if (fileName.endsWith(ACCESS_FILE_EXTENSION)) {
+                            objectName = fileName.substring(0, fileName.length() - ACCESS_FILE_EXTENSION.length());
+                        } else {
+                            continue;
+                        }
+                        if (!Files.exists(prefix.resolve(objectName)) && Files.deleteIfExists(file)) {
+                            removed++;
+                        }
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove fingerprints and metadata files left in the root of the cache
+     * directory by earlier versions, whose package has since been migrated
+     * into objects (or was never there).
+     *
+     * @return the number of files removed.
+     */
+    private int removeFlatSidecars() throws IOException {
+        int removed = 0;
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.xar{" + METADATA_FILE_EXTENSION + "," + Fingerprint.FINGERPRINT_FILE_EXTENSION + "}")) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+                final Path flatFile = file.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')));
+                if (!Files.exists(flatFile) && Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static List<CachedObject> listObjects(final Path objectsDir) throws IOException {
+        final List<CachedObject> objects = new ArrayList<>();
+        try (final DirectoryStream<Path> prefixes = Files.newDirectoryStream(objectsDir, Files::isDirectory)) {
+            for (final Path prefix : prefixes) {
+                try (final DirectoryStream<Path> files = Files.newDirectoryStream(prefix)) {
+                    for (final Path file : files) {
+                        final String sha256 = prefix.getFileName().toString() + file.getFileName();
+                        // NOTE: skips fingerprints, access files and temporary files
+                        if (!OBJECT_NAME.matcher(sha256).matches()) {
+                            continue;
+                        }
+                        try {
+                            final long size = Files.size(file);
+                            final Path accessFile = accessFile(file);
+                            final long lastAccess = Files.getLastModifiedTime(Files.exists(accessFile) ? accessFile : file).toMillis();
+                            objects.add(new CachedObject(file, sha256, size, lastAccess));
+                        } catch (final NoSuchFileException e) {
+                            // evicted by another process
+                        }
+                    }
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Parse a size, e.g. the value of the {@code maxCacheSize} option.
+     *
+     * @param size a number of bytes, optionally suffixed by {@code K}, {@code M} or {@code G}.
+     *
+     * @return the number of bytes.
+     *
+     * @throws IllegalArgumentException if the size is not valid.
+     */
+    static long parseSize(final String size) {
+        final String value = size.trim().toUpperCase(Locale.ENGLISH);
+        long multiplier = 1;
+        String digits = value;
+        if (value.endsWith("K") || value.endsWith("M") || value.endsWith("G")) {
+            digits = value.substring(0, value.length() - 1).trim();
+            switch (value.charAt(value.length() - 1)) {
+                case 'K':
+                    multiplier = 1024L;
+                    break;
+                case 'M':
+                    multiplier = 1024L * 1024;
+                    break;
+                default:
+                    multiplier = 1024L * 1024 * 1024;
+                    break;
+            }
+        }
+        try {
+            final long bytes = Long.parseLong(digits);
+            if (bytes < 0) {
+                throw new NumberFormatException();
+            }
+            return Math.multiplyExact(bytes, multiplier);
+        } catch (final NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid size: '" + size + "', expected a number of bytes optionally followed by K, M or G");
+        }
+    }
+
+    /**
+     * Get the path of the object which holds the content with a checksum.
+     *
+     * @param sha256 the SHA-256 checksum of the content.
+     *
+     * @return the path of the object, i.e. {@code objects/<first two hex digits>/<remaining hex digits>}.
+     */
+    Path objectPath(final String sha256) throws IOException {
+        final String hex = checkSha256(sha256);
+        return dir.resolve(OBJECTS_DIRECTORY_NAME).resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    /**
+     * Check that a checksum (which may have come from the remote repo) is
+     * safe to use as part of a path.
+     *
+     * @param sha256 the SHA-256 checksum.
+     *
+     * @return the checksum in lower case.
+     *
+     * @throws IOException if the checksum is not a hex string.
+     */
+    private static String checkSha256(final String sha256) throws IOException {
+        if (sha256 == null || !OBJECT_NAME.matcher(sha256.toLowerCase(Locale.ENGLISH)).matches()) {
+            throw new IOException("Invalid SHA-256 checksum: " + sha256);
+        }
+        return sha256.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Migrate packages stored by earlier versions as {@code <path>} in the
+     * root of the cache directory, into objects.
+     *
+     * The checksum of each file is taken from its fingerprint if it is
+     * unchanged, or otherwise computed, so that the migrated object is
+     * always correctly addressed. The {@code <path>.xml} metadata file of
+     * each is deleted, once its {@link PackageInfo} has been carried into
+     * the {@link PackageDb}.
+     */
+    private void migrateFlatLayout() throws IOException {
+        if (MIGRATED.contains(dir.toAbsolutePath().normalize())) {
+            return;
+        }
+
+        final List<Path> flatFiles = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        // NOTE: the db of an earlier version may still refer to the metadata files, so must be migrated first
+        PackageDb.migrateUnsharded(dir);
+
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.xar")) {
+            for (final Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    flatFiles.add(file);
+                }
+            }
+        }
+
+        for (final Path file : flatFiles) {
+            final ReentrantLock jvmLock = PathLocks.forPath(file);
+            jvmLock.lock();
             try {
-                Files.copy(path, os);
-                serialize(pkgInfo, destFile.resolveSibling(destFile.getFileName().toString() + METADATA_FILE_EXTENSION));
+                if (!Files.exists(file)) {
+                    // migrated by another thread or process
+                    continue;
+                }
+                final String sha256 = verifiedSha256(file);
+                final Path object = objectPath(sha256);
+                if (Files.exists(object)) {
+                    Files.delete(file);
+                } else {
+                    Files.createDirectories(object.getParent());
+                    moveIntoPlace(file, object);
+                    Fingerprint.of(object, sha256).write(object);
+                }
+                Files.deleteIfExists(Fingerprint.fingerprintFile(file));
+                Files.deleteIfExists(metadataFile(file));
+                log.debug("Migrated cached " + file.getFileName() + " to " + dir.relativize(object));
+            } catch (final NoSuchFileException e) {
+                // migrated by another process
             } finally {
-                lock.close();
+                jvmLock.unlock();
             }
         }
-        PackageDb.addPackageInfo(dir, getAbbrevAndOrName(pkg), pkgInfo);
+
+        MIGRATED.add(dir.toAbsolutePath().normalize());
     }
 
-    private PackageDb.AbbrevAndOrName getAbbrevAndOrName(final Package pkg) {
-        final Optional<String> abbrev = Optional.ofNullable(pkg.getAbbrev()).filter(s -> !s.isEmpty());
-        final Optional<String> name = Optional.ofNullable(pkg.getAbbrev()).filter(s -> !s.isEmpty());
-        return new PackageDb.AbbrevAndOrName(abbrev, name);
+    private static Path metadataFile(final Path file) {
+        return file.resolveSibling(file.getFileName() + METADATA_FILE_EXTENSION);
     }
 
-    private void serialize(final PackageInfo pkgInfo, final Path path) throws IOException {
+    private static void moveIntoPlace(final Path source, final Path target) throws IOException {
         try {
-            final StreamResult result = new StreamResult(path.toString());
-            pkgInfo.serialize(result);
-        } catch (final ParserConfigurationException | TransformerException e) {
-            throw new IOException(e);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Get the cache of the package info retrieved from the remote repo.
+     *
+     * @return the cache of package info.
+     */
+    FindCache getFindCache() {
+        return new FindCache(dir);
+    }
+
+    /**
+     * Get the cache of the catalog of the remote repo.
+     *
+     * @return the cache of the catalog.
+     */
+    CatalogCache getCatalogCache() {
+        return new CatalogCache(dir);
+    }
+
+    /**
+     * Lock the cache object of a package, so that only one thread or
+     * process (sharing the cache directory) downloads the package.
+     *
+     * @param pkgInfo the info about the package.
+     * @param timeoutMillis the maximum time to wait for the lock.
+     *
+     * @return the lock, or null if it could not be acquired within the timeout.
+     */
+    @Nullable CacheLock lock(final PackageInfo pkgInfo, final long timeoutMillis) throws IOException {
+        final Path lockFile = dir.resolve(LOCKS_DIRECTORY_NAME).resolve(checkSha256(pkgInfo.getSha256()) + LOCK_FILE_EXTENSION);
+        return CacheLock.acquire(lockFile, timeoutMillis, log);
+    }
+
+    /**
+     * The outcome of {@link #verify(ForkJoinPool)}.
+     */
+    static class VerifyResult {
+        private int verified;
+        private long verifiedSize;
+        private int repaired;
+        private int removed;
+        private int orphanedEntries;
+        private int orphanedFiles;
+
+        /**
+         * @return the number of packages whose checksum was computed.
+         */
+        int getVerified() {
+            return verified;
+        }
+
+        /**
+         * @return the total size of the packages whose checksum was computed.
+         */
+        long getVerifiedSize() {
+            return verifiedSize;
+        }
+
+        /**
+         * @return the number of intact packages whose fingerprint was rewritten.
+         */
+        int getRepaired() {
+            return repaired;
         }
+
+        /**
+         * @return the number of corrupt packages that were removed.
+         */
+        int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the number of packages whose entries in the db were removed as the package no longer exists.
+         */
+        int getOrphanedEntries() {
+            return orphanedEntries;
+        }
+
+        /**
+         * @return the number of fingerprints and access files that were removed as their package no longer exists.
+         */
+        int getOrphanedFiles() {
+            return orphanedFiles;
+        }
+    }
+
+    /**
+     * An object found by scanning the cache.
+     */
+    private static class CachedObject {
+        final Path file;
+        final String sha256;
+        final long size;
+        final long lastAccess;
+
+        CachedObject(final Path file, final String sha256, final long size, final long lastAccess) {
+            this.file = file;
+            this.sha256 = sha256;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * A package in the cache.
+     */
+    public static class Cached {
+        private final Path file;
+        private final PackageInfo pkgInfo;
+
+        Cached(final Path file, final PackageInfo pkgInfo) {
+            this.file = file;
+            this.pkgInfo = pkgInfo;
+        }
+
+        /**
+         * @return the cached file, whose name is not that of the package.
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the info about the cached package.
+         */
+        public PackageInfo getPkgInfo() {
+            return pkgInfo;
+        }
+    }
+
+    private PackageDb.AbbrevAndOrName getAbbrevAndOrName(final Package pkg) {
+        final Optional<String> abbrev = Optional.ofNullable(pkg.getAbbrev()).filter(s -> !s.isEmpty());
+        final Optional<String> name = Optional.ofNullable(pkg.getName()).filter(s -> !s.isEmpty());
+        return new PackageDb.AbbrevAndOrName(abbrev, name);
     }
 }
@@ -0,0 +1,340 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The catalog of the remote repo, which lists every release of every
+ * package that it holds, so that any number of packages can be resolved
+ * from a single download rather than one {@code /find} request each.
+ *
+ * The catalog is published at {@code /public/apps.xml}, in the form:
+ * <pre>{@code
+ * <apps>
+ *   <app path="functx-1.0.0.xar" sha256="...">
+ *     <name>http://www.functx.com</name>
+ *     <abbrev>functx</abbrev>
+ *     <version>1.0.0</version>
+ *     <requires processor="http://exist-db.org" semver-min="5.0.0"/>
+ *   </app>
+ *   ...
+ * </apps>
+ * }</pre>
+ *
+ * It is parsed with a streaming parser, so only the releases themselves
+ * are held in memory.
+ */
+class Catalog {
+
+    static final String CATALOG_PATH = "/public/apps.xml";
+
+    private static final Set<String> EXIST_PROCESSORS = new HashSet<>(Arrays.asList(
+            "http://exist-db.org",
+            "http://exist.sourceforge.net"
+    ));
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final Map<String, List<Release>> releasesByAbbrev;
+    private final Map<String, List<Release>> releasesByName;
+    private final int size;
+
+    private Catalog(final Map<String, List<Release>> releasesByAbbrev, final Map<String, List<Release>> releasesByName,
+            final int size) {
+        this.releasesByAbbrev = releasesByAbbrev;
+        this.releasesByName = releasesByName;
+        this.size = size;
+    }
+
+    /**
+     * Parse a catalog.
+     *
+     * @param is the content of the catalog.
+     *
+     * @return the catalog.
+     *
+     * @throws IOException if the catalog cannot be read or is invalid.
+     */
+    static Catalog parse(final InputStream is) throws IOException {
+        final Map<String, List<Release>> releasesByAbbrev = new HashMap<>();
+        final Map<String, List<Release>> releasesByName = new HashMap<>();
+        int size = 0;
+
+        try {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+            try {
+                ReleaseBuilder release = null;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        final String localName = reader.getLocalName();
+                        if (release == null) {
+                            if ("app".equals(localName)) {
+                                release = new ReleaseBuilder(reader.getAttributeValue(null, "path"),
+                                        reader.getAttributeValue(null, "sha256"));
+                            }
+                        } else if ("name".equals(localName)) {
+                            release.name = reader.getElementText().trim();
+                        } else if ("abbrev".equals(localName)) {
+                            release.abbrev = reader.getElementText().trim();
+                        } else if ("version".equals(localName)) {
+                            release.version = reader.getElementText().trim();
+                        } else if ("requires".equals(localName)) {
+                            release.requires.add(new Requirement(
+                                    reader.getAttributeValue(null, "processor"),
+                                    reader.getAttributeValue(null, "version"),
+                                    reader.getAttributeValue(null, "semver"),
+                                    reader.getAttributeValue(null, "semver-min"),
+                                    reader.getAttributeValue(null, "semver-max")));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && release != null
+                            && "app".equals(reader.getLocalName())) {
+                        final Release built = release.build();
+                        if (built != null) {
+                            if (built.abbrev != null) {
+                                releasesByAbbrev.computeIfAbsent(built.abbrev, k -> new ArrayList<>()).add(built);
+                            }
+                            if (built.name != null) {
+                                releasesByName.computeIfAbsent(built.name, k -> new ArrayList<>()).add(built);
+                            }
+                            size++;
+                        }
+                        release = null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            throw new IOException("Invalid catalog: " + e.getMessage(), e);
+        }
+
+        return new Catalog(releasesByAbbrev, releasesByName, size);
+    }
+
+    /**
+     * @return the number of releases in the catalog.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the best release of a package.
+     *
+     * @param pkg the requested package.
+     * @param processorVersion the version of eXist-db that the package must be compatible with.
+     *
+     * @return the info about the latest release that satisfies the version
+     *     constraints of the package and is compatible with the processor,
+     *     or null if there is none.
+     */
+    @Nullable PackageInfo find(final Package pkg, final String processorVersion) {
+        final List<Release> candidates;
+        if (pkg.getAbbrev() != null && !pkg.getAbbrev().isEmpty()) {
+            candidates = releasesByAbbrev.getOrDefault(pkg.getAbbrev(), Collections.emptyList());
+        } else {
+            candidates = releasesByName.getOrDefault(pkg.getName(), Collections.emptyList());
+        }
+
+        final SemanticVersion processor = parseOrNull(processorVersion);
+
+        Release best = null;
+        for (final Release release : candidates) {
+            if (pkg.getName() != null && !pkg.getName().isEmpty() && !pkg.getName().equals(release.name)) {
+                continue;
+            }
+            if (!satisfies(pkg, release) || !release.isCompatibleWith(processorVersion, processor)) {
+                continue;
+            }
+            // NOTE: when versions are equal the first listed release is kept
+            if (best == null || compare(release, best) > 0) {
+                best = release;
+            }
+        }
+        return best != null ? best.pkgInfo : null;
+    }
+
+    private static boolean satisfies(final Package pkg, final Release release) {
+        if (pkg.getVersion() != null) {
+            return pkg.getVersion().equals(release.pkgInfo.getVersion());
+        }
+        if (pkg.getSemanticVersion() == null && pkg.getSemanticVersionMin() == null
+                && pkg.getSemanticVersionMax() == null) {
+            return true;
+        }
+
+        final SemanticVersion version = release.semanticVersion;
+        if (version == null) {
+            return false;
+        }
+        if (pkg.getSemanticVersion() != null && version.compareTo(SemanticVersion.parse(pkg.getSemanticVersion())) != 0) {
+            return false;
+        }
+        if (pkg.getSemanticVersionMin() != null && version.compareTo(SemanticVersion.parse(pkg.getSemanticVersionMin())) < 0) {
+            return false;
+        }
+        return pkg.getSemanticVersionMax() == null || version.compareTo(SemanticVersion.parse(pkg.getSemanticVersionMax())) <= 0;
+    }
+
+    private static int compare(final Release a, final Release b) {
+        if (a.semanticVersion == null) {
+            return b.semanticVersion == null ? 0 : -1;
+        } else if (b.semanticVersion == null) {
+            return 1;
+        }
+        return a.semanticVersion.compareTo(b.semanticVersion);
+    }
+
+    private static @Nullable SemanticVersion parseOrNull(@Nullable final String version) {
+        if (version == null) {
+            return null;
+        }
+        try {
+            return SemanticVersion.parse(version);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A release of a package.
+     */
+    private static class Release {
+        private final PackageInfo pkgInfo;
+        @Nullable private final SemanticVersion semanticVersion;
+        @Nullable private final String name;
+        @Nullable private final String abbrev;
+        private final List<Requirement> requires;
+
+        private Release(final PackageInfo pkgInfo, @Nullable final String name, @Nullable final String abbrev,
+                final List<Requirement> requires) {
+            this.pkgInfo = pkgInfo;
+            this.semanticVersion = parseOrNull(pkgInfo.getVersion());
+            this.name = name;
+            this.abbrev = abbrev;
+            this.requires = requires;
+        }
+
+        /**
+         * A release without any processor requirements is compatible with
+         * every processor, otherwise it must have a requirement on eXist-db
+         * which the version satisfies.
+         */
+        private boolean isCompatibleWith(final String processorVersion, @Nullable final SemanticVersion processor) {
+            if (requires.isEmpty()) {
+                return true;
+            }
+            for (final Requirement requirement : requires) {
+                if (requirement.processor != null && EXIST_PROCESSORS.contains(requirement.processor)
+                        && requirement.isSatisfiedBy(processorVersion, processor)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A requirement of a release on a processor, as per the
+     * {@code dependency} element of the EXPath Packaging spec.
+     */
+    private static class Requirement {
+        @Nullable private final String processor;
+        @Nullable private final String version;
+        @Nullable private final String semver;
+        @Nullable private final String semverMin;
+        @Nullable private final String semverMax;
+
+        private Requirement(@Nullable final String processor, @Nullable final String version,
+                @Nullable final String semver, @Nullable final String semverMin, @Nullable final String semverMax) {
+            this.processor = processor;
+            this.version = version;
+            this.semver = semver;
+            this.semverMin = semverMin;
+            this.semverMax = semverMax;
+        }
+
+        private boolean isSatisfiedBy(final String processorVersion, @Nullable final SemanticVersion processor) {
+            if (version != null) {
+                return version.equals(processorVersion);
+            }
+            if (semver == null && semverMin == null && semverMax == null) {
+                return true;
+            }
+            if (processor == null) {
+                return false;
+            }
+            if (semver != null && !matchesTemplate(processor, semver)) {
+                return false;
+            }
+            final SemanticVersion min = parseOrNull(semverMin);
+            if (min != null && processor.compareTo(min) < 0) {
+                return false;
+            }
+            final SemanticVersion max = parseOrNull(semverMax);
+            return max == null || processor.compareTo(max) <= 0;
+        }
+
+        /**
+         * A semver template matches every version that starts with the
+         * same components, e.g. {@code 5} matches {@code 5.4.1}.
+         */
+        private static boolean matchesTemplate(final SemanticVersion version, final String template) {
+            final String[] components = template.split("\\.");
+            final int[] actual = { version.getMajor(), version.getMinor(), version.getPatch() };
+            for (int i = 0; i < components.length && i < actual.length; i++) {
+                try {
+                    if (Integer.parseInt(components[i]) != actual[i]) {
+                        return false;
+                    }
+                } catch (final NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class ReleaseBuilder {
+        @Nullable private final String path;
+        @Nullable private final String sha256;
+        @Nullable private String name;
+        @Nullable private String abbrev;
+        @Nullable private String version;
+        private final List<Requirement> requires = new ArrayList<>();
+
+        private ReleaseBuilder(@Nullable final String path, @Nullable final String sha256) {
+            this.path = path;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * @return the release, or null if it is incomplete.
+         */
+        private @Nullable Release build() {
+            if (path == null || path.isEmpty() || sha256 == null || sha256.isEmpty() || version == null
+                    || ((name == null || name.isEmpty()) && (abbrev == null || abbrev.isEmpty()))) {
+                return null;
+            }
+            return new Release(new PackageInfo(sha256, version, path), name, abbrev, requires);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A persistent copy of the {@link Catalog} of the remote repo, keyed by
+ * the URI of the catalog.
+ *
+ * Each copy is stored as {@code catalog/<sha256 of uri>.xml}, along with
+ * a {@code .properties} file holding the URI, the time that it was
+ * retrieved, and the validators ({@code ETag} and {@code Last-Modified})
+ * needed to revalidate it with a conditional request.
+ */
+class CatalogCache {
+
+    static final String CATALOG_DIRECTORY_NAME = "catalog";
+
+    private final Path dir;
+
+    CatalogCache(final Path cacheDir) {
+        this.dir = cacheDir.resolve(CATALOG_DIRECTORY_NAME);
+    }
+
+    /**
+     * Get the cached copy of a catalog.
+     *
+     * @param uri the URI of the catalog.
+     *
+     * @return the cached copy, or null if there is none.
+     */
+    @Nullable Entry get(final String uri) throws IOException {
+        final Path file = file(uri);
+        final Path propertiesFile = propertiesFile(file);
+        if (!Files.exists(file) || !Files.exists(propertiesFile)) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(propertiesFile)) {
+            properties.load(is);
+        }
+
+        // guard against a collision of the hash
+        if (!uri.equals(properties.getProperty("uri"))) {
+            return null;
+        }
+
+        final long fetched;
+        try {
+            fetched = Long.parseLong(properties.getProperty("fetched"));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+
+        return new Entry(file, fetched, properties.getProperty("etag"), properties.getProperty("lastModified"));
+    }
+
+    /**
+     * Create a temporary file to download a catalog to, which may then be
+     * passed to {@link #put(String, Path, long, String, String)}.
+     *
+     * @return the temporary file.
+     */
+    Path newTempFile() throws IOException {
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, "catalog", ".tmp");
+    }
+
+    /**
+     * Store a copy of a catalog.
+     *
+     * @param uri the URI of the catalog.
+     * @param tempFile the downloaded catalog, which is moved into the cache.
+     * @param fetched the time that it was retrieved, in milliseconds since the epoch.
+     * @param etag the value of the {@code ETag} header of the response, or null.
+     * @param lastModified the value of the {@code Last-Modified} header of the response, or null.
+     *
+     * @return the cached copy.
+     */
+    Entry put(final String uri, final Path tempFile, final long fetched, @Nullable final String etag,
+            @Nullable final String lastModified) throws IOException {
+        final Path file = file(uri);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        final Entry entry = new Entry(file, fetched, etag, lastModified);
+        writeProperties(uri, entry);
+        return entry;
+    }
+
+    /**
+     * Record that a cached copy of a catalog was revalidated.
+     *
+     * @param uri the URI of the catalog.
+     * @param entry the cached copy, as revalidated.
+     */
+    void touch(final String uri, final Entry entry) throws IOException {
+        writeProperties(uri, entry);
+    }
+
+    private void writeProperties(final String uri, final Entry entry) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("uri", uri);
+        properties.setProperty("fetched", Long.toString(entry.getFetched()));
+        if (entry.getEtag() != null) {
+            properties.setProperty("etag", entry.getEtag());
+        }
+        if (entry.getLastModified() != null) {
+            properties.setProperty("lastModified", entry.getLastModified());
+        }
+
+        // write to a temporary file and then move it into place, so that readers never see a partial file
+        final Path propertiesFile = propertiesFile(entry.getFile());
+        final Path tempFile = Files.createTempFile(dir, propertiesFile.getFileName().toString(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, null);
+            }
+            Files.move(tempFile, propertiesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path file(final String uri) throws IOException {
+        return dir.resolve(FileUtils.toHexString(FileUtils.newSha256Digest().digest(uri.getBytes(UTF_8))) + ".xml");
+    }
+
+    private static Path propertiesFile(final Path file) {
+        return file.resolveSibling(file.getFileName().toString() + ".properties");
+    }
+
+    /**
+     * A cached copy of a catalog.
+     */
+    static class Entry {
+        private final Path file;
+        private final long fetched;
+        @Nullable private final String etag;
+        @Nullable private final String lastModified;
+
+        /**
+         * @param file the cached copy of the catalog.
+         * @param fetched the time that it was retrieved (or revalidated) from the remote repo, in milliseconds since the epoch.
+         * @param etag the value of the {@code ETag} header of the response, or null.
+         * @param lastModified the value of the {@code Last-Modified} header of the response, or null.
+         */
+        Entry(final Path file, final long fetched, @Nullable final String etag, @Nullable final String lastModified) {
+            this.file = file;
+            this.fetched = fetched;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long getFetched() {
+            return fetched;
+        }
+
+        @Nullable
+        String getEtag() {
+            return etag;
+        }
+
+        @Nullable
+        String getLastModified() {
+            return lastModified;
+        }
+    }
+}
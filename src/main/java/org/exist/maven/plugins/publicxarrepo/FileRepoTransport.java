@@ -0,0 +1,124 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Accesses a mirror of a repo in a directory, e.g. on a network share,
+ * without any HTTP. The directory has the same layout as the public
+ * area of the remote repo:
+ * <pre>{@code
+ * public/apps.xml
+ * public/functx-1.0.1.xar
+ * ...
+ * }</pre>
+ *
+ * Find queries are answered from the catalog ({@code apps.xml}), which
+ * is read once. Packages are materialized from the directory by
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so that their content is never copied through the heap, and so that
+ * the fetched file never shares its content with the mirror, which may
+ * be updated in place (e.g. by {@code rsync --inplace}).
+ *
+ * The files of the mirror do not belong to the build, so their
+ * permissions are never changed, even when they are hard linked.
+ */
+class FileRepoTransport implements RepoTransport {
+
+    private final Path repoDir;
+    private final Materializer materializer;
+
+    private final Object indexLock = new Object();
+    @Nullable private Catalog index;
+
+    /**
+     * @param repoDir the directory of the mirror.
+     */
+    FileRepoTransport(final Path repoDir) {
+        this(repoDir, Materializer.Strategy.TRANSFER);
+    }
+
+    /**
+     * @param repoDir the directory of the mirror.
+     * @param strategy the first strategy to attempt when materializing a package.
+     *     A hard link shares its content with the mirror, so should only be used
+     *     for a mirror whose files are replaced rather than updated in place.
+     */
+    FileRepoTransport(final Path repoDir, final Materializer.Strategy strategy) {
+        this.repoDir = repoDir;
+        this.materializer = new Materializer(strategy, false);
+    }
+
+    @Override
+    public FindCache.Entry find(final Package pkg, final String existDbVersion, @Nullable final FindCache.Entry cached,
+            final Log log) throws MojoExecutionException {
+        final Catalog catalog;
+        try {
+            catalog = getIndex(log);
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+
+        final PackageInfo pkgInfo = catalog.find(pkg, existDbVersion);
+        if (pkgInfo == null) {
+            throw new MojoExecutionException("No suitable release of " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev())
+                    + " in the repo: " + repoDir);
+        }
+        return new FindCache.Entry(pkgInfo, System.currentTimeMillis(), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The catalog is local, so it is neither cached nor refreshed.
+     */
+    @Override
+    public Catalog getCatalog(@Nullable final CatalogCache catalogCache, final UpdatePolicy updatePolicy,
+            final Log log) throws IOException {
+        return getIndex(log);
+    }
+
+    @Override
+    public void fetch(final PackageInfo pkgInfo, final Path target, final Log log)
+            throws MojoExecutionException, MojoFailureException {
+        final Path publicDir = repoDir.resolve("public").normalize();
+        final Path source = publicDir.resolve(pkgInfo.getPath()).normalize();
+        if (!source.startsWith(publicDir) || !Files.isRegularFile(source)) {
+            throw new MojoExecutionException("Unable to find package in the repo: " + source);
+        }
+
+        try {
+            final Materializer.Strategy strategy = materializer.materialize(source, target, log);
+            log.info("Fetched " + source + " by " + strategy);
+
+            // NOTE: the mirror is trusted no more than a remote repo
+            final String checksum = FileUtils.sha256(target);
+            if (!pkgInfo.getSha256().equals(checksum)) {
+                Files.deleteIfExists(target);
+                throw new MojoFailureException("Fetched file does not match PackageInfo checksum: expected=" + pkgInfo.getSha256() + ", actual=" + checksum);
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    private Catalog getIndex(final Log log) throws IOException {
+        synchronized (indexLock) {
+            if (index == null) {
+                final Path file = repoDir.resolve(Catalog.CATALOG_PATH.substring(1));
+                log.info("Reading catalog from: " + file);
+                try (final InputStream is = Files.newInputStream(file)) {
+                    index = Catalog.parse(is);
+                }
+            }
+            return index;
+        }
+    }
+}
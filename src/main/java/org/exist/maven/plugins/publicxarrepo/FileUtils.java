@@ -1,32 +1,48 @@
 package org.exist.maven.plugins.publicxarrepo;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class FileUtils {
 
+    /**
+     * The size of the buffer used to compute checksums, which is reused
+     * by each thread, as most packages are much larger than a default buffer.
+     */
+    private static final int SHA256_BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> SHA256_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(SHA256_BUFFER_SIZE));
+
     public static String sha256(final Path path) throws IOException {
-        final MessageDigest digest;
+        final MessageDigest digest = newSha256Digest();
+
+        // NOTE: files are read rather than memory mapped, as a mapped file cannot be deleted on Windows until it is unmapped by the GC
+        final ByteBuffer buf = SHA256_BUFFER.get();
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buf.clear();
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+
+        return toHexString(digest.digest());
+    }
+
+    public static MessageDigest newSha256Digest() throws IOException {
         try {
-            digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
         } catch (final NoSuchAlgorithmException e) {
             throw new IOException(e.getMessage(), e);
         }
+    }
 
-        try (final InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
-            final byte[] buf = new byte[1024];
-            int read = -1;
-            while ((read = is.read(buf)) > -1) {
-                digest.update(buf, 0, read);
-            }
-        }
-
-        final byte[] hash = digest.digest();
+    public static String toHexString(final byte[] hash) {
         final StringBuilder hexString = new StringBuilder();
         for (int i = 0; i < hash.length; i++) {
             String hex = Integer.toHexString(0xff & hash[i]);
@@ -0,0 +1,170 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
+
+/**
+ * A persistent cache of the package info returned by the {@code /find}
+ * endpoint of the remote repo, keyed by the full URI of the request.
+ *
+ * Each result is stored as {@code find/<sha256 of uri>.xml}, in the same
+ * form as the response of the remote repo, along with the URI, the time
+ * that it was retrieved, and the validators ({@code ETag} and
+ * {@code Last-Modified}) needed to revalidate it with a conditional request.
+ */
+class FindCache {
+
+    static final String FIND_DIRECTORY_NAME = "find";
+
+    private final Path dir;
+
+    FindCache(final Path cacheDir) {
+        this.dir = cacheDir.resolve(FIND_DIRECTORY_NAME);
+    }
+
+    /**
+     * Get the cached result of a request.
+     *
+     * @param uri the URI of the request.
+     *
+     * @return the cached result, or null if there is none.
+     */
+    @Nullable Entry get(final String uri) throws IOException {
+        final Path file = file(uri);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        final Element root;
+        try (final InputStream is = Files.newInputStream(file)) {
+            final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(null);
+            root = documentBuilder.parse(is).getDocumentElement();
+        } catch (final ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (final SAXException e) {
+            // a corrupt entry is just a miss
+            return null;
+        }
+
+        // guard against a collision of the hash
+        if (root == null || !uri.equals(root.getAttribute("uri"))) {
+            return null;
+        }
+
+        final long fetched;
+        try {
+            fetched = Long.parseLong(root.getAttribute("fetched"));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+
+        return new Entry(new PackageInfo(root.getAttribute("sha256"), root.getAttribute("version"), root.getAttribute("path")),
+                fetched, emptyToNull(root.getAttribute("etag")), emptyToNull(root.getAttribute("lastModified")));
+    }
+
+    /**
+     * Store the result of a request.
+     *
+     * @param uri the URI of the request.
+     * @param entry the result.
+     */
+    void put(final String uri, final Entry entry) throws IOException {
+        Files.createDirectories(dir);
+
+        final Path file = file(uri);
+
+        // write to a temporary file and then move it into place, so that readers never see a partial entry
+        final Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile)) {
+                final Document document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().newDocument();
+                final Element found = document.createElement("found");
+                found.setAttribute("uri", uri);
+                found.setAttribute("fetched", Long.toString(entry.getFetched()));
+                found.setAttribute("sha256", entry.getPkgInfo().getSha256());
+                found.setAttribute("version", entry.getPkgInfo().getVersion());
+                found.setAttribute("path", entry.getPkgInfo().getPath());
+                if (entry.getEtag() != null) {
+                    found.setAttribute("etag", entry.getEtag());
+                }
+                if (entry.getLastModified() != null) {
+                    found.setAttribute("lastModified", entry.getLastModified());
+                }
+                document.appendChild(found);
+                XmlUtils.serialize(document, new StreamResult(os));
+            } catch (final ParserConfigurationException | TransformerException e) {
+                throw new IOException(e);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static @Nullable String emptyToNull(final String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private Path file(final String uri) throws IOException {
+        return dir.resolve(FileUtils.toHexString(FileUtils.newSha256Digest().digest(uri.getBytes(UTF_8))) + ".xml");
+    }
+
+    /**
+     * A cached result of a request.
+     */
+    static class Entry {
+        private final PackageInfo pkgInfo;
+        private final long fetched;
+        @Nullable private final String etag;
+        @Nullable private final String lastModified;
+
+        /**
+         * @param pkgInfo the package info that was found.
+         * @param fetched the time that it was retrieved (or revalidated) from the remote repo, in milliseconds since the epoch.
+         * @param etag the value of the {@code ETag} header of the response, or null.
+         * @param lastModified the value of the {@code Last-Modified} header of the response, or null.
+         */
+        Entry(final PackageInfo pkgInfo, final long fetched, @Nullable final String etag,
+                @Nullable final String lastModified) {
+            this.pkgInfo = pkgInfo;
+            this.fetched = fetched;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        PackageInfo getPkgInfo() {
+            return pkgInfo;
+        }
+
+        long getFetched() {
+            return fetched;
+        }
+
+        @Nullable
+        String getEtag() {
+            return etag;
+        }
+
+        @Nullable
+        String getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * A record of the SHA-256 checksum of a cached file, together with the
+ * attributes of the file at the time that the checksum was computed.
+ *
+ * Whilst the attributes of the file (size, last modified time, and file
+ * key, i.e. inode, where available) are unchanged, the file is trusted to
+ * still have the recorded checksum, so that it need not be read again.
+ *
+ * Stored next to the file as {@code <file>.fingerprint}.
+ */
+class Fingerprint {
+
+    static final String FINGERPRINT_FILE_EXTENSION = ".fingerprint";
+
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private final String sha256;
+
+    private Fingerprint(final long size, final long lastModified, final String fileKey, final String sha256) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Create a fingerprint from the current attributes of a file.
+     *
+     * @param file the file.
+     * @param sha256 the verified SHA-256 checksum of the file.
+     *
+     * @return the fingerprint.
+     */
+    static Fingerprint of(final Path file, final String sha256) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), sha256);
+    }
+
+    private static String fileKey(final BasicFileAttributes attrs) {
+        // NOTE: not available on all platforms, e.g. Windows
+        return attrs.fileKey() != null ? attrs.fileKey().toString() : "";
+    }
+
+    static Path fingerprintFile(final Path file) {
+        return file.resolveSibling(file.getFileName().toString() + FINGERPRINT_FILE_EXTENSION);
+    }
+
+    /**
+     * Read the fingerprint of a file.
+     *
+     * @param file the file (not the fingerprint file).
+     *
+     * @return the fingerprint, or null if there is no valid fingerprint.
+     */
+    static @Nullable Fingerprint read(final Path file) throws IOException {
+        final Path fingerprintFile = fingerprintFile(file);
+        if (!Files.exists(fingerprintFile)) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(fingerprintFile)) {
+            properties.load(is);
+        }
+        return fromProperties(properties, "");
+    }
+
+    /**
+     * Read a fingerprint from properties.
+     *
+     * @param properties the properties.
+     * @param prefix the prefix of the keys of the properties.
+     *
+     * @return the fingerprint, or null if the properties do not hold a valid fingerprint.
+     */
+    static @Nullable Fingerprint fromProperties(final Properties properties, final String prefix) {
+        try {
+            return new Fingerprint(
+                    Long.parseLong(properties.getProperty(prefix + "size")),
+                    Long.parseLong(properties.getProperty(prefix + "lastModified")),
+                    Objects.requireNonNull(properties.getProperty(prefix + "fileKey")),
+                    Objects.requireNonNull(properties.getProperty(prefix + "sha256")));
+        } catch (final NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the fingerprint to properties.
+     *
+     * @param properties the properties.
+     * @param prefix the prefix of the keys of the properties.
+     */
+    void toProperties(final Properties properties, final String prefix) {
+        properties.setProperty(prefix + "size", Long.toString(size));
+        properties.setProperty(prefix + "lastModified", Long.toString(lastModified));
+        properties.setProperty(prefix + "fileKey", fileKey);
+        properties.setProperty(prefix + "sha256", sha256);
+    }
+
+    /**
+     * Write the fingerprint of a file.
+     *
+     * @param file the file (not the fingerprint file).
+     */
+    void write(final Path file) throws IOException {
+        final Properties properties = new Properties();
+        toProperties(properties, "");
+
+        // write to a temporary file and then move it into place, so that readers never see a partial fingerprint
+        final Path fingerprintFile = fingerprintFile(file);
+        final Path tempFile = Files.createTempFile(fingerprintFile.getParent(), fingerprintFile.getFileName().toString(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, null);
+            }
+            Files.move(tempFile, fingerprintFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Determine if a file is unchanged since the fingerprint was taken.
+     *
+     * @param file the file.
+     *
+     * @return true if the size, last modified time and file key of the file are unchanged.
+     */
+    boolean matches(final Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return attrs.size() == size
+                && attrs.lastModifiedTime().toMillis() == lastModified
+                && fileKey(attrs).equals(fileKey);
+    }
+
+    String getSha256() {
+        return sha256;
+    }
+}
@@ -0,0 +1,49 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fetches packages into the cache, so that later builds can resolve
+ * them with {@code xar.resolve.offline=true}.
+ *
+ * Takes the same configuration as the {@code resolve} goal, and
+ * optionally a file which lists the packages of several projects,
+ * see {@link PackageSets}. Nothing is placed in the output directory.
+ */
+@Mojo(name = "go-offline", threadSafe = true, requiresProject = false)
+public class GoOfflineMojo extends ResolveMojo {
+
+    /**
+     * A file which lists further sets of packages to fetch,
+     * in addition to the configured packages.
+     */
+    @Parameter(property = "xar.packageSets")
+    private File packageSets;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<PackageSets.PackageSet> sets;
+        if (packageSets != null) {
+            try {
+                sets = PackageSets.read(packageSets.toPath());
+            } catch (final IOException e) {
+                throw new MojoExecutionException("Unable to read the package sets: " + e.getMessage(), e);
+            }
+        } else {
+            sets = Collections.emptyList();
+        }
+        try {
+            prefetch(sets);
+        } finally {
+            closeHttpClients();
+        }
+    }
+}
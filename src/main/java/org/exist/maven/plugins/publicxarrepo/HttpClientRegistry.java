@@ -0,0 +1,344 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.settings.Proxy;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A registry of the HTTP clients of a Maven session.
+ *
+ * By keeping one client (and connection pool) for each distinct proxy
+ * configuration, connections to the remote repo are kept alive and reused
+ * across the executions and modules of the session, rather than paying for
+ * a new TCP and TLS handshake each time.
+ *
+ * Idle connections are evicted in the background, and all clients are
+ * closed when the session ends. A JVM may outlive many sessions (e.g. the
+ * daemon of mvnd), so nothing is kept beyond the session.
+ */
+class HttpClientRegistry {
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 15;
+    private static final int MAX_CONNECTIONS_TOTAL = 50;
+    private static final long MAX_IDLE_TIME_SECONDS = 30;
+
+    private static final String SESSION_DATA_KEY = HttpClientRegistry.class.getName();
+
+    private final Map<Key, Entry> clients = new HashMap<>();
+    private final boolean sessionScoped;
+
+    /**
+     * @param sessionScoped true if the registry is closed when the Maven session ends.
+     */
+    HttpClientRegistry(final boolean sessionScoped) {
+        this.sessionScoped = sessionScoped;
+    }
+
+    /**
+     * Get the registry for a Maven session.
+     *
+     * @param session the Maven session, or null if there is no session,
+     *     in which case a new registry is returned, which the caller must close.
+     *
+     * @return the registry for the session.
+     */
+    static HttpClientRegistry forSession(@Nullable final MavenSession session) {
+        if (session == null || session.getRepositorySession() == null || session.getRequest() == null) {
+            return new HttpClientRegistry(false);
+        }
+
+        // NOTE: the repository session and request are shared by all projects of the reactor, even when the MavenSession is cloned for a parallel build
+        return (HttpClientRegistry) session.getRepositorySession().getData().computeIfAbsent(SESSION_DATA_KEY, () -> {
+            final HttpClientRegistry registry = new HttpClientRegistry(true);
+            final MavenExecutionRequest request = session.getRequest();
+            request.setExecutionListener(new SessionEndListener(request.getExecutionListener(), registry));
+            return registry;
+        });
+    }
+
+    /**
+     * @return true if the registry is closed when the Maven session ends,
+     *     false if it must be closed by whoever obtained it.
+     */
+    boolean isSessionScoped() {
+        return sessionScoped;
+    }
+
+    /**
+     * Get the HTTP client for a proxy configuration.
+     *
+     * The client is owned by the registry, and must not be closed by the caller.
+     *
+     * @param proxy the proxy to route requests via, or null for a direct connection.
+     *
+     * @return the HTTP client.
+     */
+    synchronized CloseableHttpClient getClient(@Nullable final Proxy proxy) {
+        final Key key = new Key(proxy);
+        Entry entry = clients.get(key);
+        if (entry == null) {
+            entry = newEntry(proxy);
+            clients.put(key, entry);
+        }
+        return entry.client;
+    }
+
+    /**
+     * Get the statistics of the connection pools of all clients.
+     *
+     * @return the combined statistics.
+     */
+    synchronized PoolStats getTotalStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        for (final Entry entry : clients.values()) {
+            final PoolStats stats = entry.connectionManager.getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    /**
+     * Close all clients and their connections.
+     */
+    synchronized void closeAll() {
+        for (final Entry entry : clients.values()) {
+            try {
+                entry.client.close();
+            } catch (final IOException e) {
+                // nothing more we can do, the clients are no longer needed
+            }
+        }
+        clients.clear();
+    }
+
+    private static Entry newEntry(@Nullable final Proxy proxy) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+        connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+
+        final HttpClientBuilder clientBuilder = HttpClients
+                .custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(MAX_IDLE_TIME_SECONDS, TimeUnit.SECONDS);
+
+        if (proxy != null && proxy.getUsername() != null && !proxy.getUsername().isEmpty()) {
+            final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(
+                    new AuthScope(proxy.getHost(), proxy.getPort()),
+                    new UsernamePasswordCredentials(proxy.getUsername(), proxy.getPassword())
+            );
+            clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        }
+
+        return new Entry(connectionManager, clientBuilder.build());
+    }
+
+    /**
+     * Closes the clients of a registry when the Maven session ends, and
+     * otherwise forwards every event to the listener that it replaced.
+     */
+    private static class SessionEndListener implements ExecutionListener {
+        @Nullable private final ExecutionListener delegate;
+        private final HttpClientRegistry registry;
+
+        SessionEndListener(@Nullable final ExecutionListener delegate, final HttpClientRegistry registry) {
+            this.delegate = delegate;
+            this.registry = registry;
+        }
+
+        @Override
+        public void sessionEnded(final ExecutionEvent event) {
+            try {
+                if (delegate != null) {
+                    delegate.sessionEnded(event);
+                }
+            } finally {
+                registry.closeAll();
+            }
+        }
+
+        @Override
+        public void projectDiscoveryStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectDiscoveryStarted(event);
+            }
+        }
+
+        @Override
+        public void sessionStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.sessionStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSkipped(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSkipped(event);
+            }
+        }
+
+        @Override
+        public void projectStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void projectFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectFailed(event);
+            }
+        }
+
+        @Override
+        public void mojoSkipped(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSkipped(event);
+            }
+        }
+
+        @Override
+        public void mojoStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoStarted(event);
+            }
+        }
+
+        @Override
+        public void mojoSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSucceeded(event);
+            }
+        }
+
+        @Override
+        public void mojoFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoFailed(event);
+            }
+        }
+
+        @Override
+        public void forkStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkStarted(event);
+            }
+        }
+
+        @Override
+        public void forkSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkFailed(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectStarted(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectStarted(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectSucceeded(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectFailed(final ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectFailed(event);
+            }
+        }
+    }
+
+    private static class Entry {
+        final PoolingHttpClientConnectionManager connectionManager;
+        final CloseableHttpClient client;
+
+        Entry(final PoolingHttpClientConnectionManager connectionManager, final CloseableHttpClient client) {
+            this.connectionManager = connectionManager;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Clients are keyed by everything about a proxy that affects how they are built.
+     */
+    private static class Key {
+        @Nullable final String host;
+        final int port;
+        @Nullable final String username;
+        @Nullable final String password;
+
+        Key(@Nullable final Proxy proxy) {
+            this.host = proxy != null ? proxy.getHost() : null;
+            this.port = proxy != null ? proxy.getPort() : -1;
+            this.username = proxy != null ? proxy.getUsername() : null;
+            this.password = proxy != null ? proxy.getPassword() : null;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return port == other.port
+                    && Objects.equals(host, other.host)
+                    && Objects.equals(username, other.username)
+                    && Objects.equals(password, other.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, username, password);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.settings.Proxy;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.apache.http.HttpStatus.SC_NOT_MODIFIED;
+import static org.apache.http.HttpStatus.SC_OK;
+import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
+
+/**
+ * Accesses a remote repo over HTTP(S), such as the eXist-db Public Repo.
+ *
+ * Requests are made via any configured proxy, through the connection
+ * pool that the {@link HttpClientRegistry} shares across the Maven
+ * session, and are retried
+ * with exponential backoff when they fail with a server error.
+ */
+class HttpRepoTransport implements RepoTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int SOCKET_TIMEOUT_MS = 30_000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_RETRY_DELAY_MS = 2_000;
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private final String repoUri;
+    private final Supplier<List<Proxy>> proxies;
+    private final HttpClientRegistry httpClients;
+
+    /**
+     * @param repoUri the URI of the remote repo.
+     * @param proxies the proxies configured for Maven.
+     * @param httpClients the registry of the HTTP clients to make requests with.
+     */
+    HttpRepoTransport(final String repoUri, final Supplier<List<Proxy>> proxies, final HttpClientRegistry httpClients) {
+        this.repoUri = repoUri;
+        this.proxies = proxies;
+        this.httpClients = httpClients;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the package info was retrieved previously, then the request is
+     * made conditional on it having changed, and if it has not, the
+     * previous package info is returned without reading a response body.
+     */
+    @Override
+    public FindCache.Entry find(final Package pkg, final String existDbVersion, @Nullable final FindCache.Entry cached,
+            final Log log) throws MojoExecutionException {
+        final String uri = getFindUri(repoUri, pkg, existDbVersion) + "&info=true";
+        try {
+            @Nullable final Proxy proxy = MojoUtils.getProxyForUrl(proxies.get(), uri);
+
+            final List<Header> headers = new ArrayList<>(2);
+            if (cached != null && cached.getEtag() != null) {
+                headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag()));
+            }
+            if (cached != null && cached.getLastModified() != null) {
+                headers.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified()));
+            }
+
+            final CloseableHttpClient client = httpClients.getClient(proxy);
+            try (final CloseableHttpResponse response = executeWithRetry(client, proxy, uri, headers, log)) {
+                final String etag = getHeaderValue(response, HttpHeaders.ETAG);
+                final String lastModified = getHeaderValue(response, HttpHeaders.LAST_MODIFIED);
+
+                if (response.getStatusLine().getStatusCode() == SC_NOT_MODIFIED && cached != null) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    log.info("Package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev()) + " is unchanged");
+                    return new FindCache.Entry(cached.getPkgInfo(), System.currentTimeMillis(),
+                            etag != null ? etag : cached.getEtag(),
+                            lastModified != null ? lastModified : cached.getLastModified());
+                }
+
+                if (response.getStatusLine().getStatusCode() != SC_OK) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    log.error("Received HTTP " + response.getStatusLine().getStatusCode() + " when trying to access: " + uri);
+                    throw new MojoExecutionException("Unable to get package info");
+                }
+
+                // NOTE: the body is parsed directly from the connection, it is never buffered in memory
+                final DocumentBuilder builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+                try (final InputStream is = response.getEntity().getContent()) {
+                    final Document document = builder.parse(is);
+                    final Element root = document.getDocumentElement();
+                    if (root == null || !root.getLocalName().equals("found")) {
+                        throw new MojoExecutionException("Received package info is invalid");
+                    }
+
+                    final PackageInfo pkgInfo = new PackageInfo(root.getAttribute("sha256"), root.getAttribute("version"), root.getAttribute("path"));
+                    return new FindCache.Entry(pkgInfo, System.currentTimeMillis(), etag, lastModified);
+                }
+            }
+        } catch (final IOException | ParserConfigurationException | SAXException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the catalog was retrieved previously, and the update policy does
+     * not yet require it to be refreshed, the remote repo is not contacted.
+     */
+    @Override
+    public Catalog getCatalog(@Nullable final CatalogCache catalogCache, final UpdatePolicy updatePolicy,
+            final Log log) throws IOException {
+        final String uri = repoUri + Catalog.CATALOG_PATH;
+
+        CatalogCache.Entry cached = null;
+        if (catalogCache != null) {
+            cached = catalogCache.get(uri);
+            if (cached != null && !updatePolicy.isExpired(cached.getFetched(), System.currentTimeMillis())) {
+                log.info("Using catalog retrieved at " + Instant.ofEpochMilli(cached.getFetched()) + " (updatePolicy: " + updatePolicy + ")");
+                return parseCatalog(cached.getFile());
+            }
+        }
+
+        log.info("Retrieving catalog from: " + uri);
+        @Nullable final Proxy proxy = MojoUtils.getProxyForUrl(proxies.get(), uri);
+
+        final List<Header> headers = new ArrayList<>(2);
+        if (cached != null && cached.getEtag() != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag()));
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified()));
+        }
+
+        final CloseableHttpClient client = httpClients.getClient(proxy);
+        try (final CloseableHttpResponse response = executeWithRetry(client, proxy, uri, headers, log)) {
+            final String etag = getHeaderValue(response, HttpHeaders.ETAG);
+            final String lastModified = getHeaderValue(response, HttpHeaders.LAST_MODIFIED);
+
+            if (response.getStatusLine().getStatusCode() == SC_NOT_MODIFIED && cached != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                log.info("Catalog is unchanged");
+                catalogCache.touch(uri, new CatalogCache.Entry(cached.getFile(), System.currentTimeMillis(),
+                        etag != null ? etag : cached.getEtag(),
+                        lastModified != null ? lastModified : cached.getLastModified()));
+                return parseCatalog(cached.getFile());
+            }
+
+            if (response.getStatusLine().getStatusCode() != SC_OK) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new IOException("Received HTTP " + response.getStatusLine().getStatusCode() + " when trying to access: " + uri);
+            }
+
+            if (catalogCache == null) {
+                // NOTE: the body is parsed directly from the connection, it is never buffered in memory
+                try (final InputStream is = response.getEntity().getContent()) {
+                    return Catalog.parse(is);
+                }
+            }
+
+            // parse before storing, so that an invalid catalog never replaces a valid one
+            final Path tempFile = catalogCache.newTempFile();
+            try {
+                try (final InputStream is = response.getEntity().getContent()) {
+                    Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                final Catalog parsed = parseCatalog(tempFile);
+                catalogCache.put(uri, tempFile, System.currentTimeMillis(), etag, lastModified);
+                return parsed;
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The response body is streamed to a temporary file beside the target
+     * through a fixed size buffer, so the memory used does not depend on
+     * the size of the package. The SHA-256 checksum is computed as the bytes
+     * arrive, so that the file does not need to be read again to validate
+     * it. Only once it is valid is the temporary file moved into place.
+     */
+    @Override
+    public void fetch(final PackageInfo pkgInfo, final Path target, final Log log)
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            final String uri = getPackageUri(repoUri, pkgInfo);
+            @Nullable final Proxy proxy = MojoUtils.getProxyForUrl(proxies.get(), uri);
+
+            final CloseableHttpClient client = httpClients.getClient(proxy);
+
+            log.info("Downloading " + uri);
+            try (final CloseableHttpResponse response = executeWithRetry(client, proxy, uri, Collections.emptyList(), log)) {
+                if (response.getStatusLine().getStatusCode() != SC_OK) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    log.error("Received HTTP " + response.getStatusLine().getStatusCode() + " when trying to access: " + uri);
+                    throw new MojoExecutionException("Unable to download package: " + pkgInfo.getPath());
+                }
+
+                final HttpEntity entity = response.getEntity();
+                final MessageDigest digest = FileUtils.newSha256Digest();
+                final Path tmpFile = Files.createTempFile(target.toAbsolutePath().getParent(), pkgInfo.getPath(), ".tmp");
+                try {
+                    // NOTE: a body that ends short of its Content-Length fails the read with a ConnectionClosedException
+                    try (final InputStream is = entity.getContent();
+                            final OutputStream os = Files.newOutputStream(tmpFile)) {
+                        final byte[] buf = new byte[DOWNLOAD_BUFFER_SIZE];
+                        int read;
+                        while ((read = is.read(buf)) != -1) {
+                            digest.update(buf, 0, read);
+                            os.write(buf, 0, read);
+                        }
+                    }
+
+                    // validate the downloaded file
+                    final String checksum = FileUtils.toHexString(digest.digest());
+                    if (!pkgInfo.getSha256().equals(checksum)) {
+                        throw new MojoFailureException("Downloaded file does not match PackageInfo checksum: expected=" + pkgInfo.getSha256() + ", actual=" + checksum);
+                    }
+                    moveIntoPlace(tmpFile, target, log);
+                } finally {
+                    Files.deleteIfExists(tmpFile);
+                }
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the URI of the find query for a package in a remote repo.
+     *
+     * @param repoUri the URI of the remote repo.
+     * @param pkg the package to find.
+     * @param existDbVersion the version of eXist-db that the package is for.
+     *
+     * @return the URI of the find query.
+     */
+    static String getFindUri(final String repoUri, final Package pkg, final String existDbVersion) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(repoUri);
+        builder.append("/find?processor=");
+        builder.append(existDbVersion);
+        if (pkg.getName() != null) {
+            builder.append("&name=");
+            builder.append(pkg.getName());
+        }
+        if (pkg.getAbbrev() != null) {
+            builder.append("&abbrev=");
+            builder.append(pkg.getAbbrev());
+        }
+        if (pkg.getVersion() != null) {
+            builder.append("&version=");
+            builder.append(pkg.getVersion());
+        }
+        if (pkg.getSemanticVersion() != null) {
+            builder.append("&semver=");
+            builder.append(pkg.getSemanticVersion());
+        }
+        if (pkg.getSemanticVersionMin() != null) {
+            builder.append("&semver-min=");
+            builder.append(pkg.getSemanticVersionMin());
+        }
+        if (pkg.getSemanticVersionMax() != null) {
+            builder.append("&semver-max=");
+            builder.append(pkg.getSemanticVersionMax());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the URI of a package in a remote repo.
+     *
+     * @param repoUri the URI of the remote repo.
+     * @param pkgInfo the info about the package.
+     *
+     * @return the URI of the package.
+     */
+    static String getPackageUri(final String repoUri, final PackageInfo pkgInfo) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(repoUri);
+        builder.append("/public/");
+        builder.append(pkgInfo.getPath());
+        return builder.toString();
+    }
+
+    private static void moveIntoPlace(final Path source, final Path target, final Log log) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException notSupported) {
+            log.debug("Atomic move from: " + source + " to " + target + " failed. Retrying with non-atomic move...");
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Catalog parseCatalog(final Path file) throws IOException {
+        try (final InputStream is = Files.newInputStream(file)) {
+            return Catalog.parse(is);
+        }
+    }
+
+    private static @Nullable String getHeaderValue(final HttpResponse response, final String name) {
+        final Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+
+    private HttpGet buildGetRequest(@Nullable final Proxy proxy, final String uri, final List<Header> headers) {
+        final RequestConfig.Builder config = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MS);
+        if (proxy != null) {
+            final HttpHost proxyHttpHost = new HttpHost(proxy.getHost(), proxy.getPort());
+            config.setProxy(proxyHttpHost);
+        }
+        final HttpGet request = new HttpGet(uri);
+        request.setConfig(config.build());
+        for (final Header header : headers) {
+            request.addHeader(header);
+        }
+        return request;
+    }
+
+    /**
+     * Execute a GET request, retrying on I/O errors and HTTP 5xx server errors
+     * with exponential backoff. Non-5xx responses (including 404) are considered
+     * definitive and returned to the caller without retrying.
+     *
+     * The body of the returned response has not been read, the caller
+     * is responsible for consuming it and closing the response.
+     *
+     * @param client the HTTP client to use.
+     * @param proxy the proxy to route the request via, or null.
+     * @param uri the URI to GET.
+     * @param headers any additional headers to send with the request.
+     * @param log the log to write to.
+     *
+     * @return the HTTP response.
+     *
+     * @throws IOException if all attempts fail with an I/O error or server error.
+     */
+    private CloseableHttpResponse executeWithRetry(final CloseableHttpClient client, @Nullable final Proxy proxy,
+            final String uri, final List<Header> headers, final Log log) throws IOException {
+        IOException lastIoException = null;
+        String lastError = null;
+        long delay = INITIAL_RETRY_DELAY_MS;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                final CloseableHttpResponse response = client.execute(buildGetRequest(proxy, uri, headers));
+                final int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode < 500) {
+                    return response;
+                }
+                // release the connection before retrying
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                lastIoException = null;
+                lastError = "HTTP " + statusCode;
+            } catch (final IOException e) {
+                lastIoException = e;
+                lastError = e.getMessage();
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                log.warn("Attempt " + attempt + " of " + MAX_ATTEMPTS + " failed for " + uri + " (" + lastError + "), retrying in " + (delay / 1000) + "s...");
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting to retry: " + uri, e);
+                }
+                delay *= 2;
+            }
+        }
+        if (lastIoException != null) {
+            throw lastIoException;
+        }
+        throw new IOException("Received " + lastError + " from " + uri + " after " + MAX_ATTEMPTS + " attempts");
+    }
+}
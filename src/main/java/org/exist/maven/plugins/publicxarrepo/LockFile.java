@@ -0,0 +1,232 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
+
+/**
+ * A lock file, which pins the package info that each configured package
+ * was resolved to, so that later builds can skip asking the remote repo
+ * for it, and always resolve the same packages.
+ *
+ * A pin only applies whilst the constraints of the package and the
+ * version of eXist-db are unchanged. The lock file has the form:
+ * <pre>{@code
+ * <xar-lock existDbVersion="6.0.0">
+ *   <package abbrev="functx" semanticVersionMin="1.0.0">
+ *     <resolved version="1.0.1" path="functx-1.0.1.xar" sha256="..."/>
+ *   </package>
+ * </xar-lock>
+ * }</pre>
+ */
+class LockFile {
+
+    static final String DEFAULT_FILE_NAME = "xar-lock.xml";
+
+    private static final String ROOT_ELEMENT = "xar-lock";
+    private static final String PACKAGE_ELEMENT = "package";
+    private static final String RESOLVED_ELEMENT = "resolved";
+
+    private final String existDbVersion;
+    private final List<Pin> pins;
+
+    /**
+     * @param existDbVersion the version of eXist-db that the packages were resolved for.
+     * @param pins the pins, in the order that the packages are configured.
+     */
+    LockFile(final String existDbVersion, final List<Pin> pins) {
+        this.existDbVersion = existDbVersion;
+        this.pins = pins;
+    }
+
+    /**
+     * Read a lock file.
+     *
+     * @param file the lock file.
+     *
+     * @return the lock file, or null if there is none.
+     *
+     * @throws IOException if the lock file cannot be read or is invalid.
+     */
+    static @Nullable LockFile read(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        final Element root;
+        try (final InputStream is = Files.newInputStream(file)) {
+            final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(null);
+            root = documentBuilder.parse(is).getDocumentElement();
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid lock file: " + file + ": " + e.getMessage(), e);
+        }
+
+        if (root == null || !ROOT_ELEMENT.equals(root.getLocalName())) {
+            throw new IOException("Invalid lock file: " + file);
+        }
+
+        final List<Pin> pins = new ArrayList<>();
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE || !PACKAGE_ELEMENT.equals(child.getLocalName())) {
+                continue;
+            }
+            final Element pkg = (Element) child;
+            final Element resolved = firstChildElement(pkg, RESOLVED_ELEMENT);
+            if (resolved == null) {
+                throw new IOException("Invalid lock file: " + file + ": package has no resolved element");
+            }
+            pins.add(new Pin(
+                    Arrays.asList(
+                            attributeOrNull(pkg, "name"),
+                            attributeOrNull(pkg, "abbrev"),
+                            attributeOrNull(pkg, "version"),
+                            attributeOrNull(pkg, "semanticVersion"),
+                            attributeOrNull(pkg, "semanticVersionMin"),
+                            attributeOrNull(pkg, "semanticVersionMax")),
+                    new PackageInfo(resolved.getAttribute("sha256"), resolved.getAttribute("version"), resolved.getAttribute("path"))));
+        }
+
+        return new LockFile(root.getAttribute("existDbVersion"), pins);
+    }
+
+    /**
+     * Write the lock file, unless it is unchanged.
+     *
+     * @param file the lock file.
+     *
+     * @return true if the lock file was written, false if it was unchanged.
+     */
+    boolean write(final Path file) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            final Document document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().newDocument();
+            final Element root = document.createElement(ROOT_ELEMENT);
+            root.setAttribute("existDbVersion", existDbVersion);
+            for (final Pin pin : pins) {
+                final Element pkg = document.createElement(PACKAGE_ELEMENT);
+                setAttributeIfNotNull(pkg, "name", pin.constraints.get(0));
+                setAttributeIfNotNull(pkg, "abbrev", pin.constraints.get(1));
+                setAttributeIfNotNull(pkg, "version", pin.constraints.get(2));
+                setAttributeIfNotNull(pkg, "semanticVersion", pin.constraints.get(3));
+                setAttributeIfNotNull(pkg, "semanticVersionMin", pin.constraints.get(4));
+                setAttributeIfNotNull(pkg, "semanticVersionMax", pin.constraints.get(5));
+
+                final Element resolved = document.createElement(RESOLVED_ELEMENT);
+                resolved.setAttribute("version", pin.pkgInfo.getVersion());
+                resolved.setAttribute("path", pin.pkgInfo.getPath());
+                resolved.setAttribute("sha256", pin.pkgInfo.getSha256());
+                pkg.appendChild(resolved);
+                root.appendChild(pkg);
+            }
+            document.appendChild(root);
+            XmlUtils.serialize(document, new StreamResult(os));
+        } catch (final ParserConfigurationException | TransformerException e) {
+            throw new IOException(e);
+        }
+
+        // leave an unchanged lock file alone, so that it is not needlessly modified
+        final byte[] content = os.toByteArray();
+        if (Files.exists(file) && Arrays.equals(content, Files.readAllBytes(file))) {
+            return false;
+        }
+
+        // write to a temporary file and then move it into place, so that readers never see a partial lock file
+        final Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        final Path tempFile = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return true;
+    }
+
+    /**
+     * Get the pinned package info for a package.
+     *
+     * @param pkg the requested package.
+     * @param existDbVersion the version of eXist-db that the package is being resolved for.
+     *
+     * @return the pinned package info, or null if the package is not pinned for this version of eXist-db.
+     */
+    @Nullable PackageInfo get(final Package pkg, final String existDbVersion) {
+        if (!this.existDbVersion.equals(existDbVersion)) {
+            return null;
+        }
+        final List<String> constraints = Pin.constraints(pkg);
+        for (final Pin pin : pins) {
+            if (pin.constraints.equals(constraints)) {
+                return pin.pkgInfo;
+            }
+        }
+        return null;
+    }
+
+    private static @Nullable Element firstChildElement(final Element parent, final String localName) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && localName.equals(child.getLocalName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private static @Nullable String attributeOrNull(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    private static void setAttributeIfNotNull(final Element element, final String name, @Nullable final String value) {
+        if (value != null) {
+            element.setAttribute(name, value);
+        }
+    }
+
+    /**
+     * The package info that a package was resolved to.
+     */
+    static class Pin {
+        private final List<String> constraints;
+        private final PackageInfo pkgInfo;
+
+        /**
+         * @param pkg the requested package.
+         * @param pkgInfo the package info that it was resolved to.
+         */
+        Pin(final Package pkg, final PackageInfo pkgInfo) {
+            this(constraints(pkg), pkgInfo);
+        }
+
+        private Pin(final List<String> constraints, final PackageInfo pkgInfo) {
+            this.constraints = Collections.unmodifiableList(constraints);
+            this.pkgInfo = Objects.requireNonNull(pkgInfo);
+        }
+
+        private static List<String> constraints(final Package pkg) {
+            return Arrays.asList(pkg.getName(), pkg.getAbbrev(), pkg.getVersion(), pkg.getSemanticVersion(),
+                    pkg.getSemanticVersionMin(), pkg.getSemanticVersionMax());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Materializes a file at another path, e.g. a cached package into the
+ * output directory, by the cheapest means available.
+ *
+ * Starting from the configured {@link Strategy}, each cheaper strategy
+ * that is unavailable (e.g. because the paths are on different file
+ * systems) falls back to the next: a hard link, then a copy-on-write
+ * clone (reflink), then {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * and finally a stream copy. A strategy that fails is not attempted again
+ * by the same materializer.
+ *
+ * To ensure that modifying one path can never corrupt the other, the
+ * target is always replaced rather than written to, and files that are
+ * hard linked are made read-only, as they share their content. Hard links
+ * are not used on Windows, where read-only files cannot be deleted by
+ * {@code mvn clean}. The permissions of a source that the build does not
+ * own (e.g. a file in a shared mirror) are never changed, so that
+ * guarantee does not hold for a hard link to such a source.
+ */
+class Materializer {
+
+    private static final long REFLINK_TIMEOUT_SECONDS = 60;
+
+    private static final String OS_NAME = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+    private static final boolean IS_WINDOWS = OS_NAME.startsWith("windows");
+    private static final boolean IS_LINUX = OS_NAME.startsWith("linux");
+    private static final boolean IS_MAC = OS_NAME.startsWith("mac");
+
+    enum Strategy {
+        HARDLINK("hardlink"),
+        REFLINK("reflink"),
+        TRANSFER("transfer"),
+        COPY("copy");
+
+        private final String option;
+
+        Strategy(final String option) {
+            this.option = option;
+        }
+
+        /**
+         * Parse the value of the {@code materialization} option.
+         *
+         * @param option the value of the option.
+         *
+         * @return the strategy.
+         *
+         * @throws IllegalArgumentException if the value is not valid.
+         */
+        static Strategy parse(final String option) {
+            for (final Strategy strategy : values()) {
+                if (strategy.option.equals(option)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException("Invalid materialization: '" + option
+                    + "', expected one of: hardlink, reflink, transfer, copy");
+        }
+
+        @Override
+        public String toString() {
+            return option;
+        }
+    }
+
+    private final Strategy first;
+    private final boolean ownsSources;
+    private final boolean[] unavailable = new boolean[Strategy.values().length];
+
+    /**
+     * @param first the first strategy to attempt.
+     */
+    Materializer(final Strategy first) {
+        this(first, true);
+    }
+
+    /**
+     * @param first the first strategy to attempt.
+     * @param ownsSources true if the sources belong to the build, and so may be
+     *     made read-only when they are hard linked.
+     */
+    Materializer(final Strategy first, final boolean ownsSources) {
+        this.first = first;
+        this.ownsSources = ownsSources;
+    }
+
+    /**
+     * Materialize a file at another path.
+     *
+     * @param source the file.
+     * @param target the path to materialize it at, any existing file is replaced.
+     * @param log the log to write to.
+     *
+     * @return the strategy that was used.
+     */
+    Strategy materialize(final Path source, final Path target, final Log log) throws IOException {
+        // NOTE: never write to an existing target, as it may be a hard link to the source (or another file)
+        Files.deleteIfExists(target);
+
+        for (final Strategy strategy : Strategy.values()) {
+            if (strategy.ordinal() < first.ordinal() || isUnavailable(strategy)) {
+                continue;
+            }
+            if (strategy == Strategy.COPY) {
+                Files.copy(source, target);
+                return strategy;
+            }
+
+            try {
+                if (attempt(strategy, source, target)) {
+                    return strategy;
+                }
+            } catch (final IOException | UnsupportedOperationException | SecurityException e) {
+                log.debug("Unable to materialize " + target.getFileName() + " by " + strategy + ": " + e.getMessage());
+            }
+            setUnavailable(strategy);
+            Files.deleteIfExists(target);
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    private synchronized boolean isUnavailable(final Strategy strategy) {
+        return unavailable[strategy.ordinal()];
+    }
+
+    private synchronized void setUnavailable(final Strategy strategy) {
+        unavailable[strategy.ordinal()] = true;
+    }
+
+    private boolean attempt(final Strategy strategy, final Path source, final Path target) throws IOException {
+        switch (strategy) {
+            case HARDLINK:
+                return hardLink(source, target, ownsSources);
+            case REFLINK:
+                return reflink(source, target);
+            case TRANSFER:
+                transfer(source, target);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean hardLink(final Path source, final Path target, final boolean ownsSource) throws IOException {
+        if (IS_WINDOWS) {
+            return false;
+        }
+        // the link shares its content with the source, so neither may be modified in place
+        final File sourceFile = source.toFile();
+        if (ownsSource && sourceFile.canWrite() && !sourceFile.setWritable(false, false)) {
+            return false;
+        }
+        Files.createLink(target, source);
+        return true;
+    }
+
+    private static boolean reflink(final Path source, final Path target) throws IOException {
+        final ProcessBuilder processBuilder;
+        if (IS_LINUX) {
+            processBuilder = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString());
+        } else if (IS_MAC) {
+            processBuilder = new ProcessBuilder("cp", "-c", source.toString(), target.toString());
+        } else {
+            return false;
+        }
+
+        final Process process = processBuilder.redirectErrorStream(true).start();
+        try {
+            // discard the output, so that the process never blocks on it
+            while (process.getInputStream().read() != -1) {
+                // nothing to do
+            }
+            if (!process.waitFor(REFLINK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return false;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new IOException("Interrupted whilst cloning: " + source, e);
+        }
+        return process.exitValue() == 0;
+    }
+
+    private static void transfer(final Path source, final Path target) throws IOException {
+        try (final FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             final FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("Unable to transfer: " + source);
+                }
+                position += transferred;
+            }
+        }
+    }
+}
@@ -7,14 +7,31 @@ import org.apache.maven.settings.crypto.SettingsDecrypter;
 import org.apache.maven.settings.crypto.SettingsDecryptionResult;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.StringTokenizer;
 
 public class MojoUtils {
 
+    /**
+     * Get the directory of the cache.
+     *
+     * @param cacheDirectory the configured directory, or null to use the default.
+     * @param mavenSession the Maven session.
+     *
+     * @return the configured directory, or by default {@code ${local-repo}/.cache/public-xar-repo-plugin}.
+     */
+    public static Path getCacheDirectory(@Nullable final File cacheDirectory, final MavenSession mavenSession) {
+        return Optional.ofNullable(cacheDirectory).map(File::toPath)
+                .orElseGet(() -> Paths.get(mavenSession.getLocalRepository().getBasedir()).resolve(".cache").resolve("public-xar-repo-plugin"));
+    }
+
     public static List<Proxy> getProxies(final MavenSession mavenSession, final SettingsDecrypter decrypter) {
         if (mavenSession == null ||
                 mavenSession.getSettings() == null ||
@@ -28,6 +28,19 @@ public class Package {
     @Parameter
     private String semanticVersionMax;
 
+    public Package() {
+    }
+
+    Package(final String name, final String abbrev, final String version, final String semanticVersion,
+            final String semanticVersionMin, final String semanticVersionMax) {
+        this.name = name;
+        this.abbrev = abbrev;
+        this.version = version;
+        this.semanticVersion = semanticVersion;
+        this.semanticVersionMin = semanticVersionMin;
+        this.semanticVersionMax = semanticVersionMax;
+    }
+
     public String getName() {
         return name;
     }
@@ -8,162 +8,863 @@ import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.evolvedbinary.j8fu.Either.Left;
 import static com.evolvedbinary.j8fu.Either.Right;
 import static com.evolvedbinary.j8fu.tuple.Tuple.Tuple;
-import static org.exist.maven.plugins.publicxarrepo.PackageInfo.METADATA_FILE_EXTENSION;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
 
 /**
- * Just a mapping from either {@link Package#abbrev} or {@link Package#name} to {@link PackageInfo#path}.
+ * An index of the cached packages, from either {@link Package#abbrev} or
+ * {@link Package#name} to an {@link Entry} for each cached version, which
+ * holds the {@link PackageInfo} and the details of the cached file, so that
+ * a lookup is answered by reading the index alone.
+ *
+ * The index is stored as a snapshot ({@code packages.xml}) and a journal
+ * ({@code packages.journal}). New entries are appended to the journal, one
+ * element per line, so that an insert costs the same regardless of the size
+ * of the db. Once the journal grows beyond a threshold it is compacted into
+ * the snapshot.
+ *
+ * Appenders lock a single byte far beyond the end of the journal, whilst
+ * readers take a shared lock on everything before it, so readers never wait
+ * for appenders. Compaction locks the whole journal.
+ *
+ * So that unrelated packages do not contend for the same locks, the db is
+ * split into {@link #SHARD_COUNT} shards ({@code index/<shard>/}) by a hash
+ * of the abbrev or name, each with its own snapshot, journal and index.
+ * A db written by an earlier version in the cache directory itself is
+ * migrated into the shards the first time it is used.
+ *
+ * Earlier versions only recorded the path of a {@code <xar>.xml} file
+ * holding the {@link PackageInfo}. Such entries are still read, and are
+ * migrated into the snapshot the first time they are encountered.
  *
  * Used by the {@link CacheManager}.
  */
 public class PackageDb {
 
     private static final String PACKAGE_DB_FILENAME = "packages.xml";
+    private static final String PACKAGE_DB_JOURNAL_FILENAME = "packages.journal";
 
-    public static List<PackageInfo> findPackageInfos(final Path dir, final AbbrevAndOrName abbrevName)
-            throws IOException {
+    /**
+     * The size in bytes beyond which the journal is compacted into the snapshot.
+     */
+    static final long JOURNAL_COMPACTION_THRESHOLD = 256 * 1024;
+
+    private static final long JOURNAL_APPEND_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private static final byte[] JOURNAL_START = "<journal>".getBytes(UTF_8);
+    private static final byte[] JOURNAL_END = "</journal>".getBytes(UTF_8);
+
+    /**
+     * The length in bytes of journal beyond the {@link PackageIndex} at which the index is rebuilt.
+     */
+    private static final long INDEX_REBUILD_THRESHOLD = 16 * 1024;
+
+    private static final String ENTRY_ELEMENT = "entry";
+    private static final String LEGACY_ENTRY_ELEMENT = "packageInfo";
+
+    static final String SHARDS_DIRECTORY_NAME = "index";
+
+    /**
+     * The number of shards, which must be a power of two.
+     */
+    static final int SHARD_COUNT = 64;
+
+    /**
+     * The cache directories whose unsharded db has been migrated by this JVM.
+     */
+    private static final Set<Path> MIGRATED = ConcurrentHashMap.newKeySet();
+
+    public static List<Entry> findEntries(final Path dir, final AbbrevAndOrName abbrevName) throws IOException {
+        migrateUnsharded(dir);
+
+        // NOTE: keyed by path, so that a later entry for the same file replaces an earlier one
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        for (final Map.Entry<Path, AbbrevAndOrName> shard : shards(dir, abbrevName).entrySet()) {
+            if (Files.isDirectory(shard.getKey())) {
+                for (final Entry entry : findEntriesInShard(shard.getKey(), shard.getValue())) {
+                    entries.put(entry.getPkgInfo().getPath(), entry);
+                }
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Find every entry of the db, e.g. to check that the cached file of
+     * each still exists.
+     *
+     * @param dir the directory of the db.
+     *
+     * @return the entries, of every abbrev and name (one for each path of a shard).
+     */
+    static List<Entry> findAllEntries(final Path dir) throws IOException {
+        migrateUnsharded(dir);
+
+        final List<Entry> entries = new ArrayList<>();
+        for (final Path shardDir : existingShards(dir)) {
+            entries.addAll(findEntriesInShard(shardDir, null));
+        }
+        return entries;
+    }
+
+    /**
+     * @param abbrevName the abbrev and/or name of the entries to find, or null to find every entry.
+     */
+    private static List<Entry> findEntriesInShard(final Path dir, @Nullable final AbbrevAndOrName abbrevName) throws IOException {
+        final Path packageDb = dir.resolve(PACKAGE_DB_FILENAME);
+
+        // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+        final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+        jvmLock.lock();
+        try {
+            final AtomicBoolean legacy = new AtomicBoolean();
+            final Collection<Entry> entries = findEntriesLocked(dir, packageDb, abbrevName, legacy);
+            if (legacy.get()) {
+                // migrate the entries of an earlier version, so that their metadata files need not be read again
+                compactLocked(dir, packageDb, true, null);
+            }
+            return new ArrayList<>(entries);
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Find the cached version of a package which best satisfies a query.
+     *
+     * The lookup is answered from the {@link PackageIndex}, which is
+     * rebuilt first if it does not cover the current state of the db.
+     *
+     * @param dir the directory of the db.
+     * @param abbrevName the abbrev and/or name of the package.
+     * @param query the query for the version.
+     *
+     * @return the version and entry, or null if no cached version satisfies the query.
+     */
+    public static @Nullable Tuple2<SemanticVersion, Entry> findEntry(final Path dir, final AbbrevAndOrName abbrevName,
+            final VersionQuery query) throws IOException {
+        migrateUnsharded(dir);
+
+        Tuple2<SemanticVersion, Entry> best = null;
+        for (final Map.Entry<Path, AbbrevAndOrName> shard : shards(dir, abbrevName).entrySet()) {
+            if (!Files.isDirectory(shard.getKey())) {
+                continue;
+            }
+            final Tuple2<SemanticVersion, Entry> found = findEntryInShard(shard.getKey(), shard.getValue(), query);
+            if (found != null && query.prefers(found._1, best != null ? best._1 : null)) {
+                best = found;
+            }
+        }
+        return best;
+    }
+
+    private static @Nullable Tuple2<SemanticVersion, Entry> findEntryInShard(final Path dir,
+            final AbbrevAndOrName abbrevName, final VersionQuery query) throws IOException {
         final Path packageDb = dir.resolve(PACKAGE_DB_FILENAME);
-        if (!Files.exists(packageDb)) {
-            return Collections.emptyList();
+
+        // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+        final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+        jvmLock.lock();
+        try {
+            final AtomicBoolean legacy = new AtomicBoolean();
+            final Tuple2<SemanticVersion, Entry> found = findEntryLocked(dir, packageDb, abbrevName, query, legacy);
+            if (legacy.get()) {
+                // migrate the entries of an earlier version, so that their metadata files need not be read again
+                compactLocked(dir, packageDb, true, null);
+            }
+            return found;
+        } finally {
+            jvmLock.unlock();
         }
+    }
 
-        try (final FileInputStream is = new FileInputStream(packageDb.toFile())) {
-            final List<PackageInfo> packageInfos = new ArrayList<>();
+    private static @Nullable Tuple2<SemanticVersion, Entry> findEntryLocked(final Path dir, final Path packageDb,
+            final AbbrevAndOrName abbrevName, final VersionQuery query, final AtomicBoolean legacy) throws IOException {
+        try (final FileChannel journalChannel = openJournal(dir)) {
+            // NOTE: the lock is released when the channel is closed
+            journalChannel.lock(0L, JOURNAL_APPEND_LOCK_POSITION, true);
+            final long journalLength = journalChannel.size();
+
+            PackageIndex index = PackageIndex.get(dir.resolve(PackageIndex.INDEX_FILENAME),
+                    snapshotSize(packageDb), snapshotLastModified(packageDb), journalLength);
+            if (index == null || journalLength - index.getJournalLength() > INDEX_REBUILD_THRESHOLD) {
+                index = rebuildIndexLocked(dir, packageDb, journalChannel, legacy);
+            }
 
-            final FileLock lock = is.getChannel().lock(0L, Long.MAX_VALUE, true);
-            try {
-                withPackages(is, packageElem -> {
+            Tuple2<SemanticVersion, Entry> best = null;
+            for (final String key : indexKeys(abbrevName)) {
+                final Tuple2<SemanticVersion, Entry> found = index.find(key, query);
+                if (found != null && query.prefers(found._1, best != null ? best._1 : null)) {
+                    best = found;
+                }
+            }
 
-                    // does this match the name or abbrev
-                    boolean matches = false;
-                    if (abbrevName.getName().isPresent()) {
-                        matches = abbrevName.getName().get().equals(packageElem.getAttribute("name"));
+            // anything added since the index was written
+            for (final Tuple2<Either<String, String>, Entry> journalEntry : readJournal(dir, journalChannel, index.getJournalLength()).entries) {
+                if (matches(abbrevName, journalEntry._1)) {
+                    final SemanticVersion version;
+                    try {
+                        version = SemanticVersion.parse(journalEntry._2.getPkgInfo().getVersion());
+                    } catch (final IllegalArgumentException e) {
+                        continue;
                     }
-                    if (matches == false && abbrevName.getAbbrev().isPresent()) {
-                        matches = abbrevName.getAbbrev().get().equals(packageElem.getAttribute("abbrev"));
+                    if (query.accepts(version) && query.prefers(version, best != null ? best._1 : null)) {
+                        best = Tuple(version, journalEntry._2);
                     }
+                }
+            }
 
-                    if (matches) {
-                        withPackageInfos(packageElem, packageInfoElem -> {
-                            final String packageInfoElemPath = packageInfoElem.getAttribute("path");
-                            final Path packageInfoFile = dir.resolve(packageInfoElemPath);
-                            try (final InputStream pkgInfoIs = Files.newInputStream(packageInfoFile)) {
-                                packageInfos.add(PackageInfo.deserialize(new InputSource(pkgInfoIs)));
-                            } catch (final ParserConfigurationException | SAXException e) {
-                                throw new IOException(e);
+            return best;
+        }
+    }
+
+    private static List<String> indexKeys(final AbbrevAndOrName abbrevName) {
+        final List<String> keys = new ArrayList<>(2);
+        abbrevName.getAbbrev().ifPresent(abbrev -> keys.add(indexKey(Left(abbrev))));
+        abbrevName.getName().ifPresent(name -> keys.add(indexKey(Right(name))));
+        return keys;
+    }
+
+    /**
+     * Rebuild the {@link PackageIndex} from the snapshot and the journal.
+     *
+     * The caller must hold a lock on the journal.
+     */
+    private static PackageIndex rebuildIndexLocked(final Path dir, final Path packageDb,
+            final FileChannel journalChannel, final AtomicBoolean legacy) throws IOException {
+        final Map<Either<String, String>, Map<String, Entry>> db;
+        final long snapshotSize;
+        final long snapshotLastModified;
+        if (Files.exists(packageDb)) {
+            try (final FileInputStream is = new FileInputStream(packageDb.toFile())) {
+                final FileLock lock = is.getChannel().lock(0L, Long.MAX_VALUE, true);
+                try {
+                    // NOTE: recorded whilst locked, so that they describe exactly what is read
+                    snapshotSize = snapshotSize(packageDb);
+                    snapshotLastModified = snapshotLastModified(packageDb);
+                    db = loadDb(dir, CloseShieldInputStream.wrap(is), legacy);
+                } catch (final ParserConfigurationException | SAXException e) {
+                    throw new IOException(e);
+                } finally {
+                    // check an exception has not closed the channel
+                    if (lock.channel() != null && lock.channel().isOpen()) {
+                        lock.close();
+                    }
+                }
+            }
+        } else {
+            snapshotSize = -1;
+            snapshotLastModified = -1;
+            db = new LinkedHashMap<>();
+        }
+
+        final Journal journal = readJournal(dir, journalChannel, 0);
+        for (final Tuple2<Either<String, String>, Entry> journalEntry : journal.entries) {
+            addToDb(db, journalEntry._1, journalEntry._2);
+        }
+
+        return writeIndex(dir, db, snapshotSize, snapshotLastModified, journal.end);
+    }
+
+    private static Collection<Entry> findEntriesLocked(final Path dir, final Path packageDb,
+            @Nullable final AbbrevAndOrName abbrevName, final AtomicBoolean legacy) throws IOException {
+        // NOTE: keyed by path, so that a later entry for the same file replaces an earlier one
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+
+        try (final FileChannel journalChannel = openJournal(dir)) {
+            // NOTE: the lock is released when the channel is closed
+            journalChannel.lock(0L, JOURNAL_APPEND_LOCK_POSITION, true);
+
+            // 1. the snapshot
+            if (Files.exists(packageDb)) {
+                try (final FileInputStream is = new FileInputStream(packageDb.toFile())) {
+                    final FileLock lock = is.getChannel().lock(0L, Long.MAX_VALUE, true);
+                    try {
+                        withPackages(is, packageElem -> {
+
+                            // does this match the name or abbrev
+                            if (matches(abbrevName, getKey(packageElem))) {
+                                withEntries(packageElem, entryElem -> {
+                                    if (isLegacy(entryElem)) {
+                                        legacy.set(true);
+                                    }
+                                    final Entry entry = readEntry(dir, entryElem);
+                                    if (entry != null) {
+                                        entries.put(entry.getPkgInfo().getPath(), entry);
+                                    }
+                                });
                             }
                         });
+                    } catch (final ParserConfigurationException | SAXException e) {
+                        throw new IOException(e);
+                    } finally {
+                        // check an exception has not closed the channel
+                        if (lock.channel() != null && lock.channel().isOpen()) {
+                            lock.close();
+                        }
                     }
-                });
-            } catch (final ParserConfigurationException | SAXException e) {
-                throw new IOException(e);
-            } finally {
-                // check an exception has not closed the channel
-                if (lock.channel() != null && lock.channel().isOpen()) {
-                    lock.close();
                 }
             }
 
-            return packageInfos;
+            // 2. anything added since the snapshot
+            for (final Tuple2<Either<String, String>, Entry> journalEntry : readJournal(dir, journalChannel, 0).entries) {
+                if (matches(abbrevName, journalEntry._1)) {
+                    entries.put(journalEntry._2.getPkgInfo().getPath(), journalEntry._2);
+                }
+            }
+        }
+
+        return entries.values();
+    }
+
+    private static boolean matches(@Nullable final AbbrevAndOrName abbrevName, final Either<String, String> key) {
+        if (abbrevName == null) {
+            return true;
         }
+        return key.fold(
+                abbrev -> abbrevName.getAbbrev().map(abbrev::equals).orElse(false),
+                name -> abbrevName.getName().map(name::equals).orElse(false)
+        );
     }
 
-    public static void addPackageInfo(final Path dir, final AbbrevAndOrName abbrevName,
-            final PackageInfo pkgInfo) throws IOException {
+    public static void addEntry(final Path dir, final AbbrevAndOrName abbrevName, final Entry entry)
+            throws IOException {
+        migrateUnsharded(dir);
+
+        for (final Map.Entry<Path, AbbrevAndOrName> shard : shards(dir, abbrevName).entrySet()) {
+            Files.createDirectories(shard.getKey());
+            addEntryToShard(shard.getKey(), shard.getValue(), entry);
+        }
+    }
+
+    private static void addEntryToShard(final Path dir, final AbbrevAndOrName abbrevName, final Entry entry)
+            throws IOException {
         final Path packageDb = dir.resolve(PACKAGE_DB_FILENAME);
 
-        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(packageDb.toFile(), "rw")) {
-            final FileLock lock = randomAccessFile.getChannel().lock();
+        /* we de-normalise the abbrev and name into two separate entries in the db */
+        final StringBuilder entries = new StringBuilder();
+
+        // add the new entry to the database for the name
+        if (abbrevName.getName().isPresent()) {
+            appendJournalEntry(entries, Right(abbrevName.getName().get()), entry);
+        }
+
+        // add the new entry to the database for the abbrev
+        if (abbrevName.getAbbrev().isPresent()) {
+            appendJournalEntry(entries, Left(abbrevName.getAbbrev().get()), entry);
+        }
+
+        // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+        final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+        jvmLock.lock();
+        try {
+            final long journalSize;
+            try (final FileChannel journalChannel = openJournal(dir)) {
+                // NOTE: the lock is released when the channel is closed
+                journalChannel.lock(JOURNAL_APPEND_LOCK_POSITION, 1, false);
+                long position = journalChannel.size();
+
+                // if a previous append was interrupted, start a new line so that its partial entry stands alone
+                if (position > 0) {
+                    final ByteBuffer last = ByteBuffer.allocate(1);
+                    journalChannel.read(last, position - 1);
+                    if (last.get(0) != '\n') {
+                        position += journalChannel.write(ByteBuffer.wrap(new byte[] { '\n' }), position);
+                    }
+                }
+
+                final ByteBuffer buf = ByteBuffer.wrap(entries.toString().getBytes(UTF_8));
+                while (buf.hasRemaining()) {
+                    position += journalChannel.write(buf, position);
+                }
+                journalSize = position;
+            }
+
+            if (journalSize > JOURNAL_COMPACTION_THRESHOLD) {
+                compactLocked(dir, packageDb, false, null);
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Compact the journal of each shard into its snapshot.
+     *
+     * @param dir the directory of the db.
+     */
+    static void compact(final Path dir) throws IOException {
+        migrateUnsharded(dir);
+
+        for (final Path shardDir : existingShards(dir)) {
+            final Path packageDb = shardDir.resolve(PACKAGE_DB_FILENAME);
+
+            // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+            final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+            jvmLock.lock();
+            try {
+                compactLocked(shardDir, packageDb, false, null);
+            } finally {
+                jvmLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove every entry which refers to one of the given checksums, e.g.
+     * because the cached package has been evicted.
+     *
+     * The journal is compacted into the snapshot without the entries.
+     *
+     * @param dir the directory of the db.
+     * @param sha256s the SHA-256 checksums of the packages, in lower case.
+     */
+    static void removeEntries(final Path dir, final Set<String> sha256s) throws IOException {
+        migrateUnsharded(dir);
+
+        // NOTE: the abbrevs and names of the packages are not known, so every shard is visited
+        for (final Path shardDir : existingShards(dir)) {
+            final Path packageDb = shardDir.resolve(PACKAGE_DB_FILENAME);
+
+            // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+            final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+            jvmLock.lock();
             try {
+                compactLocked(shardDir, packageDb, true, sha256s);
+            } finally {
+                jvmLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get the directory of the shard which holds the entries of an abbrev or name.
+     *
+     * @param dir the directory of the db.
+     * @param key the abbrev (left) or name (right).
+     *
+     * @return the directory of the shard.
+     */
+    static Path shardDir(final Path dir, final Either<String, String> key) {
+        // NOTE: String#hashCode is specified, so every JVM agrees on the shard
+        final int hash = indexKey(key).hashCode();
+        final int shard = (hash ^ (hash >>> 16)) & (SHARD_COUNT - 1);
+        return dir.resolve(SHARDS_DIRECTORY_NAME).resolve(String.format("%02x", shard));
+    }
 
-                // read into memory the current state of the database from disk
-                final Map<Either<String, String>, Set<String>> db;
-                if (randomAccessFile.length() > 0) {
-                    // NOTE: no need to close as opened on file descriptor, we also shield against loadDb closing the stream
-                    final InputStream is = new CloseShieldInputStream(new FileInputStream(randomAccessFile.getFD()));
-                    db = loadDb(is);
-                } else {
-                    // new db
-                    db = new LinkedHashMap<>();
+    /**
+     * Split an abbrev and/or name by the shards that hold their entries.
+     */
+    private static Map<Path, AbbrevAndOrName> shards(final Path dir, final AbbrevAndOrName abbrevName) {
+        final Map<Path, AbbrevAndOrName> shards = new LinkedHashMap<>(2);
+        abbrevName.getAbbrev().ifPresent(abbrev ->
+                shards.put(shardDir(dir, Left(abbrev)), new AbbrevAndOrName(Optional.of(abbrev), Optional.empty())));
+        abbrevName.getName().ifPresent(name ->
+                shards.merge(shardDir(dir, Right(name)), new AbbrevAndOrName(Optional.empty(), Optional.of(name)),
+                        (abbrevOnly, nameOnly) -> new AbbrevAndOrName(abbrevOnly.getAbbrev(), nameOnly.getName())));
+        return shards;
+    }
+
+    private static List<Path> existingShards(final Path dir) throws IOException {
+        final Path shardsDir = dir.resolve(SHARDS_DIRECTORY_NAME);
+        final List<Path> shardDirs = new ArrayList<>();
+        if (Files.isDirectory(shardsDir)) {
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(shardsDir, Files::isDirectory)) {
+                for (final Path shardDir : stream) {
+                    shardDirs.add(shardDir);
                 }
+            }
+        }
+        Collections.sort(shardDirs);
+        return shardDirs;
+    }
 
-                /* we de-normalise the abbrev and name into two separate entries in the db */
+    /**
+     * Migrate the db of an earlier version, which is held in the directory
+     * itself rather than in shards, into the shards.
+     *
+     * The whole of the old db (including any metadata files of even earlier
+     * versions) is read whilst holding an exclusive lock on its journal, and
+     * its files are then deleted, so that it is migrated exactly once.
+     * Once this returns, the metadata files are no longer needed.
+     *
+     * @param dir the directory of the db.
+     */
+    static void migrateUnsharded(final Path dir) throws IOException {
+        final Path normalizedDir = dir.toAbsolutePath().normalize();
+        if (MIGRATED.contains(normalizedDir)) {
+            return;
+        }
 
-                // add the new packageInfo to the database for the name
-                if (abbrevName.getName().isPresent()) {
-                    addToDb(db, Right(abbrevName.getName().get()), pkgInfo);
+        final Path packageDb = dir.resolve(PACKAGE_DB_FILENAME);
+        final Path journal = dir.resolve(PACKAGE_DB_JOURNAL_FILENAME);
+        if (Files.exists(packageDb) || Files.exists(journal)) {
+            // NOTE: file locks are per-JVM, so threads of this JVM must first be serialized
+            final ReentrantLock jvmLock = PathLocks.forPath(packageDb);
+            jvmLock.lock();
+            try {
+                if (Files.exists(packageDb) || Files.exists(journal)) {
+                    final Map<Either<String, String>, Map<String, Entry>> db;
+                    try (final FileChannel journalChannel = openJournal(dir)) {
+                        // NOTE: the lock is released when the channel is closed
+                        journalChannel.lock();
+                        if (Files.exists(packageDb)) {
+                            try (final InputStream is = Files.newInputStream(packageDb)) {
+                                db = loadDb(dir, is, null);
+                            } catch (final ParserConfigurationException | SAXException e) {
+                                throw new IOException(e);
+                            }
+                        } else {
+                            db = new LinkedHashMap<>();
+                        }
+                        for (final Tuple2<Either<String, String>, Entry> journalEntry : readJournal(dir, journalChannel, 0).entries) {
+                            addToDb(db, journalEntry._1, journalEntry._2);
+                        }
+
+                        for (final Map.Entry<Either<String, String>, Map<String, Entry>> keyEntries : db.entrySet()) {
+                            final Path shardDir = shardDir(dir, keyEntries.getKey());
+                            Files.createDirectories(shardDir);
+                            final AbbrevAndOrName abbrevName = keyEntries.getKey().fold(
+                                    abbrev -> new AbbrevAndOrName(Optional.of(abbrev), Optional.empty()),
+                                    name -> new AbbrevAndOrName(Optional.empty(), Optional.of(name)));
+                            for (final Entry entry : keyEntries.getValue().values()) {
+                                addEntryToShard(shardDir, abbrevName, entry);
+                            }
+                        }
+
+                        // anyone waiting for the lock will now find nothing left to migrate
+                        Files.deleteIfExists(packageDb);
+                        Files.deleteIfExists(dir.resolve(PackageIndex.INDEX_FILENAME));
+                        journalChannel.truncate(0);
+                    }
+                    try {
+                        Files.deleteIfExists(journal);
+                    } catch (final IOException e) {
+                        // e.g. still open by another process on Windows, it is empty so is simply migrated again
+                    }
                 }
+            } finally {
+                jvmLock.unlock();
+            }
+        }
+
+        MIGRATED.add(normalizedDir);
+    }
+
+    /**
+     * @param force true to rewrite the snapshot even if the journal is empty,
+     *     which migrates any entries of an earlier version.
+     * @param removeSha256s the SHA-256 checksums (in lower case) of entries to remove, or null.
+     */
+    private static void compactLocked(final Path dir, final Path packageDb, final boolean force,
+            @Nullable final Set<String> removeSha256s) throws IOException {
+        try (final FileChannel journalChannel = openJournal(dir)) {
+            // NOTE: the lock is released when the channel is closed
+            journalChannel.lock();
+            final List<Tuple2<Either<String, String>, Entry>> journal = readJournal(dir, journalChannel, 0).entries;
+            if (journal.isEmpty() && !force) {
+                return;
+            }
+
+            final Map<Either<String, String>, Map<String, Entry>> db;
+            try (final RandomAccessFile randomAccessFile = new RandomAccessFile(packageDb.toFile(), "rw")) {
+                final FileLock lock = randomAccessFile.getChannel().lock();
+                try {
+
+                    // read into memory the current state of the database from disk
+                    if (randomAccessFile.length() > 0) {
+                        // NOTE: no need to close as opened on file descriptor, we also shield against loadDb closing the stream
+                        final InputStream is = CloseShieldInputStream.wrap(new FileInputStream(randomAccessFile.getFD()));
+                        db = loadDb(dir, is, null);
+                    } else {
+                        // new db
+                        db = new LinkedHashMap<>();
+                    }
+
+                    // replay the journal
+                    for (final Tuple2<Either<String, String>, Entry> journalEntry : journal) {
+                        addToDb(db, journalEntry._1, journalEntry._2);
+                    }
+
+                    if (removeSha256s != null) {
+                        removeFromDb(db, removeSha256s);
+                    }
+
+                    // write out the new database to disk
+                    randomAccessFile.seek(0);
 
-                // add the new packageInfo to the database for the abbrev
-                if (abbrevName.getAbbrev().isPresent()) {
-                    addToDb(db, Left(abbrevName.getAbbrev().get()), pkgInfo);
+                    // NOTE: no need to close as opened on file descriptor
+                    final CountingOutputStream os = new CountingOutputStream(new FileOutputStream(randomAccessFile.getFD()));
+                    saveDb(db, os);
+
+                    // truncate any remaining bytes
+                    randomAccessFile.setLength(os.getByteCount());
+
+                } finally {
+                    // check an exception has not closed the channel
+                    if (lock.channel() != null && lock.channel().isOpen()) {
+                        lock.close();
+                    }
                 }
+            } catch (final ParserConfigurationException | SAXException | TransformerException e) {
+                throw new IOException(e);
+            }
 
-                // write out the new database to disk
-                randomAccessFile.seek(0);
+            // the journal is now part of the snapshot
+            journalChannel.truncate(0);
 
-                // NOTE: no need to close as opened on file descriptor
-                final CountingOutputStream os = new CountingOutputStream(new FileOutputStream(randomAccessFile.getFD()));
-                saveDb(db, os);
+            writeIndex(dir, db, snapshotSize(packageDb), snapshotLastModified(packageDb), 0);
+        }
+    }
 
-                // truncate any remaining bytes
-                randomAccessFile.setLength(os.getByteCount());
+    private static PackageIndex writeIndex(final Path dir, final Map<Either<String, String>, Map<String, Entry>> db,
+            final long snapshotSize, final long snapshotLastModified, final long journalLength) throws IOException {
+        final Map<String, Collection<Entry>> indexDb = new LinkedHashMap<>();
+        for (final Map.Entry<Either<String, String>, Map<String, Entry>> keyEntries : db.entrySet()) {
+            indexDb.put(indexKey(keyEntries.getKey()), keyEntries.getValue().values());
+        }
+        return PackageIndex.write(dir.resolve(PackageIndex.INDEX_FILENAME), indexDb, snapshotSize,
+                snapshotLastModified, journalLength);
+    }
 
-            } finally {
-                // check an exception has not closed the channel
-                if (lock.channel() != null && lock.channel().isOpen()) {
-                    lock.close();
+    private static String indexKey(final Either<String, String> key) {
+        return key.fold(
+                abbrev -> "a:" + abbrev,
+                name -> "n:" + name
+        );
+    }
+
+    private static long snapshotSize(final Path packageDb) throws IOException {
+        return Files.exists(packageDb) ? Files.size(packageDb) : -1;
+    }
+
+    private static long snapshotLastModified(final Path packageDb) throws IOException {
+        return Files.exists(packageDb) ? Files.getLastModifiedTime(packageDb).toMillis() : -1;
+    }
+
+    private static FileChannel openJournal(final Path dir) throws IOException {
+        return FileChannel.open(dir.resolve(PACKAGE_DB_JOURNAL_FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void appendJournalEntry(final StringBuilder builder, final Either<String, String> key,
+            final Entry entry) {
+        final Tuple2<String, String> attr = key.fold(
+                abbrev -> Tuple("abbrev", abbrev),
+                name -> Tuple("name", name)
+        );
+        builder.append('<').append(ENTRY_ELEMENT).append(' ')
+                .append(attr._1).append("=\"").append(XmlUtils.escapeAttribute(attr._2)).append("\" ")
+                .append("path=\"").append(XmlUtils.escapeAttribute(entry.getPkgInfo().getPath())).append("\" ")
+                .append("sha256=\"").append(XmlUtils.escapeAttribute(entry.getPkgInfo().getSha256())).append("\" ")
+                .append("version=\"").append(XmlUtils.escapeAttribute(entry.getPkgInfo().getVersion())).append("\" ")
+                .append("size=\"").append(entry.getSize()).append("\" ")
+                .append("cached=\"").append(entry.getCached()).append("\"/>\n");
+    }
+
+    /**
+     * Read the complete entries of the journal.
+     *
+     * The caller must hold a lock on the journal.
+     *
+     * @param from the offset in the journal to read from, which must be the start of an entry.
+     */
+    private static Journal readJournal(final Path dir, final FileChannel journalChannel, final long from)
+            throws IOException {
+        final long size = journalChannel.size();
+        if (size <= from) {
+            return new Journal(Collections.emptyList(), from);
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate((int) (size - from));
+        while (buf.hasRemaining()) {
+            if (journalChannel.read(buf, from + buf.position()) < 0) {
+                break;
+            }
+        }
+
+        // ignore any partial entry at the end, it is still being written
+        int end = buf.position();
+        while (end > 0 && buf.get(end - 1) != '\n') {
+            end--;
+        }
+
+        final byte[] data = buf.array();
+        final List<Tuple2<Either<String, String>, Entry>> entries = new ArrayList<>();
+        try {
+            parseJournal(dir, new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(JOURNAL_START),
+                    new ByteArrayInputStream(data, 0, end),
+                    new ByteArrayInputStream(JOURNAL_END)))), entries);
+        } catch (final SAXException e) {
+            // an interrupted append has left a malformed line, so parse each line by itself and skip the bad ones
+            entries.clear();
+            int lineStart = 0;
+            for (int i = 0; i < end; i++) {
+                if (data[i] == '\n') {
+                    try {
+                        parseJournal(dir, new ByteArrayInputStream(data, lineStart, i - lineStart), entries);
+                    } catch (final SAXException le) {
+                        // skip the malformed line
+                    }
+                    lineStart = i + 1;
                 }
             }
-        } catch (final ParserConfigurationException | SAXException | TransformerException e) {
+        }
+        return new Journal(entries, from + end);
+    }
+
+    private static void parseJournal(final Path dir, final InputStream is,
+            final List<Tuple2<Either<String, String>, Entry>> entries) throws IOException, SAXException {
+        final Document document;
+        try {
+            final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(null);
+            document = documentBuilder.parse(is);
+        } catch (final ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+
+        final Element root = document.getDocumentElement();
+        for (Node node = root.getNodeName().equals("journal") ? root.getFirstChild() : root; node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            final Element entryElem = (Element) node;
+            final Entry entry = readEntry(dir, entryElem);
+            if (entry != null) {
+                entries.add(Tuple(getKey(entryElem), entry));
+            }
+        }
+    }
+
+    private static Either<String, String> getKey(final Element elem) {
+        return OptionalUtil.toLeft(
+                Optional.ofNullable(elem.getAttribute("abbrev"))
+                        .filter(s -> !s.isEmpty())
+                ,
+                () -> elem.getAttribute("name"));
+    }
+
+    private static boolean isLegacy(final Element entryElem) {
+        return LEGACY_ENTRY_ELEMENT.equals(entryElem.getNodeName());
+    }
+
+    /**
+     * Read an entry of the db.
+     *
+     * @param dir the directory of the db.
+     * @param entryElem the element of the entry.
+     *
+     * @return the entry, or null if it is an entry of an earlier version
+     *     whose metadata file no longer exists.
+     */
+    private static @Nullable Entry readEntry(final Path dir, final Element entryElem) throws IOException {
+        if (!isLegacy(entryElem)) {
+            final PackageInfo pkgInfo = new PackageInfo(entryElem.getAttribute("sha256"),
+                    entryElem.getAttribute("version"), entryElem.getAttribute("path"));
+            return new Entry(pkgInfo, parseLong(entryElem.getAttribute("size")),
+                    parseLong(entryElem.getAttribute("cached")));
+        }
+
+        // an entry of an earlier version, which is just the path of a metadata file
+        final Path packageInfoFile = dir.resolve(entryElem.getAttribute("path"));
+        if (!Files.exists(packageInfoFile)) {
+            return null;
+        }
+
+        final PackageInfo pkgInfo;
+        try (final InputStream pkgInfoIs = Files.newInputStream(packageInfoFile)) {
+            pkgInfo = PackageInfo.deserialize(new InputSource(pkgInfoIs));
+        } catch (final ParserConfigurationException | SAXException e) {
             throw new IOException(e);
         }
+
+        final Path file = dir.resolve(pkgInfo.getPath());
+        final long size = Files.exists(file) ? Files.size(file) : -1;
+        return new Entry(pkgInfo, size, Files.getLastModifiedTime(packageInfoFile).toMillis());
     }
 
-    private static void addToDb(final Map<Either<String, String>, Set<String>> db,
-            final Either<String, String> key, final PackageInfo pkgInfo) {
-        Set<String> currentEntry = db.get(key);
-        if (currentEntry == null) {
-            currentEntry = new LinkedHashSet<>();
-            db.put(key, currentEntry);
+    private static long parseLong(final String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            return -1;
         }
-        currentEntry.add(pkgInfo.getPath() + METADATA_FILE_EXTENSION);
     }
 
-    private static void saveDb(final Map<Either<String, String>, Set<String>> db, final OutputStream os)
+    private static void addToDb(final Map<Either<String, String>, Map<String, Entry>> db,
+            final Either<String, String> key, final Entry entry) {
+        Map<String, Entry> currentEntries = db.get(key);
+        if (currentEntries == null) {
+            currentEntries = new LinkedHashMap<>();
+            db.put(key, currentEntries);
+        }
+        currentEntries.put(entry.getPkgInfo().getPath(), entry);
+    }
+
+    private static void removeFromDb(final Map<Either<String, String>, Map<String, Entry>> db,
+            final Set<String> sha256s) {
+        final Iterator<Map<String, Entry>> itKeyEntries = db.values().iterator();
+        while (itKeyEntries.hasNext()) {
+            final Map<String, Entry> keyEntries = itKeyEntries.next();
+            keyEntries.values().removeIf(entry -> sha256s.contains(entry.getPkgInfo().getSha256().toLowerCase(Locale.ENGLISH)));
+            if (keyEntries.isEmpty()) {
+                itKeyEntries.remove();
+            }
+        }
+    }
+
+    private static void saveDb(final Map<Either<String, String>, Map<String, Entry>> db, final OutputStream os)
             throws ParserConfigurationException, TransformerException {
         final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
         final Document document = documentBuilder.newDocument();
         final Element packagesElem = document.createElement("packages");
 
-        for (final Map.Entry<Either<String, String>, Set<String>> entries : db.entrySet()) {
+        for (final Map.Entry<Either<String, String>, Map<String, Entry>> entries : db.entrySet()) {
             final Element packageElem = document.createElement("package");
             final Tuple2<String, String> attr = entries.getKey().fold(
                     abbrev -> Tuple("abbrev", abbrev),
                     name -> Tuple("name", name)
             );
             packageElem.setAttribute(attr._1, attr._2);
-            for (final String packageInfoPath : entries.getValue()) {
-                final Element packageInfo = document.createElement("packageInfo");
-                packageInfo.setAttribute("path", packageInfoPath);
-                packageElem.appendChild(packageInfo);
+            for (final Entry entry : entries.getValue().values()) {
+                final Element entryElem = document.createElement(ENTRY_ELEMENT);
+                entryElem.setAttribute("path", entry.getPkgInfo().getPath());
+                entryElem.setAttribute("sha256", entry.getPkgInfo().getSha256());
+                entryElem.setAttribute("version", entry.getPkgInfo().getVersion());
+                entryElem.setAttribute("size", Long.toString(entry.getSize()));
+                entryElem.setAttribute("cached", Long.toString(entry.getCached()));
+                packageElem.appendChild(entryElem);
             }
             packagesElem.appendChild(packageElem);
         }
@@ -172,23 +873,23 @@ public class PackageDb {
         XmlUtils.serialize(document, new StreamResult(os));
     }
 
-    private static Map<Either<String, String>, Set<String>> loadDb(final InputStream is)
-            throws IOException, SAXException, ParserConfigurationException {
-        final Map<Either<String, String>, Set<String>> db = new LinkedHashMap<>();
+    /**
+     * @param legacy if not null, is set when an entry of an earlier version is read.
+     */
+    private static Map<Either<String, String>, Map<String, Entry>> loadDb(final Path dir, final InputStream is,
+            @Nullable final AtomicBoolean legacy) throws IOException, SAXException, ParserConfigurationException {
+        final Map<Either<String, String>, Map<String, Entry>> db = new LinkedHashMap<>();
         withPackages(is, packageElem -> {
-            final Set<String> packageInfoPaths = new LinkedHashSet<>();
-            withPackageInfos(packageElem, packageInfoElem -> {
-                final String path = packageInfoElem.getAttribute("path");
-                packageInfoPaths.add(path);
+            final Either<String, String> packageAbbrevOrName = getKey(packageElem);
+            withEntries(packageElem, entryElem -> {
+                if (legacy != null && isLegacy(entryElem)) {
+                    legacy.set(true);
+                }
+                final Entry entry = readEntry(dir, entryElem);
+                if (entry != null) {
+                    addToDb(db, packageAbbrevOrName, entry);
+                }
             });
-
-            final Either<String, String> packageAbbrevOrName = OptionalUtil.toLeft(
-                    Optional.ofNullable(packageElem.getAttribute("abbrev"))
-                            .filter(s -> !s.isEmpty())
-                    ,
-                    () -> packageElem.getAttribute("name"));
-
-            db.put(packageAbbrevOrName, packageInfoPaths);
         });
         return db;
     }
@@ -205,12 +906,62 @@ public class PackageDb {
         }
     }
 
-    private static void withPackageInfos(final Element packageElem,
-            final ConsumerE<Element, IOException> packageInfoConsumer) throws IOException {
-        final NodeList packageInfoElems = packageElem.getElementsByTagName("packageInfo");
-        for (int i = 0; i < packageInfoElems.getLength(); i++) {
-            final Element packageInfoElem = (Element) packageInfoElems.item(i);
-            packageInfoConsumer.accept(packageInfoElem);
+    private static void withEntries(final Element packageElem,
+            final ConsumerE<Element, IOException> entryConsumer) throws IOException {
+        for (Node node = packageElem.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE
+                    && (ENTRY_ELEMENT.equals(node.getNodeName()) || LEGACY_ENTRY_ELEMENT.equals(node.getNodeName()))) {
+                entryConsumer.accept((Element) node);
+            }
+        }
+    }
+
+    /**
+     * The complete entries read from the journal.
+     */
+    private static class Journal {
+        final List<Tuple2<Either<String, String>, Entry>> entries;
+
+        /**
+         * The offset in the journal after the last complete entry.
+         */
+        final long end;
+
+        Journal(final List<Tuple2<Either<String, String>, Entry>> entries, final long end) {
+            this.entries = entries;
+            this.end = end;
+        }
+    }
+
+    /**
+     * An entry of the db, i.e. a cached version of a package.
+     */
+    public static class Entry {
+        private final PackageInfo pkgInfo;
+        private final long size;
+        private final long cached;
+
+        /**
+         * @param pkgInfo the info about the package.
+         * @param size the size of the cached file in bytes, or -1 if unknown.
+         * @param cached the time that the file was cached, in milliseconds since the epoch.
+         */
+        public Entry(final PackageInfo pkgInfo, final long size, final long cached) {
+            this.pkgInfo = pkgInfo;
+            this.size = size;
+            this.cached = cached;
+        }
+
+        public PackageInfo getPkgInfo() {
+            return pkgInfo;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCached() {
+            return cached;
         }
     }
 
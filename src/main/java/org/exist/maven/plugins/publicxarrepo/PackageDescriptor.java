@@ -0,0 +1,153 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The EXPath package descriptor ({@code expath-pkg.xml}) of a XAR,
+ * which names the package and declares its dependencies, e.g.
+ * <pre>{@code
+ * <package xmlns="http://expath.org/ns/pkg" name="http://exist-db.org/apps/markdown" abbrev="markdown" version="1.0.0" spec="1.0">
+ *   <dependency processor="http://exist-db.org" semver-min="5.3.0"/>
+ *   <dependency package="http://exist-db.org/apps/shared" semver-min="0.9.1"/>
+ * </package>
+ * }</pre>
+ */
+class PackageDescriptor {
+
+    static final String DESCRIPTOR_ENTRY_NAME = "expath-pkg.xml";
+
+    private static final String PACKAGE_ELEMENT = "package";
+    private static final String DEPENDENCY_ELEMENT = "dependency";
+
+    /**
+     * Descriptors are read from third-party XARs, so a DTD (and with it any
+     * external or expanding entity) is rejected, as the {@link Catalog} does.
+     */
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+        DOCUMENT_BUILDER_FACTORY.setXIncludeAware(false);
+        DOCUMENT_BUILDER_FACTORY.setExpandEntityReferences(false);
+        try {
+            DOCUMENT_BUILDER_FACTORY.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DOCUMENT_BUILDER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (final ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to secure the XML parser: " + e.getMessage(), e);
+        }
+    }
+
+    private final String name;
+    @Nullable private final String abbrev;
+    private final List<Package> dependencies;
+
+    /**
+     * @param name the name of the package.
+     * @param abbrev the abbreviated name of the package, or null.
+     * @param dependencies the packages that the package depends on.
+     */
+    PackageDescriptor(final String name, @Nullable final String abbrev, final List<Package> dependencies) {
+        this.name = name;
+        this.abbrev = abbrev;
+        this.dependencies = Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Read the descriptor of a XAR.
+     *
+     * The XAR is read as a stream, and only up to its descriptor, so the
+     * central directory at the end of the file is never needed.
+     *
+     * @param xar the XAR.
+     *
+     * @return the descriptor, or null if the XAR has none.
+     *
+     * @throws IOException if the XAR cannot be read, or its descriptor is invalid.
+     */
+    static @Nullable PackageDescriptor read(final Path xar) throws IOException {
+        try (final ZipInputStream zis = new ZipInputStream(new BufferedInputStream(Files.newInputStream(xar)))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory() && DESCRIPTOR_ENTRY_NAME.equals(entry.getName())) {
+                    return parse(xar, new FilterInputStream(zis) {
+                        @Override
+                        public void close() {
+                            // NOTE: the parser closes its input, but the zip stream is closed by the caller
+                        }
+                    });
+                }
+            }
+        }
+        return null;
+    }
+
+    private static PackageDescriptor parse(final Path xar, final InputStream is) throws IOException {
+        final Element root;
+        try {
+            final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(null);
+            root = documentBuilder.parse(is).getDocumentElement();
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid " + DESCRIPTOR_ENTRY_NAME + " in: " + xar.getFileName() + ": " + e.getMessage(), e);
+        }
+
+        if (root == null || !PACKAGE_ELEMENT.equals(root.getLocalName()) || !root.hasAttribute("name")) {
+            throw new IOException("Invalid " + DESCRIPTOR_ENTRY_NAME + " in: " + xar.getFileName());
+        }
+
+        final List<Package> dependencies = new ArrayList<>();
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE || !DEPENDENCY_ELEMENT.equals(child.getLocalName())) {
+                continue;
+            }
+            final Element dependency = (Element) child;
+            // NOTE: a dependency on a processor (e.g. eXist-db itself) is not a package that can be resolved
+            if (!dependency.hasAttribute("package")) {
+                continue;
+            }
+            dependencies.add(new Package(
+                    dependency.getAttribute("package"),
+                    null,
+                    attributeOrNull(dependency, "version"),
+                    attributeOrNull(dependency, "semver"),
+                    attributeOrNull(dependency, "semver-min"),
+                    attributeOrNull(dependency, "semver-max")));
+        }
+
+        return new PackageDescriptor(root.getAttribute("name"), attributeOrNull(root, "abbrev"), dependencies);
+    }
+
+    private static @Nullable String attributeOrNull(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Nullable String getAbbrev() {
+        return abbrev;
+    }
+
+    List<Package> getDependencies() {
+        return dependencies;
+    }
+}
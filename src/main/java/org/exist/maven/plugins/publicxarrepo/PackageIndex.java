@@ -0,0 +1,423 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import com.evolvedbinary.j8fu.tuple.Tuple2;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.evolvedbinary.j8fu.tuple.Tuple.Tuple;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact binary index of the {@link PackageDb}, which is read through a
+ * memory mapping, so that a lookup needs neither XML parsing nor version
+ * parsing.
+ *
+ * The index is derived entirely from the snapshot and the journal of the
+ * {@link PackageDb}, and records which state of them it covers, so it is
+ * simply rebuilt whenever it is missing, corrupt or out of date.
+ *
+ * Layout, all integers being big-endian:
+ * <pre>
+ * header:   magic, format version, snapshot size, snapshot last modified,
+ *           journal length, bucket count, key count
+ * buckets:  bucket count x offset of a key record (0 if empty),
+ *           open addressing by the hash of the key with linear probing
+ * records:  hash, key length, key, entry count,
+ *           entry count x (major, minor, patch, offset of details),
+ *           sorted by version, then the details of each entry:
+ *           size, cached, path, sha256 and version
+ * </pre>
+ */
+class PackageIndex {
+
+    static final String INDEX_FILENAME = "packages.idx";
+
+    private static final int MAGIC = 0x58494458;  // XIDX
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int ENTRY_SIZE = 16;
+    private static final int MIN_BUCKETS = 16;
+
+    /**
+     * Indexes that have already been loaded by this JVM, by the path of the index file.
+     */
+    private static final ConcurrentMap<Path, PackageIndex> LOADED = new ConcurrentHashMap<>();
+
+    private final ByteBuffer buf;
+    private final long snapshotSize;
+    private final long snapshotLastModified;
+    private final long journalLength;
+    private final int bucketCount;
+
+    private PackageIndex(final ByteBuffer buf) {
+        this.buf = buf;
+        this.snapshotSize = buf.getLong(8);
+        this.snapshotLastModified = buf.getLong(16);
+        this.journalLength = buf.getLong(24);
+        this.bucketCount = buf.getInt(32);
+    }
+
+    /**
+     * Get the index, if it has already been loaded by this JVM or can be
+     * read from disk, and it covers the current state of the {@link PackageDb}.
+     *
+     * @param indexFile the index file.
+     * @param snapshotSize the current size of the snapshot, or -1 if there is none.
+     * @param snapshotLastModified the current last modified time of the snapshot, or -1 if there is none.
+     * @param journalLength the current length of the journal.
+     *
+     * @return the index, or null if there is no valid index which covers the current state.
+     */
+    static @Nullable PackageIndex get(final Path indexFile, final long snapshotSize, final long snapshotLastModified,
+            final long journalLength) throws IOException {
+        final Path key = indexFile.toAbsolutePath().normalize();
+        final PackageIndex loaded = LOADED.get(key);
+        if (loaded != null && loaded.covers(snapshotSize, snapshotLastModified, journalLength)) {
+            return loaded;
+        }
+
+        // perhaps another process has since written a newer index
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+
+        final ByteBuffer buf;
+        try (final FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+            return null;
+        }
+
+        final PackageIndex index = new PackageIndex(buf);
+        if (!index.covers(snapshotSize, snapshotLastModified, journalLength)) {
+            return null;
+        }
+        LOADED.put(key, index);
+        return index;
+    }
+
+    /**
+     * Write a new index.
+     *
+     * @param indexFile the index file.
+     * @param db the entries of each key, in the order that they were added.
+     * @param snapshotSize the size of the snapshot that the index covers, or -1 if there is none.
+     * @param snapshotLastModified the last modified time of the snapshot that the index covers, or -1 if there is none.
+     * @param journalLength the length of the journal that the index covers.
+     *
+     * @return the new index.
+     */
+    static PackageIndex write(final Path indexFile, final Map<String, ? extends Collection<PackageDb.Entry>> db,
+            final long snapshotSize, final long snapshotLastModified, final long journalLength) throws IOException {
+        int bucketCount = MIN_BUCKETS;
+        while (bucketCount < db.size() * 2) {
+            bucketCount <<= 1;
+        }
+        final int[] buckets = new int[bucketCount];
+        final int recordsStart = HEADER_SIZE + (bucketCount * 4);
+
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final DataOutputStream os = new DataOutputStream(records);
+        for (final Map.Entry<String, ? extends Collection<PackageDb.Entry>> keyEntries : db.entrySet()) {
+            final String key = keyEntries.getKey();
+            final int hash = key.hashCode();
+
+            // sort by version, the sort is stable so equal versions stay in the order they were added
+            final List<Tuple2<SemanticVersion, PackageDb.Entry>> entries = new ArrayList<>(keyEntries.getValue().size());
+            for (final PackageDb.Entry entry : keyEntries.getValue()) {
+                final SemanticVersion version;
+                try {
+                    version = SemanticVersion.parse(entry.getPkgInfo().getVersion());
+                } catch (final IllegalArgumentException e) {
+                    // cannot be matched by any query
+                    continue;
+                }
+                entries.add(Tuple(version, entry));
+            }
+            entries.sort(Comparator.comparing(entry -> entry._1));
+
+            final int recordOffset = recordsStart + os.size();
+            int bucket = hash & (bucketCount - 1);
+            while (buckets[bucket] != 0) {
+                bucket = (bucket + 1) & (bucketCount - 1);
+            }
+            buckets[bucket] = recordOffset;
+
+            final byte[] keyBytes = key.getBytes(UTF_8);
+            os.writeInt(hash);
+            os.writeInt(keyBytes.length);
+            os.write(keyBytes);
+            os.writeInt(entries.size());
+
+            final List<byte[]> details = new ArrayList<>(entries.size());
+            for (final Tuple2<SemanticVersion, PackageDb.Entry> entry : entries) {
+                details.add(encodeDetails(entry._2));
+            }
+
+            int detailsOffset = recordsStart + os.size() + (entries.size() * ENTRY_SIZE);
+            for (int i = 0; i < entries.size(); i++) {
+                final SemanticVersion version = entries.get(i)._1;
+                os.writeInt(version.getMajor());
+                os.writeInt(version.getMinor());
+                os.writeInt(version.getPatch());
+                os.writeInt(detailsOffset);
+                detailsOffset += details.get(i).length;
+            }
+            for (final byte[] detail : details) {
+                os.write(detail);
+            }
+        }
+        os.flush();
+
+        final ByteBuffer buf = ByteBuffer.allocate(recordsStart + records.size());
+        buf.putInt(MAGIC);
+        buf.putInt(FORMAT_VERSION);
+        buf.putLong(snapshotSize);
+        buf.putLong(snapshotLastModified);
+        buf.putLong(journalLength);
+        buf.putInt(bucketCount);
+        buf.putInt(db.size());
+        for (final int bucket : buckets) {
+            buf.putInt(bucket);
+        }
+        buf.put(records.toByteArray());
+        buf.flip();
+
+        // write to a temporary file and then move it into place, so that readers never see a partial index
+        final Path tempFile = Files.createTempFile(indexFile.getParent(), INDEX_FILENAME, ".tmp");
+        try {
+            try (final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                final ByteBuffer src = buf.duplicate();
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            // NOTE: on Windows a file cannot be replaced whilst it is mapped, in which case this JVM just uses the new index from memory
+            Files.deleteIfExists(tempFile);
+        }
+
+        final PackageIndex index = new PackageIndex(buf);
+        LOADED.put(indexFile.toAbsolutePath().normalize(), index);
+        return index;
+    }
+
+    private static byte[] encodeDetails(final PackageDb.Entry entry) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final DataOutputStream os = new DataOutputStream(baos)) {
+            os.writeLong(entry.getSize());
+            os.writeLong(entry.getCached());
+            writeString(os, entry.getPkgInfo().getPath());
+            writeString(os, entry.getPkgInfo().getSha256());
+            writeString(os, entry.getPkgInfo().getVersion());
+        }
+        return baos.toByteArray();
+    }
+
+    private static void writeString(final DataOutputStream os, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    /**
+     * Determine if the index covers the current state of the {@link PackageDb}.
+     *
+     * @param snapshotSize the current size of the snapshot, or -1 if there is none.
+     * @param snapshotLastModified the current last modified time of the snapshot, or -1 if there is none.
+     * @param journalLength the current length of the journal.
+     *
+     * @return true if the index covers the snapshot and the start of the
+     *     journal, in which case only the rest of the journal needs to be read.
+     */
+    boolean covers(final long snapshotSize, final long snapshotLastModified, final long journalLength) {
+        return this.snapshotSize == snapshotSize
+                && this.snapshotLastModified == snapshotLastModified
+                && this.journalLength <= journalLength;
+    }
+
+    /**
+     * Get the length of the journal that the index covers.
+     *
+     * @return the length of the journal.
+     */
+    long getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * Find the entry of a key which best satisfies a query.
+     *
+     * @param key the key.
+     * @param query the query.
+     *
+     * @return the version and entry, or null if no entry satisfies the query.
+     */
+    @Nullable Tuple2<SemanticVersion, PackageDb.Entry> find(final String key, final VersionQuery query) {
+        final int recordOffset = findRecord(key);
+        if (recordOffset == 0) {
+            return null;
+        }
+
+        final int keyLength = buf.getInt(recordOffset + 4);
+        final int entryCount = buf.getInt(recordOffset + 8 + keyLength);
+        if (entryCount == 0) {
+            return null;
+        }
+        final int entriesOffset = recordOffset + 12 + keyLength;
+
+        final int i;
+        switch (query.getKind()) {
+            case EXACTLY:
+                i = lowerBound(entriesOffset, entryCount, query.getBound());
+                break;
+
+            case AT_MOST:
+                final int last = upperBound(entriesOffset, entryCount, query.getBound()) - 1;
+                if (last < 0) {
+                    return null;
+                }
+                // the first of any equal versions
+                i = lowerBound(entriesOffset, entryCount, version(entriesOffset, last));
+                break;
+
+            default:
+                // the first of any equal latest versions
+                i = lowerBound(entriesOffset, entryCount, version(entriesOffset, entryCount - 1));
+                break;
+        }
+
+        if (i >= entryCount) {
+            return null;
+        }
+        final SemanticVersion version = version(entriesOffset, i);
+        if (!query.accepts(version)) {
+            return null;
+        }
+
+        return Tuple(version, readDetails(buf.getInt(entriesOffset + (i * ENTRY_SIZE) + 12)));
+    }
+
+    private int findRecord(final String key) {
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int hash = key.hashCode();
+
+        int bucket = hash & (bucketCount - 1);
+        for (int probes = 0; probes < bucketCount; probes++) {
+            final int recordOffset = buf.getInt(HEADER_SIZE + (bucket * 4));
+            if (recordOffset == 0) {
+                return 0;
+            }
+            if (buf.getInt(recordOffset) == hash && keyEquals(recordOffset + 4, keyBytes)) {
+                return recordOffset;
+            }
+            bucket = (bucket + 1) & (bucketCount - 1);
+        }
+        return 0;
+    }
+
+    private boolean keyEquals(final int offset, final byte[] keyBytes) {
+        if (buf.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buf.get(offset + 4 + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first entry whose version is greater than or equal to the version.
+     */
+    private int lowerBound(final int entriesOffset, final int entryCount, final SemanticVersion version) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(entriesOffset, mid, version) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first entry whose version is greater than the version.
+     */
+    private int upperBound(final int entriesOffset, final int entryCount, final SemanticVersion version) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(entriesOffset, mid, version) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(final int entriesOffset, final int i, final SemanticVersion version) {
+        final int entryOffset = entriesOffset + (i * ENTRY_SIZE);
+        int result = Integer.compare(buf.getInt(entryOffset), version.getMajor());
+        if (result == 0) {
+            result = Integer.compare(buf.getInt(entryOffset + 4), version.getMinor());
+            if (result == 0) {
+                result = Integer.compare(buf.getInt(entryOffset + 8), version.getPatch());
+            }
+        }
+        return result;
+    }
+
+    private SemanticVersion version(final int entriesOffset, final int i) {
+        final int entryOffset = entriesOffset + (i * ENTRY_SIZE);
+        return new SemanticVersion(buf.getInt(entryOffset), buf.getInt(entryOffset + 4), buf.getInt(entryOffset + 8));
+    }
+
+    private PackageDb.Entry readDetails(final int offset) {
+        final long size = buf.getLong(offset);
+        final long cached = buf.getLong(offset + 8);
+        int position = offset + 16;
+        final String path = readString(position);
+        position += 4 + buf.getInt(position);
+        final String sha256 = readString(position);
+        position += 4 + buf.getInt(position);
+        final String version = readString(position);
+        return new PackageDb.Entry(new PackageInfo(sha256, version, path), size, cached);
+    }
+
+    private String readString(final int offset) {
+        final byte[] bytes = new byte[buf.getInt(offset)];
+        final ByteBuffer src = buf.duplicate();
+        src.position(offset + 4);
+        src.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
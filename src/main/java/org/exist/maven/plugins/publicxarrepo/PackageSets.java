@@ -0,0 +1,128 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
+
+/**
+ * A file which lists the packages of several projects, so that they can
+ * all be fetched into the cache at once. The file has the form:
+ * <pre>{@code
+ * <package-sets>
+ *   <package-set existDbVersion="6.2.0">
+ *     <package abbrev="functx" semanticVersionMin="1.0.0"/>
+ *     <package name="http://exist-db.org/apps/markdown"/>
+ *   </package-set>
+ * </package-sets>
+ * }</pre>
+ *
+ * The {@code existDbVersion} of a package set is optional, and defaults
+ * to the version (or versions) of eXist-db configured for the mojo.
+ */
+class PackageSets {
+
+    private static final String ROOT_ELEMENT = "package-sets";
+    private static final String PACKAGE_SET_ELEMENT = "package-set";
+    private static final String PACKAGE_ELEMENT = "package";
+
+    private PackageSets() {
+    }
+
+    /**
+     * Read a package sets file.
+     *
+     * @param file the package sets file.
+     *
+     * @return the package sets, in the order that they are listed.
+     *
+     * @throws IOException if the file cannot be read or is invalid.
+     */
+    static List<PackageSet> read(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            throw new IOException("Package sets file does not exist: " + file);
+        }
+
+        final Element root;
+        try (final InputStream is = Files.newInputStream(file)) {
+            final DocumentBuilder documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            documentBuilder.setErrorHandler(null);
+            root = documentBuilder.parse(is).getDocumentElement();
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid package sets file: " + file + ": " + e.getMessage(), e);
+        }
+
+        if (root == null || !ROOT_ELEMENT.equals(root.getLocalName())) {
+            throw new IOException("Invalid package sets file: " + file);
+        }
+
+        final List<PackageSet> packageSets = new ArrayList<>();
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE || !PACKAGE_SET_ELEMENT.equals(child.getLocalName())) {
+                continue;
+            }
+            final Element packageSet = (Element) child;
+
+            final List<Package> packages = new ArrayList<>();
+            for (Node grandchild = packageSet.getFirstChild(); grandchild != null; grandchild = grandchild.getNextSibling()) {
+                if (grandchild.getNodeType() != Node.ELEMENT_NODE || !PACKAGE_ELEMENT.equals(grandchild.getLocalName())) {
+                    continue;
+                }
+                final Element pkg = (Element) grandchild;
+                if (!pkg.hasAttribute("name") && !pkg.hasAttribute("abbrev")) {
+                    throw new IOException("Invalid package sets file: " + file + ": each package must have a `name` or `abbrev`");
+                }
+                packages.add(new Package(
+                        attributeOrNull(pkg, "name"),
+                        attributeOrNull(pkg, "abbrev"),
+                        attributeOrNull(pkg, "version"),
+                        attributeOrNull(pkg, "semanticVersion"),
+                        attributeOrNull(pkg, "semanticVersionMin"),
+                        attributeOrNull(pkg, "semanticVersionMax")));
+            }
+            packageSets.add(new PackageSet(attributeOrNull(packageSet, "existDbVersion"), packages));
+        }
+        return packageSets;
+    }
+
+    private static @Nullable String attributeOrNull(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    /**
+     * The packages of a project.
+     */
+    static class PackageSet {
+        @Nullable private final String existDbVersion;
+        private final List<Package> packages;
+
+        /**
+         * @param existDbVersion the version of eXist-db that the packages are for, or null for those of the mojo.
+         * @param packages the packages.
+         */
+        PackageSet(@Nullable final String existDbVersion, final List<Package> packages) {
+            this.existDbVersion = existDbVersion;
+            this.packages = Collections.unmodifiableList(packages);
+        }
+
+        @Nullable String getExistDbVersion() {
+            return existDbVersion;
+        }
+
+        List<Package> getPackages() {
+            return packages;
+        }
+    }
+}
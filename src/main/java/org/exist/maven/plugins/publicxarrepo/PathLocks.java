@@ -0,0 +1,31 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM wide locks keyed by file path.
+ *
+ * A {@link java.nio.channels.FileLock} is held on behalf of the whole JVM,
+ * so two threads of the same JVM that attempt to lock the same file would
+ * cause an {@link java.nio.channels.OverlappingFileLockException}. Threads
+ * must therefore first acquire the lock for the path from here before
+ * taking the file lock.
+ */
+class PathLocks {
+
+    private static final ConcurrentMap<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Get the lock for a path.
+     *
+     * @param path the path of the file.
+     *
+     * @return the lock for the path.
+     */
+    static ReentrantLock forPath(final Path path) {
+        return LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new ReentrantLock());
+    }
+}
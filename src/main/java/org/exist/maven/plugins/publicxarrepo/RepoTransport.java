@@ -0,0 +1,64 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The means of accessing a repo of packages, e.g. over HTTP, or in a
+ * directory on the local (or a network) file system.
+ *
+ * Implementations must be safe for use by concurrent resolutions.
+ *
+ * @see HttpRepoTransport
+ * @see FileRepoTransport
+ */
+interface RepoTransport {
+
+    /**
+     * Find the latest release of a package that satisfies its constraints.
+     *
+     * @param pkg the package to find.
+     * @param existDbVersion the version of eXist-db that the package is for.
+     * @param cached the package info that was retrieved previously for the same query, or null.
+     * @param log the log to write to.
+     *
+     * @return the package info, and its validators (if any).
+     *
+     * @throws MojoExecutionException if the package info cannot be retrieved.
+     */
+    FindCache.Entry find(Package pkg, String existDbVersion, @Nullable FindCache.Entry cached, Log log)
+            throws MojoExecutionException;
+
+    /**
+     * Get the catalog of every release in the repo.
+     *
+     * @param catalogCache the cache of the catalog, or null if caching is disabled.
+     * @param updatePolicy how often to check the repo for the latest catalog.
+     * @param log the log to write to.
+     *
+     * @return the catalog.
+     *
+     * @throws IOException if the catalog cannot be retrieved.
+     */
+    Catalog getCatalog(@Nullable CatalogCache catalogCache, UpdatePolicy updatePolicy, Log log) throws IOException;
+
+    /**
+     * Fetch a package from the repo.
+     *
+     * The package is only placed at the target once its content has been
+     * validated against the checksum of the package info.
+     *
+     * @param pkgInfo the info about the package to fetch.
+     * @param target the path to place the package at, any existing file is replaced.
+     * @param log the log to write to.
+     *
+     * @throws MojoFailureException if the package does not match its package info.
+     * @throws MojoExecutionException if the package cannot be fetched.
+     */
+    void fetch(PackageInfo pkgInfo, Path target, Log log) throws MojoExecutionException, MojoFailureException;
+}
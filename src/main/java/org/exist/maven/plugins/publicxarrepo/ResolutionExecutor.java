@@ -0,0 +1,247 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs resolution tasks on a bounded pool of threads.
+ *
+ * The log output of each task is buffered and replayed in the order
+ * that the tasks were given, so that the build log reads the same
+ * as if the tasks had been run one after another. When failing fast,
+ * the tasks which are still running are cancelled as soon as any task
+ * fails, and only the output of the tasks which completed is replayed.
+ *
+ * When running on Java 21 or newer the pool uses virtual threads.
+ */
+class ResolutionExecutor {
+
+    /**
+     * A unit of work to be run by the {@link ResolutionExecutor}.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    interface Task<T> {
+        /**
+         * @param log the log that the task must write to.
+         *
+         * @return the result of the task.
+         */
+        T call(Log log) throws MojoExecutionException, MojoFailureException;
+    }
+
+    private final int threads;
+    private final boolean failFast;
+    private final Log log;
+
+    /**
+     * @param threads the maximum number of tasks to run concurrently.
+     * @param failFast true to stop as soon as a task fails, false to run
+     *     every task and then report all of the failures together.
+     * @param log the log to replay the output of the tasks to.
+     */
+    ResolutionExecutor(final int threads, final boolean failFast, final Log log) {
+        this.threads = Math.max(1, threads);
+        this.failFast = failFast;
+        this.log = log;
+    }
+
+    /**
+     * Run all of the tasks.
+     *
+     * @param descriptions a description of each task, used when reporting failures.
+     * @param tasks the tasks to run.
+     *
+     * @return the results of the tasks, in the same order as the tasks.
+     */
+    <T> List<T> invokeAll(final List<String> descriptions, final List<? extends Task<T>> tasks)
+            throws MojoExecutionException, MojoFailureException {
+        final int poolSize = Math.min(threads, tasks.size());
+        if (poolSize <= 1) {
+            return invokeAllSequentially(descriptions, tasks);
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(poolSize, newThreadFactory("xar-resolver-"));
+        try {
+            final CompletionService<T> completionService = new ExecutorCompletionService<>(executorService);
+            final AtomicBoolean aborted = new AtomicBoolean();
+            final List<BufferedLog> logs = new ArrayList<>(tasks.size());
+            final List<Future<T>> futures = new ArrayList<>(tasks.size());
+            for (final Task<T> task : tasks) {
+                final BufferedLog taskLog = new BufferedLog(log);
+                logs.add(taskLog);
+                futures.add(completionService.submit(() -> {
+                    if (aborted.get()) {
+                        return null;
+                    }
+                    try {
+                        return task.call(taskLog);
+                    } catch (final MojoExecutionException | MojoFailureException | RuntimeException e) {
+                        if (failFast) {
+                            aborted.set(true);
+                        }
+                        throw e;
+                    }
+                }));
+            }
+
+            // wait for the tasks in the order that they complete, so that a failure is seen as soon as it happens
+            int replayed = 0;
+            for (int completed = 0; completed < futures.size(); completed++) {
+                try {
+                    completionService.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted whilst resolving packages", e);
+                }
+
+                if (aborted.get()) {
+                    // NOTE: only the tasks which have not yet completed are cancelled
+                    for (final Future<T> future : futures) {
+                        future.cancel(true);
+                    }
+                    break;
+                }
+
+                while (replayed < futures.size() && futures.get(replayed).isDone()) {
+                    logs.get(replayed++).flush();
+                }
+            }
+
+            // every task has now either completed or been cancelled
+            final List<T> results = new ArrayList<>(tasks.size());
+            final List<Failure> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<T> future = futures.get(i);
+                if (future.isCancelled()) {
+                    continue;
+                }
+                try {
+                    results.add(future.get());
+                } catch (final ExecutionException e) {
+                    // when failing fast, only the first failure (in task order) is reported
+                    if (!failFast || failures.isEmpty()) {
+                        failures.add(new Failure(descriptions.get(i), e.getCause()));
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted whilst resolving packages", e);
+                } finally {
+                    logs.get(i).flush();
+                }
+            }
+
+            throwIfFailed(failures);
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T> List<T> invokeAllSequentially(final List<String> descriptions, final List<? extends Task<T>> tasks)
+            throws MojoExecutionException, MojoFailureException {
+        final List<T> results = new ArrayList<>(tasks.size());
+        final List<Failure> failures = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                results.add(tasks.get(i).call(log));
+            } catch (final MojoExecutionException | MojoFailureException | RuntimeException e) {
+                if (failFast) {
+                    throw e;
+                }
+                failures.add(new Failure(descriptions.get(i), e));
+            }
+        }
+
+        throwIfFailed(failures);
+        return results;
+    }
+
+    private static void throwIfFailed(final List<Failure> failures) throws MojoExecutionException, MojoFailureException {
+        if (failures.isEmpty()) {
+            return;
+        }
+
+        if (failures.size() == 1) {
+            final Throwable cause = failures.get(0).cause;
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            } else if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MojoExecutionException(cause.getMessage(), cause);
+        }
+
+        boolean onlyFailures = true;
+        final StringBuilder message = new StringBuilder("Unable to resolve ").append(failures.size()).append(" packages:");
+        for (final Failure failure : failures) {
+            message.append(System.lineSeparator()).append("  ").append(failure.description).append(": ").append(failure.cause.getMessage());
+            onlyFailures &= failure.cause instanceof MojoFailureException;
+        }
+
+        if (onlyFailures) {
+            final MojoFailureException e = new MojoFailureException(message.toString());
+            failures.forEach(failure -> e.addSuppressed(failure.cause));
+            throw e;
+        } else {
+            final MojoExecutionException e = new MojoExecutionException(message.toString());
+            failures.forEach(failure -> e.addSuppressed(failure.cause));
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a factory for virtual threads if the JVM supports them
+     * (Java 21+), otherwise a factory for daemon platform threads.
+     *
+     * @param namePrefix the prefix of the name of each thread.
+     */
+    static ThreadFactory newThreadFactory(final String namePrefix) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Method name = builderClass.getMethod("name", String.class, long.class);
+            final Method factory = builderClass.getMethod("factory");
+
+            Object builder = ofVirtual.invoke(null);
+            builder = name.invoke(builder, namePrefix, 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (final ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return runnable -> {
+                final Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    private static class Failure {
+        final String description;
+        final Throwable cause;
+
+        Failure(final String description, final Throwable cause) {
+            this.description = description;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import javax.annotation.Nullable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A registry of the packages that have been resolved within a Maven session.
+ *
+ * When several executions (or modules of a parallel reactor) ask for the same
+ * package, only the first performs the resolution. Concurrent callers wait for
+ * it to finish, and both they and any later callers share its result instead
+ * of repeating the lookup and download.
+ *
+ * Failures are shared with the callers that were waiting, but are not
+ * remembered, so a later caller will attempt the resolution again.
+ */
+class ResolutionRegistry {
+
+    private static final String SESSION_DATA_KEY = ResolutionRegistry.class.getName();
+
+    private final ConcurrentMap<String, CompletableFuture<Resolution>> resolutions = new ConcurrentHashMap<>();
+
+    /**
+     * Get the registry for a Maven session.
+     *
+     * @param session the Maven session, or null if there is no session,
+     *     in which case a new registry is returned.
+     *
+     * @return the registry for the session.
+     */
+    static ResolutionRegistry forSession(@Nullable final MavenSession session) {
+        if (session == null || session.getRepositorySession() == null) {
+            return new ResolutionRegistry();
+        }
+
+        // NOTE: the repository session is shared by all projects of the reactor, even when the MavenSession is cloned for a parallel build
+        return (ResolutionRegistry) session.getRepositorySession().getData().computeIfAbsent(SESSION_DATA_KEY, ResolutionRegistry::new);
+    }
+
+    /**
+     * Resolve a package, or share the result of resolving it.
+     *
+     * @param key the normalised description of the package and the
+     *     processor it is to be resolved for.
+     * @param resolver performs the resolution if it has not already been performed.
+     *
+     * @return the resolution, and whether this caller performed it.
+     */
+    Shared resolve(final String key, final Resolver resolver) throws MojoExecutionException, MojoFailureException {
+        while (true) {
+            final CompletableFuture<Resolution> flight = new CompletableFuture<>();
+            final CompletableFuture<Resolution> existing = resolutions.putIfAbsent(key, flight);
+
+            if (existing == null) {
+                // we are first, so perform the resolution
+                try {
+                    final Resolution resolution = resolver.resolve();
+                    flight.complete(resolution);
+                    return new Shared(resolution, true);
+                } catch (final MojoExecutionException | MojoFailureException | RuntimeException e) {
+                    resolutions.remove(key, flight);
+                    flight.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            final Resolution resolution;
+            try {
+                resolution = existing.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted whilst waiting for the resolution of: " + key, e);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof MojoExecutionException) {
+                    throw (MojoExecutionException) cause;
+                } else if (cause instanceof MojoFailureException) {
+                    throw (MojoFailureException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new MojoExecutionException(cause.getMessage(), cause);
+            }
+
+            if (Files.exists(resolution.getPath())) {
+                return new Shared(resolution, false);
+            }
+
+            // the resolved file has since been removed (e.g. by a `clean`), so forget it and try again
+            resolutions.remove(key, existing);
+        }
+    }
+
+    @FunctionalInterface
+    interface Resolver {
+        Resolution resolve() throws MojoExecutionException, MojoFailureException;
+    }
+
+    /**
+     * The result of resolving a package.
+     */
+    static class Resolution {
+        @Nullable private final PackageInfo pkgInfo;
+        private final Path path;
+
+        /**
+         * @param pkgInfo the info about the package from the remote repo, or null if it was not available.
+         * @param path the resolved file.
+         */
+        Resolution(@Nullable final PackageInfo pkgInfo, final Path path) {
+            this.pkgInfo = pkgInfo;
+            this.path = path;
+        }
+
+        @Nullable
+        PackageInfo getPkgInfo() {
+            return pkgInfo;
+        }
+
+        Path getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * A resolution as seen by one of the callers that shares it.
+     */
+    static class Shared {
+        private final Resolution resolution;
+        private final boolean resolvedByCaller;
+
+        Shared(final Resolution resolution, final boolean resolvedByCaller) {
+            this.resolution = resolution;
+            this.resolvedByCaller = resolvedByCaller;
+        }
+
+        Resolution getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @return true if the caller performed the resolution, false if it was shared with them.
+         */
+        boolean isResolvedByCaller() {
+            return resolvedByCaller;
+        }
+    }
+}
@@ -1,63 +1,74 @@
 package org.exist.maven.plugins.publicxarrepo;
 
 import com.evolvedbinary.j8fu.lazy.LazyVal;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.fluent.Executor;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import com.evolvedbinary.j8fu.tuple.Tuple2;
+import org.apache.http.pool.PoolStats;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.settings.Proxy;
 import org.apache.maven.settings.crypto.SettingsDecrypter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
 
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.AtomicMoveNotSupportedException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.apache.http.HttpStatus.SC_OK;
-import static org.exist.maven.plugins.publicxarrepo.XmlUtils.DOCUMENT_BUILDER_FACTORY;
+import static com.evolvedbinary.j8fu.tuple.Tuple.Tuple;
 
 @Mojo(name = "resolve", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true, requiresProject = false)
 public class ResolveMojo extends AbstractMojo {
 
-    private static final int CONNECT_TIMEOUT_MS = 10_000;
-    private static final int SOCKET_TIMEOUT_MS = 30_000;
-    private static final int MAX_ATTEMPTS = 3;
-    private static final long INITIAL_RETRY_DELAY_MS = 2_000;
+    static final String RESOLUTION_MODE_DEFAULT = "default";
+    static final String RESOLUTION_MODE_STALE_WHILE_REVALIDATE = "stale-while-revalidate";
 
     @Parameter(required = true, defaultValue = "http://exist-db.org/exist/apps/public-repo")
     private String repoUri;
 
-    @Parameter(required = true)
+    /**
+     * The version of eXist-db to resolve the packages for.
+     */
+    @Parameter
     private String existDbVersion;
 
+    /**
+     * Several versions of eXist-db to resolve the packages for, instead
+     * of the {@link #existDbVersion}. The packages for each version are
+     * placed in a subdirectory of the output directory named after the
+     * version, e.g. {@code xars/6.2.0/}.
+     *
+     * The versions are resolved concurrently, and a package which is
+     * resolved for more than one version is only downloaded once.
+     */
+    @Parameter
+    private List<String> existDbVersions;
+
     @Parameter(required = true, defaultValue = "true")
     private boolean cache;
 
@@ -71,53 +82,551 @@ public class ResolveMojo extends AbstractMojo {
     @Parameter
     private File cacheDirectory;
 
-    @Parameter(required = true)
+    @Parameter
     private List<Package> packages;
 
     @Parameter(property = "xar.resolve.offline", defaultValue = "false")
     public boolean offline;
 
+    /**
+     * The maximum number of packages to resolve concurrently.
+     * When running on Java 21 or newer, virtual threads are used.
+     */
+    @Parameter(property = "xar.resolve.threads", defaultValue = "4")
+    private int resolveThreads;
+
+    /**
+     * If true, stop at the first package that cannot be resolved,
+     * otherwise attempt to resolve every package and then report
+     * all of the failures together.
+     */
+    @Parameter(property = "xar.resolve.failFast", defaultValue = "true")
+    private boolean failFast;
+
+    /**
+     * The maximum number of seconds to wait for another process that
+     * shares the cache directory to finish downloading a package.
+     */
+    @Parameter(property = "xar.cache.lockTimeout", defaultValue = "300")
+    private long cacheLockTimeout;
+
+    /**
+     * If true, the checksum of a cached package is computed every time
+     * it is used, rather than only when the size, last modified time or
+     * file key of the cached file have changed since it was last verified.
+     */
+    @Parameter(property = "xar.cache.paranoidVerify", defaultValue = "false")
+    private boolean paranoidVerify;
+
+    /**
+     * The maximum total size of the packages in the cache, as a number of
+     * bytes optionally followed by {@code K}, {@code M} or {@code G}. When
+     * exceeded, the least recently used packages are evicted from the cache
+     * at the end of the execution. Unlimited if not set.
+     */
+    @Parameter(property = "xar.cache.maxSize")
+    private String maxCacheSize;
+
+    /**
+     * The maximum number of days since a cached package was last used,
+     * after which it is evicted from the cache at the end of the execution.
+     * Unlimited if zero.
+     */
+    @Parameter(property = "xar.cache.maxAgeDays", defaultValue = "0")
+    private int maxCacheAgeDays;
+
+    /**
+     * How often to check the remote repo for the latest info about a
+     * package, when caching is enabled. One of: {@code always},
+     * {@code daily}, {@code interval:N} (where N is in minutes), or
+     * {@code never}. Within this period the info retrieved previously is
+     * used, so a build needs no network access if the packages are cached,
+     * but a release published since then is not seen until it expires.
+     * The default, {@code always}, checks the remote repo on every build,
+     * so the resolution is then only skipped as up to date (see
+     * {@code force}) when the packages are pinned by a lock file or the
+     * build is offline.
+     */
+    @Parameter(property = "xar.updatePolicy", defaultValue = UpdatePolicy.ALWAYS)
+    private String updatePolicy;
+
+    /**
+     * How packages are resolved, when caching is enabled. One of:
+     * {@code default}, where the remote repo is checked before a package
+     * is resolved; or {@code stale-while-revalidate}, where a package that
+     * is still cached is resolved straight away to the release that it was
+     * last resolved to for the same version of eXist-db, and the
+     * remote repo is checked (and any newer version downloaded into the
+     * cache for the next build) in the background.
+     */
+    @Parameter(property = "xar.resolutionMode", defaultValue = RESOLUTION_MODE_DEFAULT)
+    private String resolutionMode;
+
+    /**
+     * The maximum number of seconds to wait at the end of the execution
+     * for the background checks of the {@code stale-while-revalidate}
+     * resolution mode to complete.
+     */
+    @Parameter(property = "xar.revalidateTimeout", defaultValue = "30")
+    private long revalidateTimeout;
+
+    /**
+     * If true, the catalog of the remote repo is downloaded (at most once
+     * per execution, and otherwise according to the update policy when
+     * caching is enabled) and every package is resolved against it, rather
+     * than with a request to the remote repo for each package. Packages
+     * that cannot be found in the catalog are still looked up individually.
+     */
+    @Parameter(property = "xar.catalog", defaultValue = "false")
+    private boolean catalog;
+
+    /**
+     * If true, the package info that each package is resolved to is pinned
+     * in the {@link #lockFile} after a successful resolution, and later
+     * builds use the pinned package info rather than asking the remote
+     * repo for it. Run the {@code update-lock} goal to refresh the pins.
+     */
+    @Parameter(property = "xar.lock", defaultValue = "false")
+    private boolean useLockFile;
+
+    /**
+     * The lock file, see {@link #useLockFile}.
+     */
+    @Parameter(property = "xar.lockFile", defaultValue = "${basedir}/" + LockFile.DEFAULT_FILE_NAME)
+    private File lockFile;
+
+    /**
+     * How packages are placed in the output directory from the cache, and
+     * in the cache after they are downloaded. One of: {@code hardlink},
+     * {@code reflink} (a copy-on-write clone), {@code transfer}
+     * ({@code FileChannel.transferTo}), or {@code copy}. Each falls back to
+     * the next when it is unavailable, e.g. when the cache and output
+     * directory are on different file systems. Hard linked files are made
+     * read-only, so that modifying one can never corrupt the other.
+     */
+    @Parameter(property = "xar.materialization", defaultValue = "copy")
+    private String materialization;
+
+    /**
+     * If true, the packages are resolved even if the previous resolution
+     * is up to date.
+     *
+     * The previous resolution is only up to date if the packages are
+     * pinned by a lock file ({@code useLockFile}), the build is offline,
+     * or the {@code updatePolicy} is not {@code always} and has not yet
+     * expired. With the default update policy and no lock file, the
+     * packages are resolved on every build.
+     */
+    @Parameter(property = "xar.resolve.force", defaultValue = "false")
+    private boolean force;
+
+    /**
+     * If true, the dependencies that each resolved package declares in
+     * its {@code expath-pkg.xml} are also resolved, recursively, so that
+     * they need not be configured.
+     */
+    @Parameter(property = "xar.resolve.transitive", defaultValue = "false")
+    private boolean transitive;
+
+    /**
+     * The directory to record the state of the previous resolution in,
+     * so that the next build can skip the resolution when it is up to date
+     * (see {@code force}).
+     */
+    @Parameter(defaultValue = "${project.build.directory}", readonly = true)
+    private File buildDirectory;
+
     @Parameter(property = "session")
     private MavenSession session;
 
     @Component(role = SettingsDecrypter.class)
     private SettingsDecrypter decrypter;
 
-    private final PoolingHttpClientConnectionManager poolingHttpClientConnectionManager = new PoolingHttpClientConnectionManager();
-
     private final LazyVal<List<Proxy>> proxies = new LazyVal<>(() -> MojoUtils.getProxies(session, decrypter));
 
+    private final LazyVal<HttpClientRegistry> httpClients = new LazyVal<>(() -> HttpClientRegistry.forSession(session));
 
-    public ResolveMojo() {
-        poolingHttpClientConnectionManager.setDefaultMaxPerRoute(15);
-    }
+    private final LazyVal<RepoTransport> transport = new LazyVal<>(this::newTransport);
+
+    private Materializer materializer = new Materializer(Materializer.Strategy.COPY);
+
+    private final ConcurrentMap<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+
+    private final Object catalogLock = new Object();
+    private boolean catalogLoaded;
+    @Nullable private Catalog loadedCatalog;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        for (final Package pkg : packages) {
-            if ((pkg.getName() == null || pkg.getName().isEmpty())
-                    && (pkg.getAbbrev() == null || pkg.getAbbrev().isEmpty())) {
-                throw new MojoFailureException("Each configured package must have a `name` or `abbrev`");
+        try {
+            resolve();
+        } finally {
+            closeHttpClients();
+        }
+    }
+
+    private void resolve() throws MojoExecutionException, MojoFailureException {
+        final UpdatePolicy updatePolicy;
+        try {
+            updatePolicy = UpdatePolicy.parse(this.updatePolicy);
+        } catch (final IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        final long maxCacheSizeBytes;
+        try {
+            maxCacheSizeBytes = maxCacheSize != null && !maxCacheSize.isEmpty() ? CacheManager.parseSize(maxCacheSize) : -1;
+        } catch (final IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        if (materialization != null && !materialization.isEmpty()) {
+            try {
+                materializer = new Materializer(Materializer.Strategy.parse(materialization));
+            } catch (final IllegalArgumentException e) {
+                throw new MojoFailureException(e.getMessage());
+            }
+        }
+
+        final BackgroundRevalidator revalidator;
+        if (resolutionMode == null || resolutionMode.isEmpty() || RESOLUTION_MODE_DEFAULT.equals(resolutionMode)) {
+            revalidator = null;
+        } else if (RESOLUTION_MODE_STALE_WHILE_REVALIDATE.equals(resolutionMode)) {
+            revalidator = new BackgroundRevalidator(resolveThreads, getLog());
+        } else {
+            throw new MojoFailureException("Invalid resolutionMode: '" + resolutionMode + "', expected one of: "
+                    + RESOLUTION_MODE_DEFAULT + ", " + RESOLUTION_MODE_STALE_WHILE_REVALIDATE);
+        }
+
+        validatePackages();
+        final List<String> versions = getExistDbVersions();
+        final boolean matrix = existDbVersions != null && !existDbVersions.isEmpty();
+        if (matrix && useLockFile) {
+            throw new MojoFailureException("The lock file cannot be used when resolving for several `existDbVersions`");
+        }
+
+        final Path stampFile = getStampFile();
+        if (stampFile != null && !force && isUpToDate(stampFile, updatePolicy)) {
+            getLog().info("Packages in " + outputDirectory + " are up to date");
+            return;
+        }
+        if (stampFile != null) {
+            try {
+                // the outputs are about to change, so the stamp is no longer valid
+                Files.deleteIfExists(stampFile);
+            } catch (final IOException e) {
+                throw new MojoExecutionException("Unable to delete stale build state: " + e.getMessage(), e);
+            }
+        }
+
+        final LockFile lock = useLockFile ? readLockFile() : null;
+
+        // the matrix of every package for every version of eXist-db, resolved concurrently
+        final List<Request> requests = new ArrayList<>(versions.size() * packages.size());
+        for (final String version : versions) {
+            final Path outputDirectoryPath = matrix ? outputDirectory.toPath().resolve(version) : outputDirectory.toPath();
+            for (final Package pkg : packages) {
+                requests.add(new Request(pkg, version, outputDirectoryPath, matrix));
+            }
+        }
+
+        final List<ResolutionRegistry.Resolution> resolved;
+        try {
+            resolved = new ArrayList<>(resolveAll(requests, lock, updatePolicy, revalidator));
+            if (transitive) {
+                resolveDependencies(requests, resolved, lock, updatePolicy, revalidator);
+            }
+        } finally {
+            if (revalidator != null) {
+                revalidator.awaitCompletion(TimeUnit.SECONDS.toMillis(revalidateTimeout));
+            }
+        }
+
+        if (useLockFile) {
+            final List<LockFile.Pin> pins = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                final Package pkg = requests.get(i).pkg;
+                PackageInfo pkgInfo = resolved.get(i).getPkgInfo();
+                if (pkgInfo == null && lock != null) {
+                    pkgInfo = lock.get(pkg, existDbVersion);
+                }
+                if (pkgInfo != null) {
+                    pins.add(new LockFile.Pin(pkg, pkgInfo));
+                } else {
+                    getLog().warn("Package " + pkg + " was resolved without info from the remote repo, so it has not been pinned in the lock file");
+                }
+            }
+            writeLockFile(pins);
+        }
+
+        if (stampFile != null) {
+            writeStamp(stampFile, resolved);
+        }
+
+        if (cache) {
+            evictFromCache(maxCacheSizeBytes);
+        }
+
+        if (getLog().isDebugEnabled() && httpClients.isInitialized()) {
+            final PoolStats stats = httpClients.get().getTotalStats();
+            getLog().debug("HTTP connection pool: leased=" + stats.getLeased() + ", pending=" + stats.getPending()
+                    + ", available=" + stats.getAvailable() + ", max=" + stats.getMax());
+        }
+    }
+
+    /**
+     * Resolve packages concurrently.
+     *
+     * @param requests the packages to resolve.
+     * @param lock the lock file, or null.
+     * @param updatePolicy how often to check the remote repo for the latest info about the packages.
+     * @param revalidator the background revalidator, or null unless in the stale-while-revalidate resolution mode.
+     *
+     * @return the resolution of each package, in the same order as the requests.
+     */
+    private List<ResolutionRegistry.Resolution> resolveAll(final List<Request> requests, @Nullable final LockFile lock,
+            final UpdatePolicy updatePolicy, @Nullable final BackgroundRevalidator revalidator)
+            throws MojoExecutionException, MojoFailureException {
+        final List<String> descriptions = new ArrayList<>(requests.size());
+        final List<ResolutionExecutor.Task<ResolutionRegistry.Resolution>> tasks = new ArrayList<>(requests.size());
+        for (final Request request : requests) {
+            descriptions.add(request.toString());
+            tasks.add(log -> {
+                log.info("Attempting to resolve package: " + request);
+                final PackageInfo pinned = lock != null ? lock.get(request.pkg, request.existDbVersion) : null;
+                return resolvePackage(request.pkg, request.existDbVersion, request.outputDirectoryPath, pinned,
+                        updatePolicy, revalidator, log);
+            });
+        }
+        return new ResolutionExecutor(resolveThreads, failFast, getLog()).invokeAll(descriptions, tasks);
+    }
+
+    /**
+     * Resolve the dependencies declared by the resolved packages, and
+     * then their dependencies, and so on, breadth first.
+     *
+     * Each level of the dependency graph is resolved concurrently. A
+     * package is only resolved once for each version of eXist-db, however
+     * many packages depend on it, and the first constraints that are
+     * found for it are the ones used.
+     *
+     * @param requests the packages that have been resolved, to which the dependencies are added.
+     * @param resolved the resolutions of the requests, to which the resolutions of the dependencies are added.
+     * @param lock the lock file, or null.
+     * @param updatePolicy how often to check the remote repo for the latest info about the packages.
+     * @param revalidator the background revalidator, or null unless in the stale-while-revalidate resolution mode.
+     */
+    private void resolveDependencies(final List<Request> requests, final List<ResolutionRegistry.Resolution> resolved,
+            @Nullable final LockFile lock, final UpdatePolicy updatePolicy,
+            @Nullable final BackgroundRevalidator revalidator) throws MojoExecutionException, MojoFailureException {
+        // the names of the packages that have been resolved (or are to be), for each version of eXist-db
+        final Set<String> seen = new HashSet<>();
+        for (final Request request : requests) {
+            if (request.pkg.getName() != null) {
+                seen.add(request.existDbVersion + ' ' + request.pkg.getName());
             }
+        }
 
-            getLog().info("Attempting to resolve package: " + pkg.toString());
+        List<Request> levelRequests = new ArrayList<>(requests);
+        List<ResolutionRegistry.Resolution> levelResolved = new ArrayList<>(resolved);
+        while (!levelRequests.isEmpty()) {
+            final List<PackageDescriptor> descriptors = readDescriptors(levelRequests, levelResolved);
+            for (int i = 0; i < levelRequests.size(); i++) {
+                if (descriptors.get(i) != null) {
+                    seen.add(levelRequests.get(i).existDbVersion + ' ' + descriptors.get(i).getName());
+                }
+            }
 
-            resolvePackage(pkg);
+            final List<Request> dependencies = new ArrayList<>();
+            for (int i = 0; i < levelRequests.size(); i++) {
+                if (descriptors.get(i) == null) {
+                    continue;
+                }
+                final Request request = levelRequests.get(i);
+                for (final Package dependency : descriptors.get(i).getDependencies()) {
+                    if (seen.add(request.existDbVersion + ' ' + dependency.getName())) {
+                        dependencies.add(new Request(dependency, request.existDbVersion, request.outputDirectoryPath, request.matrix));
+                    }
+                }
+            }
+            if (dependencies.isEmpty()) {
+                break;
+            }
+
+            getLog().info("Resolving " + dependencies.size() + " dependencies...");
+            final List<ResolutionRegistry.Resolution> dependenciesResolved = resolveAll(dependencies, lock, updatePolicy, revalidator);
+            requests.addAll(dependencies);
+            resolved.addAll(dependenciesResolved);
+            levelRequests = dependencies;
+            levelResolved = dependenciesResolved;
+        }
+    }
+
+    /**
+     * Read the descriptors of resolved packages concurrently.
+     *
+     * @param requests the packages.
+     * @param resolved the resolutions of the packages.
+     *
+     * @return the descriptor of each package, or null for a package that has none.
+     */
+    private List<PackageDescriptor> readDescriptors(final List<Request> requests,
+            final List<ResolutionRegistry.Resolution> resolved) throws MojoExecutionException, MojoFailureException {
+        final List<String> descriptions = new ArrayList<>(requests.size());
+        final List<ResolutionExecutor.Task<PackageDescriptor>> tasks = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final Path path = resolved.get(i).getPath();
+            descriptions.add(requests.get(i).toString());
+            tasks.add(log -> {
+                try {
+                    final PackageDescriptor descriptor = PackageDescriptor.read(path);
+                    if (descriptor == null) {
+                        log.warn("Package " + path.getFileName() + " has no " + PackageDescriptor.DESCRIPTOR_ENTRY_NAME
+                                + ", so its dependencies cannot be resolved");
+                    }
+                    return descriptor;
+                } catch (final IOException e) {
+                    throw new MojoExecutionException("Unable to read the dependencies of " + path.getFileName() + ": " + e.getMessage(), e);
+                }
+            });
         }
+        return new ResolutionExecutor(resolveThreads, failFast, getLog()).invokeAll(descriptions, tasks);
+    }
+
+    /**
+     * Evict packages from the cache that exceed the {@link #maxCacheSize}
+     * or {@link #maxCacheAgeDays}.
+     *
+     * The packages have already been resolved, so a failure is only
+     * reported, and the eviction never waits for a lock.
+     *
+     * @param maxCacheSizeBytes the maximum size of the cache in bytes, or -1 for no limit.
+     */
+    private void evictFromCache(final long maxCacheSizeBytes) {
+        final long maxAgeMillis = maxCacheAgeDays > 0 ? TimeUnit.DAYS.toMillis(maxCacheAgeDays) : -1;
+        if (maxCacheSizeBytes < 0 && maxAgeMillis < 0) {
+            return;
+        }
+        try {
+            newCacheManager(getLog()).evict(maxCacheSizeBytes, maxAgeMillis);
+        } catch (final IOException e) {
+            getLog().warn("Unable to evict packages from the cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resolve a package into the output directory.
+     *
+     * If the same package has already been resolved (or is being resolved)
+     * for the same processor, pin and options within this Maven session,
+     * then that result is shared rather than resolving the package again.
+     *
+     * @param pkg the requested package.
+     * @param existDbVersion the version of eXist-db to resolve the package for.
+     * @param outputDirectoryPath the directory to place the package in.
+     * @param pinned the package info that the package is pinned to by the lock file, or null.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param revalidator the background revalidator, or null unless in the stale-while-revalidate resolution mode.
+     * @param log the log to write to.
+     *
+     * @return the resolution of the package, whose path is in the output directory.
+     */
+    private ResolutionRegistry.Resolution resolvePackage(final Package pkg, final String existDbVersion,
+            final Path outputDirectoryPath, @Nullable final PackageInfo pinned, final UpdatePolicy updatePolicy,
+            @Nullable final BackgroundRevalidator revalidator, final Log log)
+            throws MojoExecutionException, MojoFailureException {
+        final ResolutionRegistry.Shared shared = ResolutionRegistry.forSession(session)
+                .resolve(getResolutionKey(pkg, existDbVersion, pinned), () -> resolvePackage(pkg, outputDirectoryPath, existDbVersion, pinned, updatePolicy, revalidator, log));
+        if (shared.isResolvedByCaller()) {
+            return shared.getResolution();
+        }
+
+        final Path path = shared.getResolution().getPath();
+        final Path outputPath = outputDirectoryPath.resolve(path.getFileName());
+        try {
+            if (!outputPath.toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize())) {
+                Files.createDirectories(outputDirectoryPath);
+                materializer.materialize(path, outputPath, log);
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        log.info("Resolved package from earlier resolution in this session: " + outputPath.getFileName());
+        return new ResolutionRegistry.Resolution(shared.getResolution().getPkgInfo(), outputPath);
+    }
+
+    /**
+     * Get the key by which the resolution of a package is shared within the
+     * Maven session, which covers everything that may change its outcome, as
+     * each execution (e.g. module) may be configured differently.
+     *
+     * @param pkg the requested package.
+     * @param existDbVersion the version of eXist-db to resolve the package for.
+     * @param pinned the package info that the package is pinned to by the lock file, or null.
+     *
+     * @return the key.
+     */
+    private String getResolutionKey(final Package pkg, final String existDbVersion, @Nullable final PackageInfo pinned) {
+        final boolean isOffline = offline || (session != null && session.isOffline());
+        return getFindUri(pkg, existDbVersion)
+                + " pinned=" + (pinned != null ? pinned.getSha256() : "")
+                + " offline=" + isOffline
+                + " cache=" + cache
+                + " catalog=" + catalog
+                + " resolutionMode=" + (resolutionMode != null ? resolutionMode : RESOLUTION_MODE_DEFAULT);
     }
 
-    private void resolvePackage(final Package pkg) throws MojoExecutionException, MojoFailureException {
-        final Path outputDirectoryPath = outputDirectory.toPath();
+    /**
+     * Resolve a package into the output directory, from either the cache
+     * or the remote repo.
+     *
+     * @param pkg the requested package.
+     * @param outputDirectoryPath the directory to place the package in.
+     * @param existDbVersion the version of eXist-db to resolve the package for.
+     * @param pinned the package info that the package is pinned to by the lock file, or null.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param revalidator the background revalidator, or null unless in the stale-while-revalidate resolution mode.
+     * @param log the log to write to.
+     *
+     * @return the resolution of the package.
+     */
+    private ResolutionRegistry.Resolution resolvePackage(final Package pkg, final Path outputDirectoryPath,
+            final String existDbVersion, @Nullable final PackageInfo pinned, final UpdatePolicy updatePolicy,
+            @Nullable final BackgroundRevalidator revalidator, final Log log)
+            throws MojoExecutionException, MojoFailureException {
         try {
-            final CacheManager cacheManager = cache ? newCacheManager() : null;
+            final CacheManager cacheManager = cache ? newCacheManager(log) : null;
             final boolean isOffline = offline || (session != null && session.isOffline());
 
+            // serve what was last resolved straight away, and check the remote repo in the background
+            if (pinned == null && revalidator != null && cacheManager != null && !isOffline) {
+                final CacheManager.Cached stale = getLastResolvedOrNull(cacheManager, pkg, existDbVersion, log);
+                if (stale != null) {
+                    final Path outputPath = copyToOutputDirectory(stale, outputDirectoryPath, log);
+                    log.info("Resolved package from cache: " + outputPath.getFileName() + " (checking the remote repo in the background)");
+                    final String stalePath = stale.getPkgInfo().getPath();
+                    revalidator.submit(pkg.toString(), backgroundLog -> {
+                        revalidate(cacheManager, pkg, existDbVersion, stalePath, updatePolicy, backgroundLog);
+                        return null;
+                    });
+                    return new ResolutionRegistry.Resolution(null, outputPath);
+                }
+            }
+
             /* If the remote repo cannot be reached, fall back to the cache (if enabled)
                rather than failing the build: the cache may still hold a usable version. */
-            final PackageInfo pkgInfo = isOffline ? null : getPackageInfoOrNull(pkg);
+            final PackageInfo pkgInfo;
+            if (pinned != null) {
+                log.info("Using package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev())
+                        + " pinned by the lock file: " + pinned.getPath());
+                pkgInfo = pinned;
+            } else {
+                pkgInfo = isOffline ? null : getPackageInfoOrNull(pkg, existDbVersion, cacheManager, updatePolicy, log);
+            }
 
-            if (serveFromCache(cacheManager, pkg, pkgInfo, outputDirectoryPath, isOffline)) {
-                return;
+            final Path cachedPath = serveFromCache(cacheManager, pkg, pkgInfo, outputDirectoryPath, isOffline, log);
+            if (cachedPath != null) {
+                return new ResolutionRegistry.Resolution(pkgInfo, cachedPath);
             }
 
             if (isOffline) {
@@ -128,282 +637,773 @@ public class ResolveMojo extends AbstractMojo {
                 throw new MojoFailureException("Unable to resolve package " + pkg + ": the remote repo is unreachable and no suitable cached copy is available.");
             }
 
-            downloadAndStore(cacheManager, pkg, pkgInfo, outputDirectoryPath);
+            if (cacheManager == null) {
+                final Path downloadedPath = downloadAndStore(null, pkg, pkgInfo, outputDirectoryPath, log);
+                return new ResolutionRegistry.Resolution(pkgInfo, downloadedPath);
+            }
+
+            // only one thread or process sharing the cache may download the package, the others wait and then reuse it
+            try (final CacheLock lock = cacheManager.lock(pkgInfo, TimeUnit.SECONDS.toMillis(cacheLockTimeout))) {
+                if (lock == null) {
+                    log.warn("Timed out waiting for another process to download " + pkgInfo.getPath() + " into the cache, downloading it without updating the cache...");
+                    final Path downloadedPath = downloadAndStore(null, pkg, pkgInfo, outputDirectoryPath, log);
+                    return new ResolutionRegistry.Resolution(pkgInfo, downloadedPath);
+                }
+
+                // the package may have been downloaded by whoever held the lock before us
+                final Path lockedCachedPath = serveFromCache(cacheManager, pkg, pkgInfo, outputDirectoryPath, false, log);
+                if (lockedCachedPath != null) {
+                    return new ResolutionRegistry.Resolution(pkgInfo, lockedCachedPath);
+                }
+
+                final Path downloadedPath = downloadAndStore(cacheManager, pkg, pkgInfo, outputDirectoryPath, log);
+                return new ResolutionRegistry.Resolution(pkgInfo, downloadedPath);
+            }
         } catch (final IOException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
     }
 
     /**
-     * Download the package from the remote repo, validate its checksum, move it
-     * into the output directory, and record it in the cache (if enabled).
+     * Download the package from the remote repo, move it into the output
+     * directory, and record it in the cache (if enabled).
      *
      * @param cacheManager the cache manager, or null if caching is disabled.
      * @param pkg the requested package.
      * @param pkgInfo the info about the package to download.
      * @param outputDirectoryPath the directory to move the package to.
+     * @param log the log to write to.
+     *
+     * @return the path of the package in the output directory.
      */
-    private void downloadAndStore(@Nullable final CacheManager cacheManager, final Package pkg,
-            final PackageInfo pkgInfo, final Path outputDirectoryPath)
+    private Path downloadAndStore(@Nullable final CacheManager cacheManager, final Package pkg,
+            final PackageInfo pkgInfo, final Path outputDirectoryPath, final Log log)
             throws MojoExecutionException, MojoFailureException, IOException {
-        Path path = downloadPackage(pkgInfo);
-
-        // validate the checksum of the downloaded file
-        final String pathChecksum = FileUtils.sha256(path);
-        if (!pkgInfo.getSha256().equals(pathChecksum)) {
-            throw new MojoFailureException("Downloaded file does not match PackageInfo checksum: expected=" + pkgInfo.getSha256() + ", actual=" + pathChecksum);
+        // the same package may be resolved for several versions of eXist-db, but it is only downloaded once
+        final CompletableFuture<Path> download = new CompletableFuture<>();
+        final CompletableFuture<Path> earlierDownload = downloads.putIfAbsent(pkgInfo.getSha256(), download);
+        if (earlierDownload != null) {
+            final Path earlierPath = awaitDownload(earlierDownload);
+            if (earlierPath != null && Files.exists(earlierPath)) {
+                final Path outputPath = outputDirectoryPath.resolve(pkgInfo.getPath());
+                Files.createDirectories(outputDirectoryPath);
+                materializer.materialize(earlierPath, outputPath, log);
+                log.info("Resolved package from earlier download in this execution: " + outputPath.getFileName());
+                if (cacheManager != null) {
+                    cacheManager.put(pkg, pkgInfo, outputPath);
+                }
+                return outputPath;
+            }
+            // NOTE: the earlier download failed, so try again
         }
 
-        if (!Files.exists(outputDirectoryPath)) {
-            Files.createDirectories(outputDirectoryPath);
-        }
-        path = moveFile(path, outputDirectoryPath.resolve(pkgInfo.getPath()));
-        getLog().info("Resolved package from server: " + path.getFileName());
+        try {
+            if (!Files.exists(outputDirectoryPath)) {
+                Files.createDirectories(outputDirectoryPath);
+            }
+            // NOTE: the checksum is validated before the package is placed in the output directory
+            final Path path = outputDirectoryPath.resolve(pkgInfo.getPath());
+            transport.get().fetch(pkgInfo, path, log);
+            log.info("Resolved package from server: " + path.getFileName());
 
-        if (cacheManager != null) {
-            cacheManager.put(pkg, pkgInfo, path);
+            if (cacheManager != null) {
+                cacheManager.put(pkg, pkgInfo, path);
+            }
+            download.complete(path);
+            return path;
+        } finally {
+            // releases any waiters if the download failed
+            download.complete(null);
         }
     }
 
-    private CacheManager newCacheManager() throws IOException {
-        final Path cacheDir = Optional.ofNullable(cacheDirectory).map(File::toPath)
-                .orElseGet(() -> Paths.get(this.session.getLocalRepository().getBasedir()).resolve(".cache").resolve("public-xar-repo-plugin"));
-        getLog().debug("Cache is: " + cacheDir.toAbsolutePath().toString());
-        Files.createDirectories(cacheDir);
-        return new CacheManager(cacheDir, getLog());
-    }
-
     /**
-     * Retrieve the package info from the remote repo, or return null if the
-     * repo cannot be reached, so that the caller can fall back to the cache.
+     * Wait for another thread to download a package.
      *
-     * @param pkg the package to retrieve info for.
+     * @param download the download.
      *
-     * @return the package info, or null if the remote repo is unreachable.
+     * @return the path of the downloaded package, or null if the download failed.
      */
-    private @Nullable PackageInfo getPackageInfoOrNull(final Package pkg) {
+    private static @Nullable Path awaitDownload(final CompletableFuture<Path> download) throws MojoExecutionException {
         try {
-            return getPackageInfo(pkg);
-        } catch (final MojoExecutionException e) {
-            getLog().warn("Unable to retrieve package info from remote repo: " + e.getMessage() + ". Falling back to the local cache...");
+            return download.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted whilst waiting for a download", e);
+        } catch (final ExecutionException e) {
             return null;
         }
     }
 
     /**
-     * Attempt to satisfy the package request from the cache.
+     * Get the cached package that a package was last resolved to for a
+     * version of eXist-db, according to the package info that was last
+     * retrieved for it from the remote repo.
      *
-     * @param cacheManager the cache manager, or null if caching is disabled.
+     * NOTE: the latest cached release of the package may have been cached
+     * for another version of eXist-db, with which this one is incompatible.
+     *
+     * @param cacheManager the cache manager.
      * @param pkg the requested package.
-     * @param pkgInfo the latest info about the package, or null if not available.
-     * @param outputDirectoryPath the directory to copy the package to.
-     * @param isOffline true if operating in offline mode.
+     * @param existDbVersion the version of eXist-db to resolve the package for.
+     * @param log the log to write to.
      *
-     * @return true if the package was served from the cache.
+     * @return the cached package, or null if it has not been resolved before, or is no longer cached.
      */
-    private boolean serveFromCache(@Nullable final CacheManager cacheManager, final Package pkg,
-            @Nullable final PackageInfo pkgInfo, final Path outputDirectoryPath, final boolean isOffline)
-            throws IOException {
-        final Path path = cacheManager != null ? cacheManager.get(pkg, pkgInfo) : null;
-        if (path == null) {
-            return false;
+    private @Nullable CacheManager.Cached getLastResolvedOrNull(final CacheManager cacheManager, final Package pkg,
+            final String existDbVersion, final Log log) throws IOException {
+        final FindCache.Entry found;
+        try {
+            found = cacheManager.getFindCache().get(getPackageInfoUri(pkg, existDbVersion));
+        } catch (final IOException e) {
+            log.warn("Unable to read cached package info: " + e.getMessage());
+            return null;
         }
+        return found != null ? cacheManager.get(pkg, found.getPkgInfo()) : null;
+    }
 
-        if (!Files.exists(outputDirectoryPath)) {
-            Files.createDirectories(outputDirectoryPath);
+    /**
+     * Check the remote repo for a newer version of a package that has
+     * been resolved from the cache, and if there is one, download it into
+     * the cache for the next build.
+     *
+     * @param cacheManager the cache manager.
+     * @param pkg the requested package.
+     * @param existDbVersion the version of eXist-db that the package was resolved for.
+     * @param stalePath the path (file name) of the cached package that was resolved.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param log the log to write to.
+     */
+    private void revalidate(final CacheManager cacheManager, final Package pkg, final String existDbVersion,
+            final String stalePath, final UpdatePolicy updatePolicy, final Log log)
+            throws MojoExecutionException, MojoFailureException {
+        try {
+            revalidateOrThrow(cacheManager, pkg, existDbVersion, stalePath, updatePolicy, log);
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
         }
-        Files.copy(path, outputDirectoryPath.resolve(path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void revalidateOrThrow(final CacheManager cacheManager, final Package pkg, final String existDbVersion,
+            final String stalePath, final UpdatePolicy updatePolicy, final Log log)
+            throws MojoExecutionException, MojoFailureException, IOException {
+        final PackageInfo pkgInfo = getPackageInfoOrNull(pkg, existDbVersion, cacheManager, updatePolicy, log);
         if (pkgInfo == null) {
-            if (isOffline) {
-                getLog().warn("ResolveMojo is operating in offline mode, so package version could not be checked with remote repo!");
-            } else {
-                getLog().warn("Could not check version with remote repo, no remote info available!");
+            return;
+        }
+
+        if (cacheManager.get(pkg, pkgInfo) != null) {
+            log.info("Cached package " + stalePath + " is up to date");
+            return;
+        }
+
+        try (final CacheLock lock = cacheManager.lock(pkgInfo, TimeUnit.SECONDS.toMillis(cacheLockTimeout))) {
+            if (lock == null) {
+                log.warn("Timed out waiting for another process to download " + pkgInfo.getPath() + " into the cache");
+                return;
+            }
+
+            // the package may have been downloaded by whoever held the lock before us
+            if (cacheManager.get(pkg, pkgInfo) == null) {
+                // NOTE: the checksum is validated whilst downloading
+                final Path downloadedPath = downloadPackage(pkgInfo, log);
+                try {
+                    cacheManager.put(pkg, pkgInfo, downloadedPath);
+                } finally {
+                    Files.deleteIfExists(downloadedPath);
+                }
             }
         }
-        getLog().info("Resolved package from cache: " + path.getFileName());
-        return true;
+        log.info("Package " + stalePath + " has been superseded by " + pkgInfo.getPath()
+                + ", which is now cached for the next build");
     }
 
-    private Path moveFile(Path source, Path target) throws IOException {
-        try {
-            return Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
-        } catch (AtomicMoveNotSupportedException notSupported) {
-            getLog().debug("Atomic move from: " + source + " to " + target + " failed. Retrying with non-atomic move...");
-            return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Refresh the pins of the lock file, by retrieving the latest package
+     * info for each package from the remote repo (or its catalog).
+     *
+     * The packages themselves are not downloaded.
+     */
+    protected void updateLockFile() throws MojoExecutionException, MojoFailureException {
+        validatePackages();
+        if (existDbVersions != null && !existDbVersions.isEmpty()) {
+            throw new MojoFailureException("The lock file cannot be used when resolving for several `existDbVersions`");
         }
-    }
 
-    private CloseableHttpClient buildHttpClient(@Nullable final Proxy proxy) {
-        final HttpClientBuilder clientBuilder = HttpClients
-                .custom()
-                .setConnectionManager(poolingHttpClientConnectionManager);
+        if (offline || (session != null && session.isOffline())) {
+            throw new MojoFailureException("Cannot update the lock file when in offline mode.");
+        }
 
-        if (proxy != null && proxy.getUsername() != null && !proxy.getUsername().isEmpty()) {
-            final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            credentialsProvider.setCredentials(
-                    new AuthScope(proxy.getHost(), proxy.getPort()),
-                    new UsernamePasswordCredentials(proxy.getUsername(), proxy.getPassword())
-            );
-            clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        final List<String> descriptions = new ArrayList<>(packages.size());
+        final List<ResolutionExecutor.Task<PackageInfo>> tasks = new ArrayList<>(packages.size());
+        for (final Package pkg : packages) {
+            descriptions.add(pkg.toString());
+            tasks.add(log -> {
+                try {
+                    final CacheManager cacheManager = cache ? newCacheManager(log) : null;
+                    final PackageInfo pkgInfo = getPackageInfoOrNull(pkg, cacheManager, UpdatePolicy.parse(UpdatePolicy.ALWAYS), log);
+                    if (pkgInfo == null) {
+                        throw new MojoFailureException("Unable to retrieve package info for " + pkg + " from the remote repo");
+                    }
+                    log.info("Pinned package " + pkg + " to: " + pkgInfo.getPath());
+                    return pkgInfo;
+                } catch (final IOException e) {
+                    throw new MojoExecutionException(e.getMessage(), e);
+                }
+            });
         }
 
-        return clientBuilder.build();
-    }
+        final List<PackageInfo> resolved = new ResolutionExecutor(resolveThreads, failFast, getLog()).invokeAll(descriptions, tasks);
 
-    private Request buildGetRequest(@Nullable final Proxy proxy, final String uri) {
-        Request request = Request.Get(uri)
-                .connectTimeout(CONNECT_TIMEOUT_MS)
-                .socketTimeout(SOCKET_TIMEOUT_MS);
-        if (proxy != null) {
-            final HttpHost proxyHttpHost = new HttpHost(proxy.getHost(), proxy.getPort());
-            request = request.viaProxy(proxyHttpHost);
+        final List<LockFile.Pin> pins = new ArrayList<>(packages.size());
+        for (int i = 0; i < packages.size(); i++) {
+            pins.add(new LockFile.Pin(packages.get(i), resolved.get(i)));
         }
-        return request;
+        writeLockFile(pins);
     }
 
     /**
-     * Execute a GET request, retrying on I/O errors and HTTP 5xx server errors
-     * with exponential backoff. Non-5xx responses (including 404) are considered
-     * definitive and returned to the caller without retrying.
+     * Fetch the configured packages, and those of any further package
+     * sets, into the cache, so that later builds can resolve them when
+     * in offline mode.
      *
-     * @param executor the HTTP executor to use.
-     * @param proxy the proxy to route the request via, or null.
-     * @param uri the URI to GET.
+     * The packages are fetched concurrently, and a package that is
+     * requested by more than one package set is only fetched once.
      *
-     * @return the HTTP response.
-     *
-     * @throws IOException if all attempts fail with an I/O error or server error.
+     * @param packageSets further package sets to fetch, in addition to the configured packages.
      */
-    private HttpResponse executeWithRetry(final Executor executor, @Nullable final Proxy proxy, final String uri) throws IOException {
-        IOException lastIoException = null;
-        String lastError = null;
-        long delay = INITIAL_RETRY_DELAY_MS;
-        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
-            try {
-                final HttpResponse response = executor.execute(buildGetRequest(proxy, uri)).returnResponse();
-                final int statusCode = response.getStatusLine().getStatusCode();
-                if (statusCode < 500) {
-                    return response;
+    protected void prefetch(final List<PackageSets.PackageSet> packageSets) throws MojoExecutionException, MojoFailureException {
+        final UpdatePolicy updatePolicy;
+        try {
+            updatePolicy = UpdatePolicy.parse(this.updatePolicy);
+        } catch (final IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage());
+        }
+
+        if (!cache) {
+            throw new MojoFailureException("Cannot fetch packages into the cache when the cache is disabled.");
+        }
+        if (offline || (session != null && session.isOffline())) {
+            throw new MojoFailureException("Cannot fetch packages into the cache when in offline mode.");
+        }
+
+        final List<String> versions = getExistDbVersions();
+        final List<PackageSets.PackageSet> allPackageSets = new ArrayList<>(packageSets.size() + 1);
+        if (packages != null) {
+            validatePackages();
+            allPackageSets.add(new PackageSets.PackageSet(null, packages));
+        }
+        allPackageSets.addAll(packageSets);
+
+        // the same request from several package sets need only be fetched once
+        final Map<String, Tuple2<Package, String>> requests = new LinkedHashMap<>();
+        for (final PackageSets.PackageSet packageSet : allPackageSets) {
+            final List<String> packageSetVersions = packageSet.getExistDbVersion() != null
+                    ? Collections.singletonList(packageSet.getExistDbVersion()) : versions;
+            for (final String version : packageSetVersions) {
+                for (final Package pkg : packageSet.getPackages()) {
+                    requests.putIfAbsent(getFindUri(pkg, version), Tuple(pkg, version));
                 }
-                lastIoException = null;
-                lastError = "HTTP " + statusCode;
-            } catch (final IOException e) {
-                lastIoException = e;
-                lastError = e.getMessage();
             }
-            if (attempt < MAX_ATTEMPTS) {
-                getLog().warn("Attempt " + attempt + " of " + MAX_ATTEMPTS + " failed for " + uri + " (" + lastError + "), retrying in " + (delay / 1000) + "s...");
+        }
+        if (requests.isEmpty()) {
+            throw new MojoFailureException("No packages are configured");
+        }
+
+        final AtomicInteger fetched = new AtomicInteger();
+        final List<String> descriptions = new ArrayList<>(requests.size());
+        final List<ResolutionExecutor.Task<Long>> tasks = new ArrayList<>(requests.size());
+        for (final Tuple2<Package, String> request : requests.values()) {
+            descriptions.add(request._1 + " for eXist-db " + request._2);
+            tasks.add(log -> {
+                final long size = prefetchPackage(request._1, request._2, updatePolicy, log);
+                if (size >= 0) {
+                    fetched.incrementAndGet();
+                }
+                return Math.max(0, size);
+            });
+        }
+
+        final long start = System.nanoTime();
+        final List<Long> sizes = new ResolutionExecutor(resolveThreads, failFast, getLog()).invokeAll(descriptions, tasks);
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+        long totalSize = 0;
+        for (final long size : sizes) {
+            totalSize += size;
+        }
+        getLog().info(String.format("Fetched %d package(s) (%.1f MB) into the cache in %d ms (%.1f MB/s) with %d thread(s), %d package(s) were already cached",
+                fetched.get(), totalSize / (1024.0 * 1024), elapsedMillis,
+                totalSize / (1024.0 * 1024) / (elapsedMillis / 1000.0), Math.max(1, Math.min(resolveThreads, tasks.size())),
+                tasks.size() - fetched.get()));
+    }
+
+    /**
+     * Fetch a package into the cache, unless it is already cached.
+     *
+     * @param pkg the requested package.
+     * @param existDbVersion the version of eXist-db that the package is for.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param log the log to write to.
+     *
+     * @return the number of bytes fetched, or -1 if the package was already cached.
+     */
+    private long prefetchPackage(final Package pkg, final String existDbVersion, final UpdatePolicy updatePolicy,
+            final Log log) throws MojoExecutionException, MojoFailureException {
+        try {
+            final CacheManager cacheManager = newCacheManager(log);
+            final PackageInfo pkgInfo = getPackageInfoOrNull(pkg, existDbVersion, cacheManager, updatePolicy, log);
+            if (pkgInfo == null) {
+                throw new MojoFailureException("Unable to retrieve package info for " + pkg + " from the remote repo");
+            }
+
+            try (final CacheLock lock = cacheManager.lock(pkgInfo, TimeUnit.SECONDS.toMillis(cacheLockTimeout))) {
+                if (lock == null) {
+                    throw new MojoFailureException("Timed out waiting for another process to download " + pkgInfo.getPath() + " into the cache");
+                }
+
+                final CacheManager.Cached cached = cacheManager.get(pkg, pkgInfo);
+                if (cached != null) {
+                    // NOTE: the package may be cached under another name, so record it under this one too
+                    cacheManager.put(pkg, pkgInfo, cached.getFile());
+                    log.info("Package " + pkgInfo.getPath() + " is already cached");
+                    return -1;
+                }
+
+                // NOTE: the checksum is validated whilst downloading
+                final Path downloadedPath = downloadPackage(pkgInfo, log);
                 try {
-                    Thread.sleep(delay);
-                } catch (final InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Interrupted while waiting to retry: " + uri, e);
+                    final long size = Files.size(downloadedPath);
+                    cacheManager.put(pkg, pkgInfo, downloadedPath);
+                    log.info("Fetched package into the cache: " + pkgInfo.getPath());
+                    return size;
+                } finally {
+                    Files.deleteIfExists(downloadedPath);
                 }
-                delay *= 2;
             }
+        } catch (final IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
         }
-        if (lastIoException != null) {
-            throw lastIoException;
-        }
-        throw new IOException("Received " + lastError + " from " + uri + " after " + MAX_ATTEMPTS + " attempts");
     }
 
-    private PackageInfo getPackageInfo(final Package pkg) throws MojoExecutionException {
-        getLog().info("Retrieving package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev()));
+    /**
+     * Get the file which records the state of the previous resolution into
+     * the output directory.
+     *
+     * @return the stamp file, or null if there is no build directory.
+     */
+    private @Nullable Path getStampFile() {
+        if (buildDirectory == null) {
+            return null;
+        }
+        final byte[] outputDirectoryBytes = outputDirectory.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
         try {
-            final String uri = getFindUri(pkg) + "&info=true";
-            @Nullable final Proxy proxy = MojoUtils.getProxyForUrl(proxies.get(), uri);
+            final String outputDirectoryHash = FileUtils.toHexString(FileUtils.newSha256Digest().digest(outputDirectoryBytes));
+            return buildDirectory.toPath().resolve("public-xar-repo-plugin").resolve("resolve-" + outputDirectoryHash.substring(0, 16) + ".stamp");
+        } catch (final IOException e) {
+            getLog().debug("Unable to locate build state: " + e.getMessage());
+            return null;
+        }
+    }
 
-            final CloseableHttpClient client = buildHttpClient(proxy);
-            final Executor executor = Executor.newInstance(client);
+    /**
+     * Compute the hash of everything that determines the outcome of a resolution.
+     */
+    private String hashInputs() throws IOException {
+        final List<String> inputs = new ArrayList<>();
+        inputs.add(getRepoUri());
+        inputs.add(existDbVersions != null && !existDbVersions.isEmpty() ? String.join(",", existDbVersions) : existDbVersion);
+        inputs.add(outputDirectory.getAbsolutePath());
+        inputs.add(Boolean.toString(cache));
+        inputs.add(Boolean.toString(catalog));
+        inputs.add(Boolean.toString(useLockFile));
+        if (useLockFile && lockFile.exists()) {
+            inputs.add(FileUtils.sha256(lockFile.toPath()));
+        } else {
+            inputs.add("");
+        }
+        for (final Package pkg : packages) {
+            inputs.add(pkg.toString());
+        }
+        if (transitive) {
+            inputs.add("transitive");
+        }
+        return BuildStamp.hashInputs(inputs);
+    }
 
-            final HttpResponse response = executeWithRetry(executor, proxy, uri);
-            if (response.getStatusLine().getStatusCode() != SC_OK) {
-                getLog().error("Received HTTP " + response.getStatusLine().getStatusCode() + " when trying to access: " + uri);
-                throw new MojoExecutionException("Unable to get package info");
+    /**
+     * Determine if the previous resolution is up to date.
+     *
+     * It is up to date if the configuration (and lock file) are unchanged,
+     * the packages in the output directory are unchanged, and the packages
+     * are pinned by a lock file, or the update policy does not yet require
+     * the remote repo to be checked again.
+     */
+    private boolean isUpToDate(final Path stampFile, final UpdatePolicy updatePolicy) {
+        try {
+            final BuildStamp stamp = BuildStamp.read(stampFile);
+            if (stamp == null || !stamp.getInputs().equals(hashInputs())) {
+                return false;
             }
 
-            final DocumentBuilder builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
-            try (final InputStream is = response.getEntity().getContent()) {
-                final Document document = builder.parse(is);
-                final Element root = document.getDocumentElement();
-                if (root == null || !root.getLocalName().equals("found")) {
-                    throw new MojoExecutionException("Received package info is invalid");
-                }
+            final boolean pinned = useLockFile && lockFile.exists();
+            final boolean isOffline = offline || (session != null && session.isOffline());
+            if (!pinned && !isOffline && updatePolicy.isExpired(stamp.getResolved(), System.currentTimeMillis())) {
+                getLog().debug("Previous resolution is not up to date, as the update policy '" + updatePolicy
+                        + "' requires the remote repo to be checked again");
+                return false;
+            }
 
-                return new PackageInfo(root.getAttribute("sha256"), root.getAttribute("version"), root.getAttribute("path"));
+            return stamp.outputsMatch(outputDirectory.toPath(), paranoidVerify);
+        } catch (final IOException e) {
+            getLog().debug("Unable to check build state: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeStamp(final Path stampFile, final List<ResolutionRegistry.Resolution> resolved) {
+        try {
+            final List<String> fileNames = new ArrayList<>(resolved.size());
+            final List<Fingerprint> fingerprints = new ArrayList<>(resolved.size());
+            for (final ResolutionRegistry.Resolution resolution : resolved) {
+                final Path path = resolution.getPath();
+                final String sha256 = resolution.getPkgInfo() != null ? resolution.getPkgInfo().getSha256() : FileUtils.sha256(path);
+                // NOTE: relative to the output directory, as the packages may be in a subdirectory for each version of eXist-db
+                fileNames.add(outputDirectory.toPath().relativize(path).toString());
+                fingerprints.add(Fingerprint.of(path, sha256));
             }
-        } catch (final IOException | ParserConfigurationException | SAXException e) {
-            throw new MojoExecutionException(e.getMessage(), e);
+            new BuildStamp(hashInputs(), System.currentTimeMillis(), fileNames, fingerprints).write(stampFile);
+        } catch (final IOException e) {
+            getLog().warn("Unable to record build state: " + e.getMessage());
         }
     }
 
-    private String getFindUri(final Package pkg) {
-        final StringBuilder builder = new StringBuilder();
-        builder.append(getRepoUri());
-        builder.append("/find?processor=");
-        builder.append(existDbVersion);
-        if (pkg.getName() != null) {
-            builder.append("&name=");
-            builder.append(pkg.getName());
+    private void validatePackages() throws MojoFailureException {
+        if (packages == null) {
+            throw new MojoFailureException("No packages are configured");
         }
-        if (pkg.getAbbrev() != null) {
-            builder.append("&abbrev=");
-            builder.append(pkg.getAbbrev());
+        for (final Package pkg : packages) {
+            if ((pkg.getName() == null || pkg.getName().isEmpty())
+                    && (pkg.getAbbrev() == null || pkg.getAbbrev().isEmpty())) {
+                throw new MojoFailureException("Each configured package must have a `name` or `abbrev`");
+            }
         }
-        if (pkg.getVersion() != null) {
-            builder.append("&version=");
-            builder.append(pkg.getVersion());
+    }
+
+    /**
+     * Get the versions of eXist-db to resolve the packages for.
+     *
+     * @return the configured {@link #existDbVersions}, or else the {@link #existDbVersion}.
+     */
+    private List<String> getExistDbVersions() throws MojoFailureException {
+        if (existDbVersions != null && !existDbVersions.isEmpty()) {
+            final Set<String> versions = new LinkedHashSet<>();
+            for (final String version : existDbVersions) {
+                if (version == null || version.trim().isEmpty()) {
+                    throw new MojoFailureException("Each of the configured `existDbVersions` must not be empty");
+                }
+                versions.add(version.trim());
+            }
+            return new ArrayList<>(versions);
         }
-        if (pkg.getSemanticVersion() != null) {
-            builder.append("&semver=");
-            builder.append(pkg.getSemanticVersion());
+        if (existDbVersion == null || existDbVersion.isEmpty()) {
+            throw new MojoFailureException("Either `existDbVersion` or `existDbVersions` must be configured");
         }
-        if (pkg.getSemanticVersionMin() != null) {
-            builder.append("&semver-min=");
-            builder.append(pkg.getSemanticVersionMin());
+        return Collections.singletonList(existDbVersion);
+    }
+
+    private @Nullable LockFile readLockFile() {
+        try {
+            return LockFile.read(lockFile.toPath());
+        } catch (final IOException e) {
+            getLog().warn("Ignoring the lock file: " + e.getMessage());
+            return null;
         }
-        if (pkg.getSemanticVersionMax() != null) {
-            builder.append("&semver-max=");
-            builder.append(pkg.getSemanticVersionMax());
+    }
+
+    private void writeLockFile(final List<LockFile.Pin> pins) throws MojoExecutionException {
+        try {
+            if (new LockFile(existDbVersion, pins).write(lockFile.toPath())) {
+                getLog().info("Updated lock file: " + lockFile);
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to write the lock file: " + e.getMessage(), e);
         }
-        return builder.toString();
     }
 
-    private Path downloadPackage(final PackageInfo pkgInfo) throws MojoExecutionException {
+    private CacheManager newCacheManager(final Log log) throws IOException {
+        final Path cacheDir = MojoUtils.getCacheDirectory(cacheDirectory, session);
+        log.debug("Cache is: " + cacheDir.toAbsolutePath().toString());
+        Files.createDirectories(cacheDir);
+        return new CacheManager(cacheDir, log, paranoidVerify, materializer);
+    }
+
+    /**
+     * Retrieve the package info from the remote repo, or return null if the
+     * repo cannot be reached, so that the caller can fall back to the cache.
+     *
+     * If the package info was retrieved previously, and the update policy
+     * does not yet require it to be refreshed, the remote repo is not contacted.
+     *
+     * If the catalog is enabled, then the package info is taken from the
+     * catalog, unless the package cannot be found in it.
+     *
+     * @param pkg the package to retrieve info for.
+     * @param cacheManager the cache manager, or null if caching is disabled.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param log the log to write to.
+     *
+     * @return the package info, or null if the remote repo is unreachable.
+     */
+    private @Nullable PackageInfo getPackageInfoOrNull(final Package pkg, @Nullable final CacheManager cacheManager,
+            final UpdatePolicy updatePolicy, final Log log) {
+        return getPackageInfoOrNull(pkg, existDbVersion, cacheManager, updatePolicy, log);
+    }
+
+    /**
+     * Retrieve the package info from the remote repo for a version of
+     * eXist-db, or return null if the repo cannot be reached.
+     *
+     * @param pkg the package to retrieve info for.
+     * @param existDbVersion the version of eXist-db that the package is for.
+     * @param cacheManager the cache manager, or null if caching is disabled.
+     * @param updatePolicy how often to check the remote repo for the latest info about the package.
+     * @param log the log to write to.
+     *
+     * @return the package info, or null if the remote repo is unreachable.
+     *
+     * @see #getPackageInfoOrNull(Package, CacheManager, UpdatePolicy, Log)
+     */
+    private @Nullable PackageInfo getPackageInfoOrNull(final Package pkg, final String existDbVersion,
+            @Nullable final CacheManager cacheManager, final UpdatePolicy updatePolicy, final Log log) {
+        if (catalog) {
+            final Catalog repoCatalog = getCatalogOrNull(cacheManager, updatePolicy, log);
+            if (repoCatalog != null) {
+                final PackageInfo pkgInfo = repoCatalog.find(pkg, existDbVersion);
+                if (pkgInfo != null) {
+                    log.info("Found package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev())
+                            + " in the catalog: " + pkgInfo.getPath());
+                    return pkgInfo;
+                }
+                log.info("No suitable release of " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev())
+                        + " in the catalog, asking the remote repo...");
+            }
+        }
+
+        final FindCache findCache = cacheManager != null ? cacheManager.getFindCache() : null;
+        final String uri = getPackageInfoUri(pkg, existDbVersion);
+
+        FindCache.Entry cached = null;
+        if (findCache != null) {
+            try {
+                cached = findCache.get(uri);
+                if (cached != null && !updatePolicy.isExpired(cached.getFetched(), System.currentTimeMillis())) {
+                    log.info("Using package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev())
+                            + " retrieved at " + Instant.ofEpochMilli(cached.getFetched()) + " (updatePolicy: " + updatePolicy + ")");
+                    return cached.getPkgInfo();
+                }
+            } catch (final IOException e) {
+                log.warn("Unable to read cached package info: " + e.getMessage());
+            }
+        }
+
+        final FindCache.Entry fetched;
         try {
-            final String uri = getPackageUri(pkgInfo);
-            @Nullable final Proxy proxy = MojoUtils.getProxyForUrl(proxies.get(), uri);
+            log.info("Retrieving package info for " + (pkg.getName() != null ? pkg.getName() : pkg.getAbbrev()));
+            fetched = transport.get().find(pkg, existDbVersion, cached, log);
+        } catch (final MojoExecutionException e) {
+            log.warn("Unable to retrieve package info from remote repo: " + e.getMessage() + ". Falling back to the local cache...");
+            return null;
+        }
+
+        if (findCache != null) {
+            try {
+                findCache.put(uri, fetched);
+            } catch (final IOException e) {
+                log.warn("Unable to cache package info: " + e.getMessage());
+            }
+        }
+        return fetched.getPkgInfo();
+    }
 
-            final CloseableHttpClient client = buildHttpClient(proxy);
-            final Executor executor = Executor.newInstance(client);
+    /**
+     * Attempt to satisfy the package request from the cache.
+     *
+     * @param cacheManager the cache manager, or null if caching is disabled.
+     * @param pkg the requested package.
+     * @param pkgInfo the latest info about the package, or null if not available.
+     * @param outputDirectoryPath the directory to copy the package to.
+     * @param isOffline true if operating in offline mode.
+     * @param log the log to write to.
+     *
+     * @return the path of the package in the output directory, or null if it could not be served from the cache.
+     */
+    private @Nullable Path serveFromCache(@Nullable final CacheManager cacheManager, final Package pkg,
+            @Nullable final PackageInfo pkgInfo, final Path outputDirectoryPath, final boolean isOffline,
+            final Log log) throws IOException {
+        final CacheManager.Cached cached = cacheManager != null ? cacheManager.get(pkg, pkgInfo) : null;
+        if (cached == null) {
+            return null;
+        }
 
-            getLog().info("Downloading " + uri);
-            final HttpResponse response = executeWithRetry(executor, proxy, uri);
-            if (response.getStatusLine().getStatusCode() != SC_OK) {
-                getLog().error("Received HTTP " + response.getStatusLine().getStatusCode() + " when trying to access: " + uri);
-                throw new MojoExecutionException("Unable to download package: " + pkgInfo.getPath());
+        final Path outputPath = copyToOutputDirectory(cached, outputDirectoryPath, log);
+        if (pkgInfo == null) {
+            if (isOffline) {
+                log.warn("ResolveMojo is operating in offline mode, so package version could not be checked with remote repo!");
+            } else {
+                log.warn("Could not check version with remote repo, no remote info available!");
             }
+        }
+        log.info("Resolved package from cache: " + outputPath.getFileName());
+        return outputPath;
+    }
 
-            final Path tmpFile = Files.createTempFile(pkgInfo.getPath(), ".tmp");
-            try (final InputStream is = response.getEntity().getContent()) {
-                Files.copy(is, tmpFile, StandardCopyOption.REPLACE_EXISTING);
-                return tmpFile;
+    private Path copyToOutputDirectory(final CacheManager.Cached cached, final Path outputDirectoryPath, final Log log) throws IOException {
+        if (!Files.exists(outputDirectoryPath)) {
+            Files.createDirectories(outputDirectoryPath);
+        }
+        // NOTE: objects in the cache are named by their checksum, so the package takes the file name published by the remote repo
+        final Path outputPath = outputDirectoryPath.resolve(cached.getPkgInfo().getPath());
+        final Materializer.Strategy strategy = materializer.materialize(cached.getFile(), outputPath, log);
+        log.debug("Materialized " + outputPath.getFileName() + " by " + strategy);
+        return outputPath;
+    }
+
+    /**
+     * Get the catalog of the remote repo.
+     *
+     * The catalog is loaded at most once per execution. If it was retrieved
+     * previously, and the update policy does not yet require it to be
+     * refreshed, the persisted copy is used without contacting the remote repo.
+     *
+     * @param cacheManager the cache manager, or null if caching is disabled.
+     * @param updatePolicy how often to check the remote repo for the latest catalog.
+     * @param log the log to write to.
+     *
+     * @return the catalog, or null if it is unavailable.
+     */
+    private @Nullable Catalog getCatalogOrNull(@Nullable final CacheManager cacheManager,
+            final UpdatePolicy updatePolicy, final Log log) {
+        synchronized (catalogLock) {
+            if (!catalogLoaded) {
+                try {
+                    loadedCatalog = transport.get().getCatalog(cacheManager != null ? cacheManager.getCatalogCache() : null, updatePolicy, log);
+                    log.info("Loaded catalog of " + loadedCatalog.size() + " releases");
+                } catch (final IOException e) {
+                    log.warn("Unable to load the catalog of the remote repo: " + e.getMessage() + ". Falling back to resolving each package individually...");
+                }
+                catalogLoaded = true;
             }
+            return loadedCatalog;
+        }
+    }
+
+    private String getPackageInfoUri(final Package pkg, final String existDbVersion) {
+        return getFindUri(pkg, existDbVersion) + "&info=true";
+    }
+
+    private String getFindUri(final Package pkg, final String existDbVersion) {
+        return HttpRepoTransport.getFindUri(getRepoUri(), pkg, existDbVersion);
+    }
+
+    /**
+     * Download a package from the repo to a temporary file.
+     *
+     * @param pkgInfo the info about the package to download.
+     * @param log the log to write to.
+     *
+     * @return the path to the temporary file, whose content has been validated.
+     */
+    private Path downloadPackage(final PackageInfo pkgInfo, final Log log)
+            throws MojoExecutionException, MojoFailureException {
+        final Path tmpFile;
+        try {
+            tmpFile = Files.createTempFile(pkgInfo.getPath(), ".tmp");
         } catch (final IOException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
+        boolean fetched = false;
+        try {
+            transport.get().fetch(pkgInfo, tmpFile, log);
+            fetched = true;
+            return tmpFile;
+        } finally {
+            if (!fetched) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (final IOException e) {
+                    log.debug("Unable to delete " + tmpFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the transport for the {@link #repoUri}: a {@code file:} URI, or
+     * the path of an existing directory, is accessed as a mirror on the file
+     * system, anything else over HTTP.
+     */
+    private RepoTransport newTransport() {
+        final String uri = getRepoUri();
+        if (uri.startsWith("file:")) {
+            return new FileRepoTransport(Paths.get(URI.create(uri)));
+        }
+        if (!uri.startsWith("http:") && !uri.startsWith("https:")) {
+            try {
+                final Path dir = Paths.get(uri);
+                if (Files.isDirectory(dir)) {
+                    return new FileRepoTransport(dir);
+                }
+            } catch (final InvalidPathException e) {
+                // NOTE: not a path, so it must be a URI
+            }
+        }
+        return new HttpRepoTransport(uri, proxies::get, httpClients.get());
+    }
+
+    /**
+     * Close the HTTP clients of this execution, unless they are shared
+     * with the rest of the Maven session, which closes them when it ends.
+     */
+    protected void closeHttpClients() {
+        if (httpClients.isInitialized() && !httpClients.get().isSessionScoped()) {
+            httpClients.get().closeAll();
+        }
     }
 
     protected String getPackageUri(final PackageInfo pkgInfo) {
-        final StringBuilder builder = new StringBuilder();
-        builder.append(getRepoUri());
-        builder.append("/public/");
-        builder.append(pkgInfo.getPath());
-        return builder.toString();
+        return HttpRepoTransport.getPackageUri(getRepoUri(), pkgInfo);
     }
 
     protected String getRepoUri() {
         return repoUri;
     }
+
+    /**
+     * A package to resolve for a version of eXist-db.
+     */
+    private static class Request {
+        final Package pkg;
+        final String existDbVersion;
+        final Path outputDirectoryPath;
+        final boolean matrix;
+
+        /**
+         * @param pkg the requested package.
+         * @param existDbVersion the version of eXist-db to resolve the package for.
+         * @param outputDirectoryPath the directory to place the package in.
+         * @param matrix true if the packages are being resolved for several versions of eXist-db.
+         */
+        Request(final Package pkg, final String existDbVersion, final Path outputDirectoryPath, final boolean matrix) {
+            this.pkg = pkg;
+            this.existDbVersion = existDbVersion;
+            this.outputDirectoryPath = outputDirectoryPath;
+            this.matrix = matrix;
+        }
+
+        @Override
+        public String toString() {
+            return matrix ? pkg + " for eXist-db " + existDbVersion : pkg.toString();
+        }
+    }
 }
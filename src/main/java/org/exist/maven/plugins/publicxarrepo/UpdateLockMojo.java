@@ -0,0 +1,24 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * Refreshes the pins of the lock file, with the latest package info
+ * from the remote repo for each configured package.
+ *
+ * Takes the same configuration as the {@code resolve} goal.
+ */
+@Mojo(name = "update-lock", threadSafe = true, requiresProject = false)
+public class UpdateLockMojo extends ResolveMojo {
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            updateLockFile();
+        } finally {
+            closeHttpClients();
+        }
+    }
+}
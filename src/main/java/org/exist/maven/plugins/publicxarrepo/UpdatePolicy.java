@@ -0,0 +1,87 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often information retrieved from the remote repo should be
+ * refreshed, with the same values as the update policy of a Maven
+ * repository: {@code always}, {@code daily}, {@code interval:N}
+ * (where N is in minutes), or {@code never}.
+ */
+class UpdatePolicy {
+
+    static final String ALWAYS = "always";
+    static final String DAILY = "daily";
+    static final String INTERVAL_PREFIX = "interval:";
+    static final String NEVER = "never";
+
+    private final String policy;
+
+    /**
+     * The maximum age in milliseconds, or -1 for daily.
+     */
+    private final long maxAge;
+
+    private UpdatePolicy(final String policy, final long maxAge) {
+        this.policy = policy;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Parse an update policy.
+     *
+     * @param policy the update policy, or null for the default of {@code always}.
+     *
+     * @return the update policy.
+     *
+     * @throws IllegalArgumentException if the policy is not valid.
+     */
+    static UpdatePolicy parse(@Nullable final String policy) throws IllegalArgumentException {
+        if (policy == null || policy.isEmpty() || ALWAYS.equals(policy)) {
+            return new UpdatePolicy(ALWAYS, 0);
+        } else if (DAILY.equals(policy)) {
+            return new UpdatePolicy(policy, -1);
+        } else if (NEVER.equals(policy)) {
+            return new UpdatePolicy(policy, Long.MAX_VALUE);
+        } else if (policy.startsWith(INTERVAL_PREFIX)) {
+            try {
+                final long minutes = Long.parseLong(policy.substring(INTERVAL_PREFIX.length()));
+                if (minutes >= 0) {
+                    return new UpdatePolicy(policy, TimeUnit.MINUTES.toMillis(minutes));
+                }
+            } catch (final NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Invalid update policy: '" + policy + "', expected one of: always, daily, interval:N or never");
+    }
+
+    /**
+     * Determine if information that was retrieved at a given time should be refreshed.
+     *
+     * @param fetched the time the information was retrieved, in milliseconds since the epoch.
+     * @param now the current time, in milliseconds since the epoch.
+     *
+     * @return true if the information should be refreshed.
+     */
+    boolean isExpired(final long fetched, final long now) {
+        if (maxAge == -1) {
+            // daily, i.e. not yet retrieved today
+            final ZoneId zone = ZoneId.systemDefault();
+            final long startOfToday = LocalDate.from(Instant.ofEpochMilli(now).atZone(zone)).atStartOfDay(zone).toInstant().toEpochMilli();
+            return fetched < startOfToday;
+        } else if (maxAge == Long.MAX_VALUE) {
+            return false;
+        }
+        return now - fetched >= maxAge;
+    }
+
+    @Override
+    public String toString() {
+        return policy;
+    }
+}
@@ -0,0 +1,76 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Verifies every package in the cache, by computing its checksum, and
+ * repairs the cache: corrupt packages are removed (and so downloaded again
+ * by the next build), as are entries of the index and other files that
+ * refer to packages which no longer exist.
+ *
+ * The checksums are computed in parallel, on a work-stealing pool.
+ */
+@Mojo(name = "verify-cache", threadSafe = true, requiresProject = false)
+public class VerifyCacheMojo extends AbstractMojo {
+
+    /**
+     * The directory to use as a cache. Default is
+     * ${local-repo}/.cache/public-xar-repo-plugin
+     */
+    @Parameter
+    private File cacheDirectory;
+
+    /**
+     * The maximum number of packages to verify concurrently, or 0 for
+     * the number of available processors.
+     */
+    @Parameter(property = "xar.verify.threads", defaultValue = "0")
+    private int verifyThreads;
+
+    @Parameter(property = "session")
+    private MavenSession session;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final Path cacheDir = MojoUtils.getCacheDirectory(cacheDirectory, session);
+        if (!Files.isDirectory(cacheDir)) {
+            getLog().info("There is no cache to verify: " + cacheDir);
+            return;
+        }
+
+        final int parallelism = verifyThreads > 0 ? verifyThreads : Runtime.getRuntime().availableProcessors();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final long start = System.nanoTime();
+            final CacheManager.VerifyResult result = new CacheManager(cacheDir, getLog()).verify(pool);
+            final long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+
+            getLog().info(String.format("Verified %d package(s) (%.1f MB) in %d ms (%.1f MB/s) with %d thread(s)",
+                    result.getVerified(), result.getVerifiedSize() / (1024.0 * 1024), elapsedMillis,
+                    result.getVerifiedSize() / (1024.0 * 1024) / (elapsedMillis / 1000.0), parallelism));
+            if (result.getRemoved() > 0 || result.getRepaired() > 0 || result.getOrphanedEntries() > 0
+                    || result.getOrphanedFiles() > 0) {
+                getLog().warn("Repaired the cache: removed " + result.getRemoved() + " corrupt package(s), "
+                        + result.getOrphanedEntries() + " package(s) orphaned in the index and " + result.getOrphanedFiles()
+                        + " orphaned file(s); rewrote " + result.getRepaired() + " fingerprint(s)");
+            } else {
+                getLog().info("The cache is intact");
+            }
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to verify the cache: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import javax.annotation.Nullable;
+
+/**
+ * A query for a cached version of a package, as expressed by the
+ * version constraints of a {@link Package}.
+ *
+ * Versions are compared by major, minor and patch alone, as per
+ * {@link SemanticVersion#compareTo(SemanticVersion)}.
+ */
+class VersionQuery {
+
+    private static final SemanticVersion NONE = new SemanticVersion(0, 0, 0);
+
+    enum Kind {
+        /**
+         * The version that is equal to the bound.
+         */
+        EXACTLY,
+
+        /**
+         * The latest version that is greater than or equal to the bound.
+         */
+        AT_LEAST,
+
+        /**
+         * The latest version that is less than or equal to the bound.
+         */
+        AT_MOST,
+
+        /**
+         * The latest version.
+         */
+        LATEST
+    }
+
+    private final Kind kind;
+    @Nullable private final SemanticVersion bound;
+
+    private VersionQuery(final Kind kind, @Nullable final SemanticVersion bound) {
+        this.kind = kind;
+        this.bound = bound;
+    }
+
+    static VersionQuery exactly(final SemanticVersion version) {
+        return new VersionQuery(Kind.EXACTLY, version);
+    }
+
+    static VersionQuery atLeast(final SemanticVersion min) {
+        return new VersionQuery(Kind.AT_LEAST, min);
+    }
+
+    static VersionQuery atMost(final SemanticVersion max) {
+        return new VersionQuery(Kind.AT_MOST, max);
+    }
+
+    static VersionQuery latest() {
+        return new VersionQuery(Kind.LATEST, null);
+    }
+
+    /**
+     * Create the query for the version constraints of a package.
+     *
+     * @param pkg the package.
+     *
+     * @return the query.
+     */
+    static VersionQuery forPackage(final Package pkg) {
+        if (pkg.getVersion() != null) {
+            return exactly(SemanticVersion.parse(pkg.getVersion()));
+        } else if (pkg.getSemanticVersion() != null) {
+            return exactly(SemanticVersion.parse(pkg.getSemanticVersion()));
+        } else if (pkg.getSemanticVersionMin() != null) {
+            return atLeast(SemanticVersion.parse(pkg.getSemanticVersionMin()));
+        } else if (pkg.getSemanticVersionMax() != null) {
+            return atMost(SemanticVersion.parse(pkg.getSemanticVersionMax()));
+        } else {
+            return latest();
+        }
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Only valid when the kind is not {@link Kind#LATEST}.
+     */
+    SemanticVersion getBound() {
+        return bound;
+    }
+
+    /**
+     * Determine if a version satisfies the query.
+     *
+     * @param version the version.
+     *
+     * @return true if the version satisfies the query.
+     */
+    boolean accepts(final SemanticVersion version) {
+        switch (kind) {
+            case EXACTLY:
+                return version.compareTo(bound) == 0;
+            case AT_LEAST:
+                return version.compareTo(bound) >= 0 && version.compareTo(NONE) > 0;
+            case AT_MOST:
+                return version.compareTo(bound) <= 0 && version.compareTo(NONE) > 0;
+            default:
+                return version.compareTo(NONE) > 0;
+        }
+    }
+
+    /**
+     * Determine if a candidate version is preferred over the current best.
+     *
+     * When versions are equal the current best is kept, so the first of
+     * several equal versions is preferred.
+     *
+     * @param candidate the candidate version, which satisfies the query.
+     * @param best the current best version, or null if there is none.
+     *
+     * @return true if the candidate should replace the current best.
+     */
+    boolean prefers(final SemanticVersion candidate, @Nullable final SemanticVersion best) {
+        if (best == null) {
+            return true;
+        }
+        return kind != Kind.EXACTLY && candidate.compareTo(best) > 0;
+    }
+}
@@ -32,4 +32,44 @@ class XmlUtils {
         final DOMSource source = new DOMSource(document);
         transformer.transform(source, result);
     }
+
+    /**
+     * Escape a string for use as the value of an attribute.
+     *
+     * @param value the value to escape.
+     *
+     * @return the escaped value.
+     */
+    public static String escapeAttribute(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                case '\t':
+                    builder.append("&#9;");
+                    break;
+                case '\n':
+                    builder.append("&#10;");
+                    break;
+                case '\r':
+                    builder.append("&#13;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
 }
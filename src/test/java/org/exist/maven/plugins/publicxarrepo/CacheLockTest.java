@@ -0,0 +1,113 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that processes which share a cache directory only download each package once.
+ */
+public class CacheLockTest {
+
+    private static final int PROCESSES = 4;
+    private static final Log LOG = new SystemStreamLog();
+
+    @Test
+    public void onlyOneProcessDownloadsEachPackage() throws Exception {
+        try (final StubRepoServer repo = new StubRepoServer()) {
+            final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024 * 1024);
+            // make sure that the processes overlap
+            repo.setDownloadDelay(1000);
+
+            final Path tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+            final Path cacheDir = Files.createDirectories(tempDir.resolve("cache"));
+
+            final List<Process> processes = new ArrayList<>();
+            for (int i = 0; i < PROCESSES; i++) {
+                final Path outputDir = tempDir.resolve("process-" + i);
+                processes.add(new ProcessBuilder(
+                        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"),
+                        ResolveMojoProcess.class.getName(),
+                        repo.getUri(), cacheDir.toString(), outputDir.toString(), "functx")
+                        .redirectErrorStream(true)
+                        .redirectOutput(tempDir.resolve("process-" + i + ".log").toFile())
+                        .start());
+            }
+
+            for (int i = 0; i < PROCESSES; i++) {
+                final Process process = processes.get(i);
+                assertTrue("process " + i + " did not finish", process.waitFor(2, TimeUnit.MINUTES));
+                assertEquals("process " + i + " failed, see: " + tempDir.resolve("process-" + i + ".log"), 0, process.exitValue());
+                assertEquals(pkgInfo.getSha256(), FileUtils.sha256(tempDir.resolve("process-" + i).resolve(pkgInfo.getPath())));
+            }
+
+            assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        }
+    }
+
+    @Test
+    public void lockIsReleasedOnClose() throws Exception {
+        final Path lockFile = Files.createTempDirectory("public-xar-repo-plugin-test").resolve("locks").resolve("functx-1.0.0.xar.lock");
+
+        try (final CacheLock lock = CacheLock.acquire(lockFile, 0, LOG)) {
+            assertNotNull(lock);
+        }
+
+        try (final CacheLock lock = CacheLock.acquire(lockFile, 0, LOG)) {
+            assertNotNull("lock should be available again after being closed", lock);
+        }
+    }
+
+    @Test
+    public void lockOfCrashedProcessIsRecovered() throws Exception {
+        final Path lockFile = Files.createTempDirectory("public-xar-repo-plugin-test").resolve("locks").resolve("functx-1.0.0.xar.lock");
+
+        final Process process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                HoldLock.class.getName(),
+                lockFile.toString())
+                .start();
+        try {
+            // wait until the other process holds the lock
+            assertEquals(HoldLock.LOCKED, process.getInputStream().read());
+            try (final CacheLock lock = CacheLock.acquire(lockFile, 0, LOG)) {
+                assertNull("lock should be held by the other process", lock);
+            }
+        } finally {
+            // simulate a crash
+            process.destroyForcibly().waitFor();
+        }
+
+        assertTrue("lock file is left behind", Files.exists(lockFile));
+        try (final CacheLock lock = CacheLock.acquire(lockFile, 10_000, LOG)) {
+            assertNotNull("lock should be recovered from the crashed process", lock);
+        }
+    }
+
+    /**
+     * Acquires a lock and then holds it until killed.
+     */
+    public static class HoldLock {
+        static final int LOCKED = 'L';
+
+        public static void main(final String[] args) throws Exception {
+            final CacheLock lock = CacheLock.acquire(Paths.get(args[0]), 0, LOG);
+            if (lock != null) {
+                System.out.write(LOCKED);
+                System.out.flush();
+                Thread.sleep(Long.MAX_VALUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamResult;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CacheManagerTest {
+
+    private static final Log LOG = new SystemStreamLog();
+
+    private Path tempDir;
+    private Path cacheDir;
+    private Package pkg;
+    private PackageInfo pkgInfo;
+    private Path cachedXar;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        cacheDir = Files.createDirectories(tempDir.resolve("cache"));
+
+        pkg = pkg("functx");
+
+        final Path xar = tempDir.resolve("functx-1.0.0.xar");
+        Files.write(xar, "original-content".getBytes(StandardCharsets.UTF_8));
+        pkgInfo = new PackageInfo(FileUtils.sha256(xar), "1.0.0", "functx-1.0.0.xar");
+        new CacheManager(cacheDir, LOG).put(pkg, pkgInfo, xar);
+
+        cachedXar = cacheDir.resolve("objects").resolve(pkgInfo.getSha256().substring(0, 2)).resolve(pkgInfo.getSha256().substring(2));
+        assertTrue(Files.exists(cachedXar));
+        assertTrue(Files.exists(Fingerprint.fingerprintFile(cachedXar)));
+    }
+
+    @Test
+    public void unchangedFileIsTrustedByFingerprint() throws Exception {
+        // same size and last modified time, so without paranoid verification the change is not noticed
+        tamperPreservingAttributes();
+
+        assertEquals(cachedXar, new CacheManager(cacheDir, LOG).get(pkg, pkgInfo).getFile());
+    }
+
+    @Test
+    public void paranoidVerifyAlwaysComputesChecksum() throws Exception {
+        tamperPreservingAttributes();
+
+        assertNull(new CacheManager(cacheDir, LOG, true).get(pkg, pkgInfo));
+    }
+
+    @Test
+    public void changedFileIsVerifiedAgain() throws Exception {
+        Files.write(cachedXar, "tampered".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(new CacheManager(cacheDir, LOG).get(pkg, pkgInfo));
+    }
+
+    @Test
+    public void missingFingerprintIsRecreated() throws Exception {
+        Files.delete(Fingerprint.fingerprintFile(cachedXar));
+
+        assertEquals(cachedXar, new CacheManager(cacheDir, LOG).get(pkg, pkgInfo).getFile());
+        assertTrue(Files.exists(Fingerprint.fingerprintFile(cachedXar)));
+    }
+
+    @Test
+    public void latestIsFoundByIndexReference() throws Exception {
+        final CacheManager.Cached cached = new CacheManager(cacheDir, LOG).get(pkg, null);
+
+        assertEquals(cachedXar, cached.getFile());
+        assertEquals("functx-1.0.0.xar", cached.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void latestIsFoundByNameReference() throws Exception {
+        final Package byName = new Package("http://exist-db.org/apps/markdown", null, null, null, null, null);
+        final Path xar = tempDir.resolve("markdown-1.0.0.xar");
+        Files.write(xar, "markdown-content".getBytes(StandardCharsets.UTF_8));
+        final PackageInfo markdownInfo = new PackageInfo(FileUtils.sha256(xar), "1.0.0", "markdown-1.0.0.xar");
+
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        cacheManager.put(byName, markdownInfo, xar);
+
+        final CacheManager.Cached cached = cacheManager.get(byName, null);
+        assertNotNull("a package configured by name alone should be found by its name", cached);
+        assertEquals("markdown-1.0.0.xar", cached.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void sameContentUnderAnotherNameIsStoredOnce() throws Exception {
+        final Path xar = tempDir.resolve("functx-copy-1.0.0.xar");
+        Files.copy(cachedXar, xar);
+        final PackageInfo copyInfo = new PackageInfo(pkgInfo.getSha256(), "1.0.0", "functx-copy-1.0.0.xar");
+        final FileTime lastModified = Files.getLastModifiedTime(cachedXar);
+
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        cacheManager.put(pkg("functx-copy"), copyInfo, xar);
+
+        assertEquals(lastModified, Files.getLastModifiedTime(cachedXar));
+        assertEquals(1, countObjects());
+        final CacheManager.Cached cached = cacheManager.get(pkg("functx-copy"), null);
+        assertEquals(cachedXar, cached.getFile());
+        assertEquals("functx-copy-1.0.0.xar", cached.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void differentContentUnderSameNameIsStoredSeparately() throws Exception {
+        final Path xar = tempDir.resolve("functx-1.0.0.xar");
+        Files.write(xar, "republished-content".getBytes(StandardCharsets.UTF_8));
+        final PackageInfo republishedInfo = new PackageInfo(FileUtils.sha256(xar), "1.0.0", "functx-1.0.0.xar");
+
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        cacheManager.put(pkg, republishedInfo, xar);
+
+        assertEquals(2, countObjects());
+        assertEquals(cachedXar, cacheManager.get(pkg, pkgInfo).getFile());
+        assertArrayEquals("republished-content".getBytes(StandardCharsets.UTF_8),
+                Files.readAllBytes(cacheManager.get(pkg, republishedInfo).getFile()));
+    }
+
+    @Test
+    public void flatLayoutIsMigrated() throws Exception {
+        // a cache written by an earlier version, with the package and its fingerprint in the root
+        final Path flatCacheDir = Files.createDirectories(tempDir.resolve("flat-cache"));
+        final Path flatXar = flatCacheDir.resolve("functx-1.0.0.xar");
+        Files.copy(cachedXar, flatXar);
+        Fingerprint.of(flatXar, pkgInfo.getSha256()).write(flatXar);
+        PackageDb.addEntry(flatCacheDir, new PackageDb.AbbrevAndOrName(Optional.of("functx"), Optional.of("functx")),
+                new PackageDb.Entry(pkgInfo, Files.size(flatXar), System.currentTimeMillis()));
+
+        final CacheManager.Cached cached = new CacheManager(flatCacheDir, LOG).get(pkg, null);
+
+        final Path object = flatCacheDir.resolve("objects").resolve(pkgInfo.getSha256().substring(0, 2)).resolve(pkgInfo.getSha256().substring(2));
+        assertEquals(object, cached.getFile());
+        assertEquals("functx-1.0.0.xar", cached.getPkgInfo().getPath());
+        assertFalse(Files.exists(flatXar));
+        assertFalse(Files.exists(Fingerprint.fingerprintFile(flatXar)));
+        assertTrue(Files.exists(Fingerprint.fingerprintFile(object)));
+    }
+
+    @Test
+    public void metadataFilesOfFlatLayoutAreMigrated() throws Exception {
+        // a cache written by an earlier version, whose db refers to a metadata file beside the package
+        final Path flatCacheDir = Files.createDirectories(tempDir.resolve("flat-cache"));
+        final Path flatXar = flatCacheDir.resolve("functx-1.0.0.xar");
+        Files.copy(cachedXar, flatXar);
+        final Path metadataFile = flatCacheDir.resolve("functx-1.0.0.xar" + PackageInfo.METADATA_FILE_EXTENSION);
+        pkgInfo.serialize(new StreamResult(metadataFile.toFile()));
+        Files.write(flatCacheDir.resolve("packages.xml"), ("<packages><package abbrev=\"functx\"><packageInfo path=\""
+                + metadataFile.getFileName() + "\"/></package></packages>").getBytes(StandardCharsets.UTF_8));
+
+        final CacheManager.Cached cached = new CacheManager(flatCacheDir, LOG).get(pkg, null);
+
+        final Path object = flatCacheDir.resolve("objects").resolve(pkgInfo.getSha256().substring(0, 2)).resolve(pkgInfo.getSha256().substring(2));
+        assertEquals(object, cached.getFile());
+        assertEquals("functx-1.0.0.xar", cached.getPkgInfo().getPath());
+        assertFalse(Files.exists(flatXar));
+        assertFalse(Files.exists(metadataFile));
+    }
+
+    @Test
+    public void accessIsRecordedWithoutTouchingObject() throws Exception {
+        final Path accessFile = cachedXar.resolveSibling(cachedXar.getFileName() + CacheManager.ACCESS_FILE_EXTENSION);
+        final FileTime lastModified = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10));
+        Files.setLastModifiedTime(cachedXar, lastModified);
+        Files.setLastModifiedTime(accessFile, lastModified);
+
+        new CacheManager(cacheDir, LOG).get(pkg, pkgInfo);
+
+        assertEquals(lastModified, Files.getLastModifiedTime(cachedXar));
+        assertTrue(Files.getLastModifiedTime(accessFile).compareTo(lastModified) > 0);
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvictedBeyondMaxSize() throws Exception {
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        final PackageInfo markdownInfo = putPackage(cacheManager, "markdown", "markdown-content");
+        final PackageInfo shared = putPackage(cacheManager, "shared", "shared-resources-content");
+        setLastAccess(pkgInfo, 3);
+        setLastAccess(markdownInfo, 1);
+        setLastAccess(shared, 2);
+
+        // room for all but the least recently used
+        final long maxSize = Files.size(cacheManager.objectPath(markdownInfo.getSha256()))
+                + Files.size(cacheManager.objectPath(shared.getSha256()));
+        assertEquals(1, cacheManager.evict(maxSize, -1));
+
+        assertFalse(Files.exists(cachedXar));
+        assertFalse(Files.exists(Fingerprint.fingerprintFile(cachedXar)));
+        assertNull(cacheManager.get(pkg, null));
+        assertNotNull(cacheManager.get(pkg("markdown"), null));
+        assertNotNull(cacheManager.get(pkg("shared"), null));
+        assertEquals(2, countObjects());
+    }
+
+    @Test
+    public void unusedAreEvictedBeyondMaxAge() throws Exception {
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        final PackageInfo markdownInfo = putPackage(cacheManager, "markdown", "markdown-content");
+        setLastAccess(pkgInfo, 40);
+
+        assertEquals(1, cacheManager.evict(-1, TimeUnit.DAYS.toMillis(30)));
+
+        assertNull(cacheManager.get(pkg, null));
+        assertEquals(markdownInfo.getSha256(), cacheManager.get(pkg("markdown"), null).getPkgInfo().getSha256());
+        assertEquals(0, cacheManager.evict(-1, TimeUnit.DAYS.toMillis(30)));
+    }
+
+    @Test
+    public void lockedAreNotEvicted() throws Exception {
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+
+        // held by another thread, as if the package were being downloaded
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch evicted = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> {
+            try (final CacheLock lock = cacheManager.lock(pkgInfo, 0)) {
+                assertNotNull(lock);
+                locked.countDown();
+                evicted.await();
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        try {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            assertEquals(0, cacheManager.evict(0, -1));
+        } finally {
+            evicted.countDown();
+            holder.join();
+        }
+
+        assertTrue(Files.exists(cachedXar));
+        assertEquals(1, cacheManager.evict(0, -1));
+        assertFalse(Files.exists(cachedXar));
+    }
+
+    @Test
+    public void verifyRemovesCorruptPackagesAndTheirEntries() throws Exception {
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        final PackageInfo markdownInfo = putPackage(cacheManager, "markdown", "markdown-content");
+        tamperPreservingAttributes();
+
+        final CacheManager.VerifyResult result = verify(cacheManager);
+
+        assertEquals(2, result.getVerified());
+        assertEquals(1, result.getRemoved());
+        assertFalse(Files.exists(cachedXar));
+        assertFalse(Files.exists(Fingerprint.fingerprintFile(cachedXar)));
+        assertTrue(PackageDb.findEntries(cacheDir, new PackageDb.AbbrevAndOrName(Optional.of("functx"), Optional.of("functx"))).isEmpty());
+        assertEquals(markdownInfo.getPath(), cacheManager.get(pkg("markdown"), null).getPkgInfo().getPath());
+    }
+
+    @Test
+    public void verifyRepairsFingerprintsAndRemovesOrphans() throws Exception {
+        final CacheManager cacheManager = new CacheManager(cacheDir, LOG);
+        final PackageInfo markdownInfo = putPackage(cacheManager, "markdown", "markdown-content");
+        final Path markdownXar = cacheManager.objectPath(markdownInfo.getSha256());
+        Files.delete(markdownXar);
+        Files.delete(Fingerprint.fingerprintFile(cachedXar));
+
+        final CacheManager.VerifyResult result = verify(cacheManager);
+
+        assertEquals(1, result.getVerified());
+        assertEquals(0, result.getRemoved());
+        assertEquals(1, result.getRepaired());
+        assertEquals(1, result.getOrphanedEntries());
+        assertEquals(2, result.getOrphanedFiles());
+        assertTrue(Files.exists(Fingerprint.fingerprintFile(cachedXar)));
+        assertFalse(Files.exists(Fingerprint.fingerprintFile(markdownXar)));
+        assertTrue(PackageDb.findEntries(cacheDir, new PackageDb.AbbrevAndOrName(Optional.of("markdown"), Optional.of("markdown"))).isEmpty());
+        assertEquals(cachedXar, cacheManager.get(pkg, null).getFile());
+
+        // nothing left to repair
+        final CacheManager.VerifyResult again = verify(cacheManager);
+        assertEquals(0, again.getRepaired() + again.getOrphanedEntries() + again.getOrphanedFiles());
+    }
+
+    @Test
+    public void verifyRemovesFilesLeftByFlatLayout() throws Exception {
+        final Path metadataFile = cacheDir.resolve("markdown-1.0.0.xar" + PackageInfo.METADATA_FILE_EXTENSION);
+        final Path fingerprintFile = Fingerprint.fingerprintFile(cacheDir.resolve("markdown-1.0.0.xar"));
+        Files.write(metadataFile, "<package-info/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(fingerprintFile, "stale".getBytes(StandardCharsets.UTF_8));
+
+        final CacheManager.VerifyResult result = verify(new CacheManager(cacheDir, LOG));
+
+        assertEquals(2, result.getOrphanedFiles());
+        assertFalse(Files.exists(metadataFile));
+        assertFalse(Files.exists(fingerprintFile));
+        assertTrue(Files.exists(cachedXar));
+    }
+
+    @Test
+    public void parseSize() {
+        assertEquals(1234, CacheManager.parseSize("1234"));
+        assertEquals(500L * 1024 * 1024, CacheManager.parseSize("500M"));
+        assertEquals(2L * 1024 * 1024 * 1024, CacheManager.parseSize("2g"));
+        try {
+            CacheManager.parseSize("lots");
+            fail("expected IllegalArgumentException for an invalid size");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("lots"));
+        }
+    }
+
+    private static CacheManager.VerifyResult verify(final CacheManager cacheManager) throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            return cacheManager.verify(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private PackageInfo putPackage(final CacheManager cacheManager, final String abbrev, final String content) throws Exception {
+        final Path xar = tempDir.resolve(abbrev + "-1.0.0.xar");
+        Files.write(xar, content.getBytes(StandardCharsets.UTF_8));
+        final PackageInfo info = new PackageInfo(FileUtils.sha256(xar), "1.0.0", abbrev + "-1.0.0.xar");
+        cacheManager.put(pkg(abbrev), info, xar);
+        return info;
+    }
+
+    private void setLastAccess(final PackageInfo info, final int daysAgo) throws Exception {
+        final Path object = new CacheManager(cacheDir, LOG).objectPath(info.getSha256());
+        Files.setLastModifiedTime(object.resolveSibling(object.getFileName() + CacheManager.ACCESS_FILE_EXTENSION),
+                FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(daysAgo)));
+    }
+
+    private long countObjects() throws Exception {
+        try (final Stream<Path> files = Files.walk(cacheDir.resolve("objects"))) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().endsWith(Fingerprint.FINGERPRINT_FILE_EXTENSION))
+                    .filter(file -> !file.getFileName().toString().endsWith(CacheManager.ACCESS_FILE_EXTENSION))
+                    .count();
+        }
+    }
+
+    private static Package pkg(final String abbrev) throws Exception {
+        final Package pkg = new Package();
+        final Field field = Package.class.getDeclaredField("abbrev");
+        field.setAccessible(true);
+        field.set(pkg, abbrev);
+        return pkg;
+    }
+
+    private void tamperPreservingAttributes() throws Exception {
+        final FileTime lastModified = Files.getLastModifiedTime(cachedXar);
+        final byte[] content = Files.readAllBytes(cachedXar);
+        content[0] = (byte) 'X';
+        Files.write(cachedXar, content);
+        Files.setLastModifiedTime(cachedXar, lastModified);
+    }
+}
@@ -0,0 +1,93 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class CatalogTest {
+
+    private static final String CATALOG =
+            "<apps>" +
+            "<app path=\"functx-1.0.0.xar\" sha256=\"a\"><name>http://www.functx.com</name><abbrev>functx</abbrev><version>1.0.0</version></app>" +
+            "<app path=\"functx-1.1.0.xar\" sha256=\"b\"><name>http://www.functx.com</name><abbrev>functx</abbrev><version>1.1.0</version>" +
+                "<requires processor=\"http://exist-db.org\" semver-min=\"5.0.0\"/></app>" +
+            "<app path=\"functx-2.0.0.xar\" sha256=\"c\"><name>http://www.functx.com</name><abbrev>functx</abbrev><version>2.0.0</version>" +
+                "<requires processor=\"http://exist-db.org\" semver-min=\"7.0.0\"/></app>" +
+            "<app path=\"markdown-1.0.0.xar\" sha256=\"d\"><name>http://exist-db.org/markdown</name><abbrev>markdown</abbrev><version>1.0.0</version>" +
+                "<requires processor=\"http://exist-db.org\" semver=\"5\"/></app>" +
+            "<app path=\"saxon-only-1.0.0.xar\" sha256=\"e\"><name>http://example.com/saxon-only</name><abbrev>saxon-only</abbrev><version>1.0.0</version>" +
+                "<requires processor=\"http://saxon.sf.net/\"/></app>" +
+            "<app path=\"incomplete.xar\"><abbrev>incomplete</abbrev><version>1.0.0</version></app>" +
+            "</apps>";
+
+    @Test
+    public void parse() throws IOException {
+        assertEquals(5, parse(CATALOG).size());
+    }
+
+    @Test
+    public void latestCompatibleRelease() throws Exception {
+        final Catalog catalog = parse(CATALOG);
+        assertEquals("functx-1.1.0.xar", catalog.find(pkg("functx", null, null, null), "6.2.0").getPath());
+        assertEquals("functx-2.0.0.xar", catalog.find(pkg("functx", null, null, null), "7.0.0").getPath());
+        assertEquals("functx-1.0.0.xar", catalog.find(pkg("functx", null, null, null), "4.11.0").getPath());
+    }
+
+    @Test
+    public void versionConstraints() throws Exception {
+        final Catalog catalog = parse(CATALOG);
+        assertEquals("functx-1.0.0.xar", catalog.find(pkg("functx", "1.0.0", null, null), "7.0.0").getPath());
+        assertEquals("functx-1.1.0.xar", catalog.find(pkg("functx", null, null, "1.9.9"), "7.0.0").getPath());
+        assertEquals("functx-2.0.0.xar", catalog.find(pkg("functx", null, "1.1.0", null), "7.0.0").getPath());
+        assertNull(catalog.find(pkg("functx", null, "3.0.0", null), "7.0.0"));
+    }
+
+    @Test
+    public void processorCompatibility() throws Exception {
+        final Catalog catalog = parse(CATALOG);
+        assertEquals("markdown-1.0.0.xar", catalog.find(pkg("markdown", null, null, null), "5.4.1").getPath());
+        assertNull(catalog.find(pkg("markdown", null, null, null), "6.0.0"));
+        assertNull(catalog.find(pkg("saxon-only", null, null, null), "6.0.0"));
+    }
+
+    @Test
+    public void findByName() throws Exception {
+        final Catalog catalog = parse(CATALOG);
+        final Package pkg = new Package();
+        set(pkg, "name", "http://www.functx.com");
+        assertEquals("functx-1.1.0.xar", catalog.find(pkg, "6.0.0").getPath());
+
+        set(pkg, "abbrev", "markdown");
+        assertNull("name and abbrev must both match", catalog.find(pkg, "5.0.0"));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidCatalog() throws IOException {
+        parse("<apps><app>");
+    }
+
+    private static Catalog parse(final String catalog) throws IOException {
+        return Catalog.parse(new ByteArrayInputStream(catalog.getBytes(UTF_8)));
+    }
+
+    private static Package pkg(final String abbrev, final String version, final String semverMin,
+            final String semverMax) throws Exception {
+        final Package pkg = new Package();
+        set(pkg, "abbrev", abbrev);
+        set(pkg, "version", version);
+        set(pkg, "semanticVersionMin", semverMin);
+        set(pkg, "semanticVersionMax", semverMax);
+        return pkg;
+    }
+
+    private static void set(final Package pkg, final String fieldName, final String value) throws Exception {
+        final Field field = Package.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(pkg, value);
+    }
+}
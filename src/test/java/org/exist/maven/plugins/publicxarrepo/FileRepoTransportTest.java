@@ -0,0 +1,136 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeNotNull;
+
+public class FileRepoTransportTest {
+
+    private static final Log LOG = new SystemStreamLog();
+
+    @Test
+    public void findsLatestReleaseInCatalog() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "old" }, new String[] { "functx", "1.1.0", "new" });
+
+        final FindCache.Entry entry = new FileRepoTransport(repoDir).find(abbrev("functx"), "6.0.0", null, LOG);
+
+        assertEquals("functx-1.1.0.xar", entry.getPkgInfo().getPath());
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void missingPackageIsNotFound() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+
+        new FileRepoTransport(repoDir).find(abbrev("markdown"), "6.0.0", null, LOG);
+    }
+
+    @Test
+    public void fetchByTransfer() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+        final FileRepoTransport transport = new FileRepoTransport(repoDir, Materializer.Strategy.TRANSFER);
+        final PackageInfo pkgInfo = transport.find(abbrev("functx"), "6.0.0", null, LOG).getPkgInfo();
+
+        final Path target = Files.createTempDirectory("public-xar-repo-plugin-test").resolve(pkgInfo.getPath());
+        transport.fetch(pkgInfo, target, LOG);
+
+        assertArrayEquals("content".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+    }
+
+    @Test
+    public void fetchDoesNotShareOrModifyMirror() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+        final FileRepoTransport transport = new FileRepoTransport(repoDir);
+        final PackageInfo pkgInfo = transport.find(abbrev("functx"), "6.0.0", null, LOG).getPkgInfo();
+        final Path source = repoDir.resolve("public").resolve(pkgInfo.getPath());
+
+        final Path target = Files.createTempDirectory("public-xar-repo-plugin-test").resolve(pkgInfo.getPath());
+        transport.fetch(pkgInfo, target, LOG);
+
+        final Object sourceKey = Files.readAttributes(source, BasicFileAttributes.class).fileKey();
+        assumeNotNull(sourceKey);
+        assertNotEquals(sourceKey, Files.readAttributes(target, BasicFileAttributes.class).fileKey());
+        assertTrue(Files.isWritable(source));
+    }
+
+    @Test
+    public void hardLinkDoesNotModifyMirrorPermissions() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("windows"));
+
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+        final FileRepoTransport transport = new FileRepoTransport(repoDir, Materializer.Strategy.HARDLINK);
+        final PackageInfo pkgInfo = transport.find(abbrev("functx"), "6.0.0", null, LOG).getPkgInfo();
+        final Path source = repoDir.resolve("public").resolve(pkgInfo.getPath());
+
+        final Path target = Files.createTempDirectory("public-xar-repo-plugin-test").resolve(pkgInfo.getPath());
+        transport.fetch(pkgInfo, target, LOG);
+
+        assertArrayEquals("content".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(target));
+        assertTrue(Files.getPosixFilePermissions(source).contains(PosixFilePermission.OWNER_WRITE));
+    }
+
+    @Test
+    public void corruptPackageIsNotFetched() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+        final FileRepoTransport transport = new FileRepoTransport(repoDir);
+        final PackageInfo pkgInfo = transport.find(abbrev("functx"), "6.0.0", null, LOG).getPkgInfo();
+        Files.write(repoDir.resolve("public").resolve(pkgInfo.getPath()), "tampered".getBytes(StandardCharsets.UTF_8));
+
+        final Path target = Files.createTempDirectory("public-xar-repo-plugin-test").resolve(pkgInfo.getPath());
+        try {
+            transport.fetch(pkgInfo, target, LOG);
+            fail("Expected MojoFailureException");
+        } catch (final MojoFailureException e) {
+            assertFalse(Files.exists(target));
+        }
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void pathOutsideOfRepoIsNotFetched() throws Exception {
+        final Path repoDir = mirror(new String[] { "functx", "1.0.0", "content" });
+        final Path target = Files.createTempDirectory("public-xar-repo-plugin-test").resolve("passwd");
+
+        new FileRepoTransport(repoDir).fetch(new PackageInfo("0000", "1.0.0", "../../etc/passwd"), target, LOG);
+    }
+
+    /**
+     * Create a mirror of a repo.
+     *
+     * @param packages the abbrev, version and content of each package.
+     *
+     * @return the directory of the mirror.
+     */
+    static Path mirror(final String[]... packages) throws IOException {
+        final Path repoDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path publicDir = Files.createDirectories(repoDir.resolve("public"));
+        final StringBuilder catalog = new StringBuilder("<apps>");
+        for (final String[] pkg : packages) {
+            final String path = pkg[0] + "-" + pkg[1] + ".xar";
+            final Path xar = Files.write(publicDir.resolve(path), pkg[2].getBytes(StandardCharsets.UTF_8));
+            catalog.append("<app path=\"").append(path).append("\" sha256=\"").append(FileUtils.sha256(xar)).append("\">")
+                    .append("<name>http://example.com/").append(pkg[0]).append("</name>")
+                    .append("<abbrev>").append(pkg[0]).append("</abbrev>")
+                    .append("<version>").append(pkg[1]).append("</version>")
+                    .append("</app>");
+        }
+        catalog.append("</apps>");
+        Files.write(repoDir.resolve(Catalog.CATALOG_PATH.substring(1)), catalog.toString().getBytes(StandardCharsets.UTF_8));
+        return repoDir;
+    }
+
+    private static Package abbrev(final String abbrev) {
+        return new Package(null, abbrev, null, null, null, null);
+    }
+}
@@ -0,0 +1,110 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests that {@link GoOfflineMojo} fetches packages into the cache, so
+ * that {@link ResolveMojo} can later resolve them in offline mode.
+ */
+public class GoOfflineMojoTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testPrefetchedPackagesResolveOffline() throws Exception {
+        final PackageInfo functx = repo.addPackage("functx", "1.0.0", 1024);
+        final PackageInfo markdown = repo.addPackage("markdown", "2.0.0", 2048);
+
+        final Path packageSets = tempDir.resolve("package-sets.xml");
+        Files.write(packageSets, ("<package-sets>"
+                + "<package-set><package abbrev='functx'/><package abbrev='markdown'/></package-set>"
+                + "<package-set existDbVersion='6.2.0'><package abbrev='functx'/></package-set>"
+                + "</package-sets>").getBytes(StandardCharsets.UTF_8));
+
+        final ResolveMojo goOffline = lookupConfiguredMojo("go-offline", "functx");
+        setVariableValueToObject(goOffline, "packageSets", packageSets.toFile());
+        goOffline.execute();
+
+        // functx is requested by both package sets, but only once for each version of eXist-db
+        assertEquals(3, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + functx.getPath()));
+        assertEquals(1, repo.getRequestCount("/public/" + markdown.getPath()));
+        assertFalse(Files.exists(tempDir.resolve("xars")));
+
+        final ResolveMojo resolve = lookupConfiguredMojo("resolve", "functx", "markdown");
+        setVariableValueToObject(resolve, "offline", true);
+        resolve.execute();
+
+        assertEquals(3, repo.getRequestCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve(functx.getPath())));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve(markdown.getPath())));
+    }
+
+    public void testCachedPackagesAreNotFetchedAgain() throws Exception {
+        final PackageInfo functx = repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("go-offline", "functx").execute();
+        lookupConfiguredMojo("go-offline", "functx").execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + functx.getPath()));
+    }
+
+    public void testMissingPackageSetsFileFails() throws Exception {
+        final ResolveMojo goOffline = lookupConfiguredMojo("go-offline");
+        setVariableValueToObject(goOffline, "packageSets", tempDir.resolve("no-such-file.xml").toFile());
+        try {
+            goOffline.execute();
+            fail("Expected MojoExecutionException");
+        } catch (final MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("no-such-file.xml"));
+        }
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String goal, final String... abbrevs) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo(goal, testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", true);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 2);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve("xars").toFile());
+
+        if (abbrevs.length > 0) {
+            final Package[] packages = new Package[abbrevs.length];
+            for (int i = 0; i < abbrevs.length; i++) {
+                packages[i] = new Package();
+                setVariableValueToObject(packages[i], "abbrev", abbrevs[i]);
+            }
+            setVariableValueToObject(mojo, "packages", abbrevs.length == 1
+                    ? Collections.singletonList(packages[0]) : Arrays.asList(packages));
+        }
+        return mojo;
+    }
+}
@@ -0,0 +1,93 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.settings.Proxy;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpClientRegistryTest {
+
+    @Test
+    public void clientIsSharedPerProxy() {
+        final HttpClientRegistry registry = new HttpClientRegistry(false);
+        try {
+            assertSame(registry.getClient(null), registry.getClient(null));
+            assertSame(registry.getClient(newProxy("proxy.example.com", 3128)), registry.getClient(newProxy("proxy.example.com", 3128)));
+            assertNotSame(registry.getClient(null), registry.getClient(newProxy("proxy.example.com", 3128)));
+            assertNotSame(registry.getClient(newProxy("proxy.example.com", 3128)), registry.getClient(newProxy("proxy.example.com", 8080)));
+        } finally {
+            registry.closeAll();
+        }
+    }
+
+    @Test
+    public void connectionIsKeptAliveForReuse() throws Exception {
+        final HttpClientRegistry registry = new HttpClientRegistry(false);
+        try (final StubRepoServer repo = new StubRepoServer()) {
+            final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+            final CloseableHttpClient client = registry.getClient(null);
+
+            for (int i = 0; i < 3; i++) {
+                try (final CloseableHttpResponse response = client.execute(new HttpGet(repo.getUri() + "/public/" + pkgInfo.getPath()))) {
+                    EntityUtils.consume(response.getEntity());
+                }
+            }
+
+            assertEquals(0, registry.getTotalStats().getLeased());
+            assertTrue("the connection should have been returned to the pool",
+                    registry.getTotalStats().getAvailable() >= 1);
+        } finally {
+            registry.closeAll();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")  // NOTE: every constructor of MavenSession is deprecated, but Maven 3 has no other way to create one
+    public void clientsAreClosedWhenTheSessionEnds() throws Exception {
+        final AtomicInteger sessionsEnded = new AtomicInteger();
+        final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+        request.setExecutionListener(new AbstractExecutionListener() {
+            @Override
+            public void sessionEnded(final ExecutionEvent event) {
+                sessionsEnded.incrementAndGet();
+            }
+        });
+        final MavenSession session = new MavenSession(null, new DefaultRepositorySystemSession(), request, new DefaultMavenExecutionResult());
+
+        final HttpClientRegistry registry = HttpClientRegistry.forSession(session);
+        assertTrue(registry.isSessionScoped());
+        assertSame(registry, HttpClientRegistry.forSession(session));
+
+        try (final StubRepoServer repo = new StubRepoServer()) {
+            final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+            try (final CloseableHttpResponse response = registry.getClient(null).execute(new HttpGet(repo.getUri() + "/public/" + pkgInfo.getPath()))) {
+                EntityUtils.consume(response.getEntity());
+            }
+            assertTrue(registry.getTotalStats().getAvailable() >= 1);
+
+            request.getExecutionListener().sessionEnded(null);
+            assertEquals("the listener that was replaced should still be notified", 1, sessionsEnded.get());
+            assertEquals(0, registry.getTotalStats().getAvailable());
+        }
+    }
+
+    private static Proxy newProxy(final String host, final int port) {
+        final Proxy proxy = new Proxy();
+        proxy.setHost(host);
+        proxy.setPort(port);
+        return proxy;
+    }
+}
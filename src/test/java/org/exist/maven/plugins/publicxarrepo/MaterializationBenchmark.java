@@ -0,0 +1,78 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time and disk space taken to materialize many large
+ * packages from a cache into an output directory, with each
+ * {@link Materializer.Strategy}.
+ *
+ * Usage: {@code MaterializationBenchmark [packages] [size in MB] [directory]}.
+ * The directory should be on the file system to be measured, and defaults
+ * to the temporary directory.
+ *
+ * Not run by the tests, run it by hand with the test classpath.
+ */
+public class MaterializationBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int packages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final int sizeMb = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        final Path baseDir = args.length > 2
+                ? Files.createTempDirectory(Paths.get(args[2]), "public-xar-repo-plugin-benchmark")
+                : Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+
+        try {
+            final Path cacheDir = Files.createDirectories(baseDir.resolve("cache"));
+            final byte[] buf = new byte[1024 * 1024];
+            final Random random = new Random(42);
+            for (int i = 0; i < packages; i++) {
+                try (final OutputStream os = Files.newOutputStream(cacheDir.resolve("pkg-" + i + ".xar"))) {
+                    for (int j = 0; j < sizeMb; j++) {
+                        random.nextBytes(buf);
+                        os.write(buf);
+                    }
+                }
+            }
+
+            System.out.printf("%d packages of %d MB in %s%n", packages, sizeMb, baseDir);
+            final FileStore store = Files.getFileStore(baseDir);
+            for (final Materializer.Strategy strategy : Materializer.Strategy.values()) {
+                final Path outputDir = Files.createDirectories(baseDir.resolve("output-" + strategy));
+                final Materializer materializer = new Materializer(strategy);
+
+                final long freeBefore = store.getUnallocatedSpace();
+                final long start = System.nanoTime();
+                Materializer.Strategy used = null;
+                for (int i = 0; i < packages; i++) {
+                    final String name = "pkg-" + i + ".xar";
+                    used = materializer.materialize(cacheDir.resolve(name), outputDir.resolve(name), new SystemStreamLog());
+                }
+                final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                final long usedMb = (freeBefore - store.getUnallocatedSpace()) / (1024 * 1024);
+
+                System.out.printf("%-8s (used %-8s): %,7d ms, %,7d MB of disk%n", strategy, used, elapsedMs, usedMb);
+                deleteRecursively(outputDir);
+            }
+        } finally {
+            deleteRecursively(baseDir);
+        }
+    }
+
+    private static void deleteRecursively(final Path dir) throws IOException {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
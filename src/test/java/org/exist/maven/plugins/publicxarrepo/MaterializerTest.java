@@ -0,0 +1,94 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeNotNull;
+
+public class MaterializerTest {
+
+    private static final Log LOG = new SystemStreamLog();
+    private static final byte[] CONTENT = "the content of a package".getBytes();
+
+    @Test
+    public void copyIsIndependentOfSource() throws Exception {
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path source = Files.write(dir.resolve("source.xar"), CONTENT);
+        final Path target = dir.resolve("target.xar");
+
+        assertEquals(Materializer.Strategy.COPY, new Materializer(Materializer.Strategy.COPY).materialize(source, target, LOG));
+
+        Files.write(target, new byte[] { 1, 2, 3 });
+        assertArrayEquals(CONTENT, Files.readAllBytes(source));
+    }
+
+    @Test
+    public void transferIsIndependentOfSource() throws Exception {
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path source = Files.write(dir.resolve("source.xar"), CONTENT);
+        final Path target = dir.resolve("target.xar");
+
+        assertEquals(Materializer.Strategy.TRANSFER, new Materializer(Materializer.Strategy.TRANSFER).materialize(source, target, LOG));
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+
+        Files.write(target, new byte[] { 1, 2, 3 });
+        assertArrayEquals(CONTENT, Files.readAllBytes(source));
+    }
+
+    @Test
+    public void hardLinkIsReadOnly() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("windows"));
+
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path source = Files.write(dir.resolve("source.xar"), CONTENT);
+        final Path target = dir.resolve("target.xar");
+
+        assertEquals(Materializer.Strategy.HARDLINK, new Materializer(Materializer.Strategy.HARDLINK).materialize(source, target, LOG));
+        final Object sourceKey = Files.readAttributes(source, BasicFileAttributes.class).fileKey();
+        assumeNotNull(sourceKey);
+        assertEquals(sourceKey, Files.readAttributes(target, BasicFileAttributes.class).fileKey());
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+
+        // the shared content may not be modified through either path
+        assertFalse(Files.getPosixFilePermissions(source).contains(PosixFilePermission.OWNER_WRITE));
+        assertFalse(Files.getPosixFilePermissions(target).contains(PosixFilePermission.OWNER_WRITE));
+    }
+
+    @Test
+    public void existingTargetIsReplacedNotWritten() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("windows"));
+
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path cached = Files.write(dir.resolve("cached.xar"), CONTENT);
+        final Path output = dir.resolve("output.xar");
+        Files.createLink(output, cached);
+
+        // materializing another file over a hard link must not modify the file that it links to
+        final Path other = Files.write(dir.resolve("other.xar"), new byte[] { 1, 2, 3 });
+        new Materializer(Materializer.Strategy.TRANSFER).materialize(other, output, LOG);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(cached));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(output));
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(Materializer.Strategy.HARDLINK, Materializer.Strategy.parse("hardlink"));
+        assertEquals(Materializer.Strategy.REFLINK, Materializer.Strategy.parse("reflink"));
+        assertEquals(Materializer.Strategy.TRANSFER, Materializer.Strategy.parse("transfer"));
+        assertEquals(Materializer.Strategy.COPY, Materializer.Strategy.parse("copy"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalid() {
+        Materializer.Strategy.parse("teleport");
+    }
+}
@@ -0,0 +1,96 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.exist.maven.plugins.publicxarrepo.PackageDb.AbbrevAndOrName;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of inserting into the {@link PackageDb} by appending
+ * to its journal, against rewriting the whole db on every insert (which is
+ * what compacting after every insert amounts to), and measures the cost of
+ * a lookup through the {@link PackageIndex}.
+ *
+ * Not run by the tests, run it by hand with the test classpath.
+ */
+public class PackageDbBenchmark {
+
+    private static final int[] SIZES = { 100, 1_000, 10_000 };
+    private static final int MEASURED_INSERTS = 100;
+    private static final int[] LOOKUP_SIZES = { 1_000, 10_000, 50_000 };
+    private static final int MEASURED_LOOKUPS = 100_000;
+
+    public static void main(final String[] args) throws Exception {
+        for (final int size : SIZES) {
+            final double journal = benchmark(size, false);
+            final double rewrite = benchmark(size, true);
+            System.out.printf("%,7d entries: journal append %8.3f ms/insert, full rewrite %8.3f ms/insert%n", size, journal, rewrite);
+        }
+
+        for (final int size : LOOKUP_SIZES) {
+            System.out.printf("%,7d entries: lookup %8.3f us/lookup%n", size, benchmarkLookup(size));
+        }
+    }
+
+    private static double benchmarkLookup(final int size) throws Exception {
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+
+        // populate the db, with several versions of each package
+        for (int i = 0; i < size; i++) {
+            final int pkg = i / 4;
+            final String version = "1." + (i % 4) + ".0";
+            PackageDb.addEntry(dir, abbrev(pkg), entry(version, "pkg-" + pkg + "-" + version + ".xar"));
+        }
+        PackageDb.compact(dir);
+
+        final VersionQuery query = VersionQuery.atLeast(SemanticVersion.parse("1.1.0"));
+        final Random random = new Random(42);
+
+        // warm up
+        for (int i = 0; i < MEASURED_LOOKUPS; i++) {
+            PackageDb.findEntry(dir, abbrev(random.nextInt(size / 4)), query);
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_LOOKUPS; i++) {
+            if (PackageDb.findEntry(dir, abbrev(random.nextInt(size / 4)), query) == null) {
+                throw new IllegalStateException("lookup failed");
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        return (double) elapsed / 1000 / MEASURED_LOOKUPS;
+    }
+
+    private static double benchmark(final int size, final boolean rewrite) throws Exception {
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+
+        // populate the db
+        for (int i = 0; i < size; i++) {
+            PackageDb.addEntry(dir, abbrev(i), entry("1.0.0", "pkg-" + i + "-1.0.0.xar"));
+        }
+        PackageDb.compact(dir);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_INSERTS; i++) {
+            PackageDb.addEntry(dir, abbrev(i), entry("1.1." + i, "pkg-" + i + "-1.1." + i + ".xar"));
+            if (rewrite) {
+                PackageDb.compact(dir);
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        return (double) TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000 / MEASURED_INSERTS;
+    }
+
+    private static PackageDb.Entry entry(final String version, final String path) {
+        return new PackageDb.Entry(new PackageInfo("0000", version, path), 1024, System.currentTimeMillis());
+    }
+
+    private static AbbrevAndOrName abbrev(final int i) {
+        return new AbbrevAndOrName(Optional.of("pkg-" + i), Optional.empty());
+    }
+}
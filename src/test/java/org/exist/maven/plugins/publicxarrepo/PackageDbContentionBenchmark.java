@@ -0,0 +1,98 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.exist.maven.plugins.publicxarrepo.PackageDb.AbbrevAndOrName;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.evolvedbinary.j8fu.Either.Left;
+
+/**
+ * Measures the throughput of the {@link PackageDb} when many distinct
+ * packages are cached and looked up concurrently, as when resolving with
+ * {@code mvn -T}, for an increasing number of threads.
+ *
+ * The packages are either spread over the shards (by their abbrevs), or
+ * all chosen to fall in the same shard, which is how every package
+ * contended for the single {@code packages.xml} before the db was sharded.
+ *
+ * Not run by the tests, run it by hand with the test classpath.
+ */
+public class PackageDbContentionBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+    private static final int PACKAGES_PER_THREAD = 200;
+
+    public static void main(final String[] args) throws Exception {
+        final int maxThreads = THREADS[THREADS.length - 1];
+        final List<String> spread = abbrevs(maxThreads * PACKAGES_PER_THREAD, false);
+        final List<String> sameShard = abbrevs(maxThreads * PACKAGES_PER_THREAD, true);
+
+        // warm up
+        benchmark(maxThreads, spread);
+
+        for (final int threads : THREADS) {
+            final double spreadOps = benchmark(threads, spread);
+            final double sameShardOps = benchmark(threads, sameShard);
+            System.out.printf("%2d threads: sharded %,9.0f ops/s, single shard %,9.0f ops/s%n", threads, spreadOps, sameShardOps);
+        }
+    }
+
+    /**
+     * @return the number of operations (an insert followed by a lookup of the same package) per second.
+     */
+    private static double benchmark(final int threads, final List<String> abbrevs) throws Exception {
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+        final VersionQuery query = VersionQuery.latest();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < PACKAGES_PER_THREAD; i++) {
+                        final String abbrev = abbrevs.get(thread * PACKAGES_PER_THREAD + i);
+                        final AbbrevAndOrName abbrevName = new AbbrevAndOrName(Optional.of(abbrev), Optional.empty());
+                        PackageDb.addEntry(dir, abbrevName, new PackageDb.Entry(
+                                new PackageInfo("0000", "1.0.0", abbrev + "-1.0.0.xar"), 1024, System.currentTimeMillis()));
+                        if (PackageDb.findEntry(dir, abbrevName, query) == null) {
+                            throw new IllegalStateException("lookup failed");
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            return (double) threads * PACKAGES_PER_THREAD / elapsed * 1_000_000_000L;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> abbrevs(final int count, final boolean sameShard) {
+        // NOTE: only the name of the shard matters here, not the directory
+        final Path dir = Paths.get("");
+        final Path firstShard = PackageDb.shardDir(dir, Left("pkg-0"));
+        final List<String> abbrevs = new ArrayList<>(count);
+        for (int i = 0; abbrevs.size() < count; i++) {
+            final String abbrev = "pkg-" + i;
+            if (!sameShard || PackageDb.shardDir(dir, Left(abbrev)).equals(firstShard)) {
+                abbrevs.add(abbrev);
+            }
+        }
+        return abbrevs;
+    }
+}
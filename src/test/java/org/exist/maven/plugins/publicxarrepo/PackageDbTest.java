@@ -0,0 +1,227 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import com.evolvedbinary.j8fu.tuple.Tuple2;
+import org.exist.maven.plugins.publicxarrepo.PackageDb.AbbrevAndOrName;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.xml.transform.stream.StreamResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static com.evolvedbinary.j8fu.Either.Left;
+import static com.evolvedbinary.j8fu.Either.Right;
+import static org.exist.maven.plugins.publicxarrepo.PackageInfo.METADATA_FILE_EXTENSION;
+import static org.junit.Assert.*;
+
+public class PackageDbTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Test
+    public void addedEntryIsFoundByAbbrevAndName() throws Exception {
+        final PackageDb.Entry entry = newEntry("functx", "1.0.0");
+        PackageDb.addEntry(dir, abbrevAndName("functx", "http://www.functx.com"), entry);
+
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry.getPkgInfo().getPath());
+        assertPaths(PackageDb.findEntries(dir, name("http://www.functx.com")), entry.getPkgInfo().getPath());
+        assertTrue(PackageDb.findEntries(dir, abbrev("other")).isEmpty());
+    }
+
+    @Test
+    public void compactionPreservesEntries() throws Exception {
+        final PackageDb.Entry entry1 = newEntry("functx", "1.0.0");
+        final PackageDb.Entry entry2 = newEntry("functx", "1.1.0");
+        PackageDb.addEntry(dir, abbrev("functx"), entry1);
+        PackageDb.compact(dir);
+        PackageDb.addEntry(dir, abbrev("functx"), entry2);
+        PackageDb.compact(dir);
+
+        assertEquals(0, Files.size(shardDir("functx").resolve("packages.journal")));
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath(), entry2.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void entryHoldsPackageInfo() throws Exception {
+        PackageDb.addEntry(dir, abbrev("functx"), new PackageDb.Entry(new PackageInfo("abcd", "1.0.0", "functx-1.0.0.xar"), 1234, 5678));
+        PackageDb.compact(dir);
+
+        final List<PackageDb.Entry> entries = PackageDb.findEntries(dir, abbrev("functx"));
+        assertEquals(1, entries.size());
+        assertEquals("abcd", entries.get(0).getPkgInfo().getSha256());
+        assertEquals("1.0.0", entries.get(0).getPkgInfo().getVersion());
+        assertEquals(1234, entries.get(0).getSize());
+        assertEquals(5678, entries.get(0).getCached());
+    }
+
+    @Test
+    public void metadataFilesOfEarlierVersionAreMigrated() throws Exception {
+        final PackageDb.Entry entry1 = writeLegacyPackageInfo("functx", "1.0.0");
+        final PackageDb.Entry entry2 = newEntry("functx", "1.1.0");
+        Files.write(dir.resolve("packages.xml"), ("<packages><package abbrev=\"functx\"><packageInfo path=\""
+                + entry1.getPkgInfo().getPath() + METADATA_FILE_EXTENSION + "\"/></package></packages>").getBytes(StandardCharsets.UTF_8));
+
+        PackageDb.addEntry(dir, abbrev("functx"), entry2);
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath(), entry2.getPkgInfo().getPath());
+
+        // once migrated, the metadata file is no longer needed
+        Files.delete(dir.resolve(entry1.getPkgInfo().getPath() + METADATA_FILE_EXTENSION));
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath(), entry2.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void partialJournalEntryIsIgnored() throws Exception {
+        final PackageDb.Entry entry1 = newEntry("functx", "1.0.0");
+        final PackageDb.Entry entry2 = newEntry("functx", "1.1.0");
+        PackageDb.addEntry(dir, abbrev("functx"), entry1);
+
+        // simulate an append that was interrupted by a crash
+        Files.write(shardDir("functx").resolve("packages.journal"), "<packageInfo abbrev=\"fun".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath());
+
+        PackageDb.addEntry(dir, abbrev("functx"), entry2);
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath(), entry2.getPkgInfo().getPath());
+    }
+
+    @Test
+    public void findEntrySatisfiesVersionQuery() throws Exception {
+        for (final String version : new String[] { "1.2.0", "1.0.0", "2.0.0", "1.10.0" }) {
+            PackageDb.addEntry(dir, abbrev("functx"), newEntry("functx", version));
+        }
+
+        assertFound("2.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+        assertFound("1.2.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.exactly(SemanticVersion.parse("1.2.0"))));
+        assertNull(PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.exactly(SemanticVersion.parse("1.3.0"))));
+        assertFound("2.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.atLeast(SemanticVersion.parse("1.5.0"))));
+        assertNull(PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.atLeast(SemanticVersion.parse("3.0.0"))));
+        assertFound("1.10.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.atMost(SemanticVersion.parse("1.99.0"))));
+        assertNull(PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.atMost(SemanticVersion.parse("0.9.0"))));
+        assertNull(PackageDb.findEntry(dir, abbrev("other"), VersionQuery.latest()));
+
+        // the same answers once compacted
+        PackageDb.compact(dir);
+        assertFound("2.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+        assertFound("1.10.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.atMost(SemanticVersion.parse("1.99.0"))));
+    }
+
+    @Test
+    public void findEntrySeesEntriesAddedAfterIndex() throws Exception {
+        PackageDb.addEntry(dir, abbrev("functx"), newEntry("functx", "1.0.0"));
+        assertFound("1.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+
+        PackageDb.addEntry(dir, abbrev("functx"), newEntry("functx", "1.1.0"));
+        assertFound("1.1.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+    }
+
+    @Test
+    public void indexIsRebuiltFromDb() throws Exception {
+        PackageDb.addEntry(dir, abbrev("functx"), newEntry("functx", "1.0.0"));
+        PackageDb.compact(dir);
+        PackageDb.addEntry(dir, abbrev("functx"), newEntry("functx", "1.1.0"));
+        assertFound("1.1.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+
+        // corrupt the index, and change the snapshot so that the index of this JVM is out of date
+        Files.write(shardDir("functx").resolve(PackageIndex.INDEX_FILENAME), new byte[] { 1, 2, 3 });
+        PackageDb.compact(dir);
+        Files.write(shardDir("functx").resolve(PackageIndex.INDEX_FILENAME), new byte[] { 1, 2, 3 });
+        Files.setLastModifiedTime(shardDir("functx").resolve("packages.xml"), FileTime.fromMillis(0));
+
+        assertFound("1.1.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+        assertFound("1.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.exactly(SemanticVersion.parse("1.0.0"))));
+    }
+
+    @Test
+    public void unshardedDbOfEarlierVersionIsMigrated() throws Exception {
+        final PackageDb.Entry entry1 = newEntry("functx", "1.0.0");
+        final PackageDb.Entry entry2 = newEntry("functx", "1.1.0");
+        Files.write(dir.resolve("packages.xml"), ("<packages><package abbrev=\"functx\"><entry path=\""
+                + entry1.getPkgInfo().getPath() + "\" sha256=\"0000\" version=\"1.0.0\" size=\"1024\" cached=\"0\"/></package></packages>")
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("packages.journal"), ("<entry abbrev=\"functx\" path=\"" + entry2.getPkgInfo().getPath()
+                + "\" sha256=\"0000\" version=\"1.1.0\" size=\"1024\" cached=\"0\"/>\n").getBytes(StandardCharsets.UTF_8));
+
+        assertFound("1.1.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry1.getPkgInfo().getPath(), entry2.getPkgInfo().getPath());
+        assertFalse(Files.exists(dir.resolve("packages.xml")));
+        assertFalse(Files.exists(dir.resolve("packages.journal")));
+    }
+
+    @Test
+    public void abbrevAndNameInDifferentShardsAreBothFound() throws Exception {
+        // find a name that is held by a different shard to the abbrev
+        String name = null;
+        for (int i = 0; name == null || shardDir("functx").equals(PackageDb.shardDir(dir, Right(name))); i++) {
+            name = "http://www.functx.com/" + i;
+        }
+
+        final PackageDb.Entry entry = newEntry("functx", "1.0.0");
+        PackageDb.addEntry(dir, abbrevAndName("functx", name), entry);
+
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), entry.getPkgInfo().getPath());
+        assertPaths(PackageDb.findEntries(dir, name(name)), entry.getPkgInfo().getPath());
+        assertFound("1.0.0", PackageDb.findEntry(dir, abbrevAndName("functx", name), VersionQuery.latest()));
+    }
+
+    @Test
+    public void removedEntriesAreNotFound() throws Exception {
+        PackageDb.addEntry(dir, abbrev("functx"), new PackageDb.Entry(new PackageInfo("aaaa", "1.0.0", "functx-1.0.0.xar"), 1024, 0));
+        PackageDb.addEntry(dir, abbrev("functx"), new PackageDb.Entry(new PackageInfo("bbbb", "1.1.0", "functx-1.1.0.xar"), 1024, 0));
+
+        PackageDb.removeEntries(dir, Collections.singleton("bbbb"));
+
+        assertPaths(PackageDb.findEntries(dir, abbrev("functx")), "functx-1.0.0.xar");
+        assertFound("1.0.0", PackageDb.findEntry(dir, abbrev("functx"), VersionQuery.latest()));
+    }
+
+    private Path shardDir(final String abbrev) {
+        return PackageDb.shardDir(dir, Left(abbrev));
+    }
+
+    private static void assertFound(final String expectedVersion, @Nullable final Tuple2<SemanticVersion, PackageDb.Entry> found) {
+        assertNotNull(found);
+        assertEquals(expectedVersion, found._2.getPkgInfo().getVersion());
+        assertEquals(0, SemanticVersion.parse(expectedVersion).compareTo(found._1));
+    }
+
+    private static PackageDb.Entry newEntry(final String abbrev, final String version) {
+        return new PackageDb.Entry(new PackageInfo("0000", version, abbrev + "-" + version + ".xar"), 1024, System.currentTimeMillis());
+    }
+
+    private PackageDb.Entry writeLegacyPackageInfo(final String abbrev, final String version) throws Exception {
+        final PackageDb.Entry entry = newEntry(abbrev, version);
+        entry.getPkgInfo().serialize(new StreamResult(dir.resolve(entry.getPkgInfo().getPath() + METADATA_FILE_EXTENSION).toFile()));
+        return entry;
+    }
+
+    private static void assertPaths(final List<PackageDb.Entry> entries, final String... expectedPaths) {
+        assertEquals(expectedPaths.length, entries.size());
+        for (int i = 0; i < expectedPaths.length; i++) {
+            assertEquals(expectedPaths[i], entries.get(i).getPkgInfo().getPath());
+        }
+    }
+
+    private static AbbrevAndOrName abbrev(final String abbrev) {
+        return new AbbrevAndOrName(Optional.of(abbrev), Optional.empty());
+    }
+
+    private static AbbrevAndOrName name(final String name) {
+        return new AbbrevAndOrName(Optional.empty(), Optional.of(name));
+    }
+
+    private static AbbrevAndOrName abbrevAndName(final String abbrev, final String name) {
+        return new AbbrevAndOrName(Optional.of(abbrev), Optional.of(name));
+    }
+}
@@ -0,0 +1,113 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the throughput of fetching packages (a find query followed by
+ * the package itself) by each {@link RepoTransport}: over HTTP from a
+ * {@link StubRepoServer} on the loopback interface, and from a mirror
+ * in a directory by hard link, and by transfer.
+ *
+ * Not run by the tests, run it by hand with the test classpath, optionally
+ * with the number of packages and the size of each package in MB as arguments.
+ */
+public class RepoTransportBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final Log LOG = new SystemStreamLog() {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(final CharSequence content) {
+            // quiet, so that logging is not measured
+        }
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final int packages = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        final int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        final Random random = new Random(42);
+        final String[][] mirrored = new String[packages][];
+        final List<Package> requests = new ArrayList<>(packages);
+        final HttpClientRegistry httpClients = new HttpClientRegistry(false);
+        try (final StubRepoServer repo = new StubRepoServer()) {
+            final byte[][] contents = new byte[packages][];
+            for (int i = 0; i < packages; i++) {
+                contents[i] = new byte[sizeMB * 1024 * 1024];
+                random.nextBytes(contents[i]);
+                repo.addPackage("pkg-" + i, "1.0.0", contents[i]);
+                requests.add(new Package(null, "pkg-" + i, null, null, null, null));
+            }
+            final Path repoDir = mirror(contents);
+
+            final RepoTransport http = new HttpRepoTransport(repo.getUri(), Collections::emptyList, httpClients);
+            final RepoTransport hardLink = new FileRepoTransport(repoDir, Materializer.Strategy.HARDLINK);
+            final RepoTransport transfer = new FileRepoTransport(repoDir, Materializer.Strategy.TRANSFER);
+
+            // warm up
+            fetchAll(http, requests);
+            fetchAll(hardLink, requests);
+            fetchAll(transfer, requests);
+
+            final double totalMB = (double) packages * sizeMB;
+            System.out.printf("%d packages, %.0f MB%n", packages, totalMB);
+            System.out.printf("http:            %8.1f MB/s%n", totalMB / measure(http, requests));
+            System.out.printf("file, hardlink:  %8.1f MB/s%n", totalMB / measure(hardLink, requests));
+            System.out.printf("file, transfer:  %8.1f MB/s%n", totalMB / measure(transfer, requests));
+        } finally {
+            httpClients.closeAll();
+        }
+    }
+
+    /**
+     * @return the best time of several iterations, in seconds.
+     */
+    private static double measure(final RepoTransport transport, final List<Package> requests) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = System.nanoTime();
+            fetchAll(transport, requests);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000_000.0;
+    }
+
+    private static void fetchAll(final RepoTransport transport, final List<Package> requests) throws Exception {
+        final Path targetDir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+        for (final Package pkg : requests) {
+            final PackageInfo pkgInfo = transport.find(pkg, "6.0.0", null, LOG).getPkgInfo();
+            transport.fetch(pkgInfo, targetDir.resolve(pkgInfo.getPath()), LOG);
+        }
+    }
+
+    private static Path mirror(final byte[][] contents) throws Exception {
+        final Path repoDir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+        final Path publicDir = Files.createDirectories(repoDir.resolve("public"));
+        final StringBuilder catalog = new StringBuilder("<apps>");
+        for (int i = 0; i < contents.length; i++) {
+            final String path = "pkg-" + i + "-1.0.0.xar";
+            final Path xar = Files.write(publicDir.resolve(path), contents[i]);
+            catalog.append("<app path=\"").append(path).append("\" sha256=\"").append(FileUtils.sha256(xar)).append("\">")
+                    .append("<name>http://example.com/pkg-").append(i).append("</name>")
+                    .append("<abbrev>pkg-").append(i).append("</abbrev>")
+                    .append("<version>1.0.0</version>")
+                    .append("</app>");
+        }
+        catalog.append("</apps>");
+        Files.write(repoDir.resolve(Catalog.CATALOG_PATH.substring(1)), catalog.toString().getBytes(StandardCharsets.UTF_8));
+        return repoDir;
+    }
+}
@@ -0,0 +1,162 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResolutionExecutorTest {
+
+    @Test
+    public void resultsAndLogsAreInTaskOrder() throws Exception {
+        final RecordingLog log = new RecordingLog();
+        final List<String> descriptions = new ArrayList<>();
+        final List<ResolutionExecutor.Task<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int n = i;
+            descriptions.add("task-" + n);
+            tasks.add(taskLog -> {
+                // later tasks finish first
+                sleep((8 - n) * 10L);
+                taskLog.info("task-" + n);
+                return n;
+            });
+        }
+
+        final List<Integer> results = new ResolutionExecutor(4, true, log).invokeAll(descriptions, tasks);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), results);
+        assertEquals(Arrays.asList("task-0", "task-1", "task-2", "task-3", "task-4", "task-5", "task-6", "task-7"), log.messages);
+    }
+
+    @Test
+    public void bufferedMessagesWithoutContentOrErrorAreReplayed() {
+        final RecordingLog log = new RecordingLog();
+        final BufferedLog bufferedLog = new BufferedLog(log);
+        bufferedLog.info("without an error");
+        bufferedLog.info(new Exception("without content"));
+        bufferedLog.info("with an error", new Exception());
+
+        // NOTE: SystemStreamLog fails if it is given a null content or error
+        bufferedLog.flush();
+
+        assertEquals(Arrays.asList("without an error", "with an error"), log.messages);
+    }
+
+    @Test
+    public void collectAllReportsEveryFailure() {
+        final AtomicInteger ran = new AtomicInteger();
+        final List<ResolutionExecutor.Task<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int n = i;
+            tasks.add(taskLog -> {
+                ran.incrementAndGet();
+                if (n % 2 == 1) {
+                    throw new MojoFailureException("failed-" + n);
+                }
+                return null;
+            });
+        }
+
+        try {
+            new ResolutionExecutor(2, false, new RecordingLog()).invokeAll(Arrays.asList("a", "b", "c", "d"), tasks);
+            fail("expected MojoFailureException");
+        } catch (final Exception e) {
+            assertTrue(e instanceof MojoFailureException);
+            assertTrue(e.getMessage().contains("failed-1"));
+            assertTrue(e.getMessage().contains("failed-3"));
+            assertEquals(2, e.getSuppressed().length);
+        }
+        assertEquals(4, ran.get());
+    }
+
+    @Test
+    public void failFastSkipsRemainingTasks() {
+        final AtomicInteger ran = new AtomicInteger();
+        final List<ResolutionExecutor.Task<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            tasks.add(taskLog -> {
+                ran.incrementAndGet();
+                throw new MojoFailureException("failed");
+            });
+        }
+
+        try {
+            new ResolutionExecutor(2, true, new RecordingLog()).invokeAll(Collections.nCopies(16, "task"), tasks);
+            fail("expected MojoFailureException");
+        } catch (final Exception e) {
+            assertTrue(e instanceof MojoFailureException);
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue("remaining tasks should have been skipped", ran.get() < 16);
+    }
+
+    @Test(timeout = 30_000)
+    public void failFastDoesNotWaitForEarlierTasks() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final RecordingLog log = new RecordingLog();
+        final List<ResolutionExecutor.Task<Void>> tasks = new ArrayList<>();
+        tasks.add(taskLog -> {
+            // e.g. a slow download
+            taskLog.info("slow");
+            try {
+                started.countDown();
+                neverReleased.await();
+            } catch (final InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        tasks.add(taskLog -> {
+            try {
+                started.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            taskLog.info("failed");
+            throw new MojoFailureException("failed");
+        });
+
+        try {
+            new ResolutionExecutor(2, true, log).invokeAll(Arrays.asList("slow", "failed"), tasks);
+            fail("expected MojoFailureException");
+        } catch (final MojoFailureException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue("the slow task should have been cancelled", interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("failed"), log.messages);
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class RecordingLog extends SystemStreamLog {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void info(final CharSequence content) {
+            messages.add(content.toString());
+        }
+
+        @Override
+        public void info(final CharSequence content, final Throwable error) {
+            messages.add(content.toString());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link ResolveMojo} resolves packages against the catalog
+ * of the remote repo.
+ */
+public class ResolveMojoCatalogTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testAllPackagesAreResolvedWithOneCatalogRequest() throws Exception {
+        final List<PackageInfo> pkgInfos = new ArrayList<>();
+        for (final String abbrev : new String[] { "functx", "markdown", "templating", "shared" }) {
+            pkgInfos.add(repo.addPackage(abbrev, "1.0.0", 1024));
+        }
+
+        lookupConfiguredMojo(UpdatePolicy.ALWAYS, "build-1", "functx", "markdown", "templating", "shared").execute();
+
+        assertEquals(1, repo.getRequestCount(Catalog.CATALOG_PATH));
+        assertEquals(0, repo.getRequestCount("/find"));
+        for (final PackageInfo pkgInfo : pkgInfos) {
+            assertTrue(Files.exists(tempDir.resolve("build-1").resolve(pkgInfo.getPath())));
+        }
+    }
+
+    public void testIncompatibleReleasesAreSkipped() throws Exception {
+        final PackageInfo compatible = repo.addPackage("functx", "1.0.0", 1024, "5.0.0");
+        final PackageInfo incompatible = repo.addPackage("functx", "2.0.0", 1024, "7.0.0");
+
+        lookupConfiguredMojo(UpdatePolicy.ALWAYS, "build-1", "functx").execute();
+
+        assertTrue(Files.exists(tempDir.resolve("build-1").resolve(compatible.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("build-1").resolve(incompatible.getPath())));
+        assertEquals(0, repo.getRequestCount("/find"));
+    }
+
+    public void testPersistedCatalogIsReused() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo(UpdatePolicy.DAILY, "build-1", "functx").execute();
+        lookupConfiguredMojo(UpdatePolicy.DAILY, "build-2", "functx").execute();
+        assertEquals(1, repo.getRequestCount(Catalog.CATALOG_PATH));
+
+        // once expired, the persisted catalog is revalidated rather than downloaded again
+        final long bytesAfterFirstBuild = repo.getBytesSent(Catalog.CATALOG_PATH);
+        lookupConfiguredMojo(UpdatePolicy.ALWAYS, "build-3", "functx").execute();
+        assertEquals(2, repo.getRequestCount(Catalog.CATALOG_PATH));
+        assertEquals(1, repo.getNotModifiedCount(Catalog.CATALOG_PATH));
+        assertEquals(bytesAfterFirstBuild, repo.getBytesSent(Catalog.CATALOG_PATH));
+    }
+
+    public void testFallsBackToFindWhenCatalogIsUnavailable() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+        repo.setCatalogAvailable(false);
+
+        lookupConfiguredMojo(UpdatePolicy.ALWAYS, "build-1", "functx").execute();
+
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve("build-1").resolve(pkgInfo.getPath())));
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String updatePolicy, final String outputDir, final String... abbrevs)
+            throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 2);
+        setVariableValueToObject(mojo, "updatePolicy", updatePolicy);
+        setVariableValueToObject(mojo, "catalog", Boolean.TRUE);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve(outputDir).toFile());
+
+        final List<Package> packages = new ArrayList<>();
+        for (final String abbrev : abbrevs) {
+            final Package pkg = new Package();
+            setVariableValueToObject(pkg, "abbrev", abbrev);
+            packages.add(pkg);
+        }
+        setVariableValueToObject(mojo, "packages", packages);
+        return mojo;
+    }
+}
@@ -0,0 +1,181 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests that {@link ResolveMojo} downloads packages from the remote repo.
+ */
+public class ResolveMojoDownloadTest extends AbstractMojoTestCase {
+
+    private static final long LARGE_PACKAGE_SIZE = 64 * 1024 * 1024;
+
+    private StubRepoServer repo;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    /**
+     * Downloads a package much larger than the limit we place on the heap
+     * allocated by the resolving thread, which can only pass if the download
+     * is streamed to disk rather than buffered in memory.
+     */
+    public void testLargeDownloadIsStreamedToDisk() throws Exception {
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        final PackageInfo pkgInfo = repo.addPackage("large", "1.0.0", LARGE_PACKAGE_SIZE);
+
+        final Path tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path outputDir = tempDir.resolve("output");
+        final ResolveMojo mojo = lookupConfiguredMojo(outputDir);
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(newPackage("large")));
+
+        final long threadId = Thread.currentThread().getId();
+        final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        mojo.execute();
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        final Path xar = outputDir.resolve(pkgInfo.getPath());
+        assertEquals(LARGE_PACKAGE_SIZE, Files.size(xar));
+        assertEquals(pkgInfo.getSha256(), FileUtils.sha256(xar));
+        assertTrue("resolving allocated " + allocated + " bytes, the download must not be buffered in memory",
+                allocated < LARGE_PACKAGE_SIZE / 4);
+    }
+
+    public void testDownloadWithWrongChecksumIsDiscarded() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("corrupt", "1.0.0", 128 * 1024);
+        repo.setFault(pkgInfo, StubRepoServer.Fault.WRONG_CONTENT);
+
+        assertDownloadIsDiscarded("corrupt", pkgInfo, MojoFailureException.class, "checksum");
+    }
+
+    public void testTruncatedDownloadIsDiscarded() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("truncated", "1.0.0", 4 * 1024 * 1024);
+        repo.setFault(pkgInfo, StubRepoServer.Fault.TRUNCATED);
+
+        // NOTE: the HTTP client itself fails the read once the connection closes short of the Content-Length
+        final Throwable e = assertDownloadIsDiscarded("truncated", pkgInfo, MojoExecutionException.class, "Premature end of Content-Length");
+        assertTrue(e.getCause() instanceof ConnectionClosedException);
+    }
+
+    /**
+     * Two executions (e.g. two modules of a parallel reactor) that ask for the
+     * same package in the same session should only resolve it once.
+     */
+    public void testIdenticalResolutionsAreSharedWithinSession() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("shared", "1.0.0", 4 * 1024 * 1024);
+        final MavenSession session = newMavenSession(new MavenProject());
+
+        final Path tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final List<Path> outputDirs = new ArrayList<>();
+        final List<ResolveMojo> mojos = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Path outputDir = tempDir.resolve("module-" + i).resolve("output");
+            final ResolveMojo mojo = lookupConfiguredMojo(outputDir);
+            setVariableValueToObject(mojo, "session", session);
+            setVariableValueToObject(mojo, "packages", Collections.singletonList(newPackage("shared")));
+            outputDirs.add(outputDir);
+            mojos.add(mojo);
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(mojos.size());
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final ResolveMojo mojo : mojos) {
+                futures.add(executorService.submit(() -> {
+                    mojo.execute();
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+            session.getRequest().getExecutionListener().sessionEnded(null);
+        }
+
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        for (final Path outputDir : outputDirs) {
+            assertEquals(pkgInfo.getSha256(), FileUtils.sha256(outputDir.resolve(pkgInfo.getPath())));
+        }
+    }
+
+    private Throwable assertDownloadIsDiscarded(final String abbrev, final PackageInfo pkgInfo,
+            final Class<? extends Exception> expectedType, final String expectedMessage) throws Exception {
+        final Path tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+        final Path cacheDir = Files.createDirectories(tempDir.resolve("cache"));
+        final Path outputDir = tempDir.resolve("output");
+        final ResolveMojo mojo = lookupConfiguredMojo(outputDir);
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", cacheDir.toFile());
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(newPackage(abbrev)));
+
+        Exception failure = null;
+        try {
+            mojo.execute();
+        } catch (final MojoExecutionException | MojoFailureException e) {
+            failure = e;
+        }
+        assertNotNull("expected the download of " + pkgInfo.getPath() + " to fail", failure);
+        assertEquals(expectedType, failure.getClass());
+        assertTrue(failure.getMessage(), failure.getMessage().contains(expectedMessage));
+
+        assertFalse("a bad download must not reach the output directory", Files.exists(outputDir.resolve(pkgInfo.getPath())));
+        final CacheManager cacheManager = new CacheManager(cacheDir, new SystemStreamLog());
+        assertFalse("a bad download must not reach the cache", Files.exists(cacheManager.objectPath(pkgInfo.getSha256())));
+        assertTrue("a bad download must not be indexed",
+                PackageDb.findEntries(cacheDir, new PackageDb.AbbrevAndOrName(Optional.of(abbrev), Optional.empty())).isEmpty());
+        return failure;
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final Path outputDir) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", Boolean.FALSE);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "outputDirectory", outputDir.toFile());
+        return mojo;
+    }
+
+    private Package newPackage(final String abbrev) throws Exception {
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", abbrev);
+        return pkg;
+    }
+}
@@ -0,0 +1,106 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests that {@link ResolveMojo} resolves the packages for several
+ * versions of eXist-db in a single execution.
+ */
+public class ResolveMojoExistDbVersionsTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testEachVersionIsResolvedIntoItsOwnDirectory() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 64 * 1024);
+        repo.setDownloadDelay(200);
+
+        lookupConfiguredMojo(false).execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+        // identical for both versions, so only downloaded once, even without a cache
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("5.5.0").resolve(pkgInfo.getPath())));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("6.2.0").resolve(pkgInfo.getPath())));
+    }
+
+    public void testEachPackageIsDownloadedOnceWithCache() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 64 * 1024);
+        repo.setDownloadDelay(200);
+
+        lookupConfiguredMojo(true).execute();
+
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("5.5.0").resolve(pkgInfo.getPath())));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("6.2.0").resolve(pkgInfo.getPath())));
+    }
+
+    public void testUnchangedResolutionIsUpToDate() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+
+        final ResolveMojo first = lookupConfiguredMojo(true);
+        setVariableValueToObject(first, "updatePolicy", UpdatePolicy.DAILY);
+        first.execute();
+        final ResolveMojo second = lookupConfiguredMojo(true);
+        setVariableValueToObject(second, "updatePolicy", UpdatePolicy.DAILY);
+        second.execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+    }
+
+    public void testLockFileIsRejected() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+
+        final ResolveMojo mojo = lookupConfiguredMojo(true);
+        setVariableValueToObject(mojo, "useLockFile", Boolean.TRUE);
+        setVariableValueToObject(mojo, "lockFile", tempDir.resolve(LockFile.DEFAULT_FILE_NAME).toFile());
+        try {
+            mojo.execute();
+            fail("Expected MojoFailureException");
+        } catch (final MojoFailureException e) {
+            assertTrue(e.getMessage().contains("existDbVersions"));
+        }
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final boolean cache) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersions", Arrays.asList("5.5.0", "6.2.0"));
+        setVariableValueToObject(mojo, "cache", cache);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 2);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve("xars").toFile());
+        setVariableValueToObject(mojo, "buildDirectory", tempDir.resolve("target").toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
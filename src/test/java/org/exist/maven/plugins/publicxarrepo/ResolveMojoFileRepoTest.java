@@ -0,0 +1,61 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Tests that {@link ResolveMojo} resolves packages from a mirror of
+ * the repo in a directory.
+ */
+public class ResolveMojoFileRepoTest extends AbstractMojoTestCase {
+
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    public void testResolveFromFileUri() throws Exception {
+        final Path repoDir = FileRepoTransportTest.mirror(new String[] { "functx", "1.0.0", "content" });
+
+        lookupConfiguredMojo(repoDir.toUri().toString()).execute();
+
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("functx-1.0.0.xar")));
+    }
+
+    public void testResolveFromDirectoryWithCatalog() throws Exception {
+        final Path repoDir = FileRepoTransportTest.mirror(new String[] { "functx", "1.0.0", "content" });
+
+        final ResolveMojo mojo = lookupConfiguredMojo(repoDir.toString());
+        setVariableValueToObject(mojo, "catalog", true);
+        mojo.execute();
+
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve("functx-1.0.0.xar")));
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String repoUri) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repoUri);
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", true);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve("xars").toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
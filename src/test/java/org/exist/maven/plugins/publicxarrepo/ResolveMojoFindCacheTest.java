@@ -0,0 +1,109 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Tests that {@link ResolveMojo} reuses the package info retrieved from
+ * the remote repo according to the update policy.
+ */
+public class ResolveMojoFindCacheTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testWarmBuildMakesNoRequestsWithinUpdatePolicy() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("daily", "build-1").execute();
+        lookupConfiguredMojo("daily", "build-2").execute();
+
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(pkgInfo.getPath())));
+    }
+
+    public void testUpdatePolicyAlwaysChecksRemoteRepo() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("always", "build-1").execute();
+        lookupConfiguredMojo("always", "build-2").execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+    }
+
+    public void testExpiredPackageInfoIsRevalidated() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("always", "build-1").execute();
+        final long bytesAfterFirstBuild = repo.getBytesSent("/find");
+        assertTrue(bytesAfterFirstBuild > 0);
+
+        lookupConfiguredMojo("always", "build-2").execute();
+        lookupConfiguredMojo("always", "build-3").execute();
+
+        // the package info is unchanged, so no further body is transferred
+        assertEquals(3, repo.getRequestCount("/find"));
+        assertEquals(2, repo.getNotModifiedCount("/find"));
+        assertEquals(bytesAfterFirstBuild, repo.getBytesSent("/find"));
+    }
+
+    public void testChangedPackageInfoIsRetrieved() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("always", "build-1").execute();
+
+        final PackageInfo newer = repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo("always", "build-2").execute();
+
+        assertEquals(0, repo.getNotModifiedCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(newer.getPath())));
+    }
+
+    public void testInvalidUpdatePolicyFails() throws Exception {
+        try {
+            lookupConfiguredMojo("sometimes", "build-1").execute();
+            fail("expected MojoFailureException for an invalid update policy");
+        } catch (final MojoFailureException e) {
+            assertTrue(e.getMessage().contains("sometimes"));
+        }
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String updatePolicy, final String outputDir) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", updatePolicy);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve(outputDir).toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
@@ -0,0 +1,151 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+/**
+ * Tests that {@link ResolveMojo} pins resolved packages in a lock file,
+ * and that {@link UpdateLockMojo} refreshes the pins.
+ */
+public class ResolveMojoLockFileTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testLockedBuildMakesNoFindRequests() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("resolve", "build-1", "6.0.0").execute();
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve(LockFile.DEFAULT_FILE_NAME)));
+
+        // a newer version is ignored whilst the pin is in place, even with an empty cache
+        repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo("resolve", "build-2", "6.0.0", false).execute();
+
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertEquals(2, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(pkgInfo.getPath())));
+    }
+
+    /**
+     * Two modules of the same session whose lock files pin different
+     * releases of a package must each get the release that they pin.
+     */
+    public void testDifferentPinsAreNotSharedWithinSession() throws Exception {
+        final PackageInfo older = repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("resolve", "module-a", "6.0.0", "module-a.lock.xml").execute();
+        final PackageInfo newer = repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo("resolve", "module-b", "6.0.0", "module-b.lock.xml").execute();
+
+        final MavenSession session = newMavenSession(new MavenProject());
+        final ResolveMojo moduleA = lookupConfiguredMojo("resolve", "session-module-a", "6.0.0", "module-a.lock.xml");
+        final ResolveMojo moduleB = lookupConfiguredMojo("resolve", "session-module-b", "6.0.0", "module-b.lock.xml");
+        setVariableValueToObject(moduleA, "session", session);
+        setVariableValueToObject(moduleB, "session", session);
+        moduleA.execute();
+        moduleB.execute();
+
+        assertTrue(Files.exists(tempDir.resolve("session-module-a").resolve(older.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("session-module-a").resolve(newer.getPath())));
+        assertTrue(Files.exists(tempDir.resolve("session-module-b").resolve(newer.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("session-module-b").resolve(older.getPath())));
+    }
+
+    public void testUnchangedLockFileIsNotRewritten() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo("resolve", "build-1", "6.0.0").execute();
+        final Path lockFile = tempDir.resolve(LockFile.DEFAULT_FILE_NAME);
+        final long lastModified = Files.getLastModifiedTime(lockFile).toMillis() - 10_000;
+        Files.setLastModifiedTime(lockFile, FileTime.fromMillis(lastModified));
+
+        lookupConfiguredMojo("resolve", "build-2", "6.0.0").execute();
+        assertEquals(lastModified, Files.getLastModifiedTime(lockFile).toMillis());
+    }
+
+    public void testPinDoesNotApplyToAnotherExistDbVersion() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("resolve", "build-1", "6.0.0").execute();
+
+        final PackageInfo newer = repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo("resolve", "build-2", "6.2.0").execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(newer.getPath())));
+    }
+
+    public void testUpdateLockRefreshesPinsWithoutDownloading() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("resolve", "build-1", "6.0.0").execute();
+
+        final PackageInfo newer = repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo("update-lock", "build-2", "6.0.0").execute();
+        assertEquals(0, repo.getRequestCount("/public/" + newer.getPath()));
+
+        final LockFile lock = LockFile.read(tempDir.resolve(LockFile.DEFAULT_FILE_NAME));
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        assertEquals(newer.getPath(), lock.get(pkg, "6.0.0").getPath());
+        assertEquals(newer.getSha256(), lock.get(pkg, "6.0.0").getSha256());
+
+        lookupConfiguredMojo("resolve", "build-3", "6.0.0").execute();
+        assertEquals(2, repo.getRequestCount("/find"));
+        assertTrue(Files.exists(tempDir.resolve("build-3").resolve(newer.getPath())));
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String goal, final String outputDir, final String existDbVersion)
+            throws Exception {
+        return lookupConfiguredMojo(goal, outputDir, existDbVersion, true);
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String goal, final String outputDir, final String existDbVersion,
+            final String lockFileName) throws Exception {
+        final ResolveMojo mojo = lookupConfiguredMojo(goal, outputDir, existDbVersion, true);
+        setVariableValueToObject(mojo, "lockFile", tempDir.resolve(lockFileName).toFile());
+        return mojo;
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String goal, final String outputDir, final String existDbVersion,
+            final boolean cache) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo(goal, testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", existDbVersion);
+        setVariableValueToObject(mojo, "cache", cache);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "useLockFile", Boolean.TRUE);
+        setVariableValueToObject(mojo, "lockFile", tempDir.resolve(LockFile.DEFAULT_FILE_NAME).toFile());
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve(outputDir).toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
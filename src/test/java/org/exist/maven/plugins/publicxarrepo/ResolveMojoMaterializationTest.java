@@ -0,0 +1,106 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+/**
+ * Tests that {@link ResolveMojo} materializes packages according to the
+ * {@code materialization} option.
+ */
+public class ResolveMojoMaterializationTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testHardLinkedFromCache() throws Exception {
+        if (System.getProperty("os.name").toLowerCase().startsWith("windows")) {
+            return;
+        }
+
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 64 * 1024);
+        lookupConfiguredMojo("hardlink", "build-1").execute();
+        lookupConfiguredMojo("hardlink", "build-2").execute();
+
+        final Object cachedKey = fileKey(cachedObject(pkgInfo));
+        if (cachedKey == null) {
+            return;
+        }
+        assertEquals(cachedKey, fileKey(tempDir.resolve("build-1").resolve(pkgInfo.getPath())));
+        assertEquals(cachedKey, fileKey(tempDir.resolve("build-2").resolve(pkgInfo.getPath())));
+        assertEquals(pkgInfo.getSha256(), FileUtils.sha256(tempDir.resolve("build-2").resolve(pkgInfo.getPath())));
+
+        // resolving over an existing hard link must still work
+        lookupConfiguredMojo("hardlink", "build-2").execute();
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+    }
+
+    public void testCopiedFromCache() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 64 * 1024);
+        lookupConfiguredMojo("copy", "build-1").execute();
+        lookupConfiguredMojo("copy", "build-2").execute();
+
+        final Object cachedKey = fileKey(cachedObject(pkgInfo));
+        if (cachedKey != null) {
+            assertFalse(cachedKey.equals(fileKey(tempDir.resolve("build-2").resolve(pkgInfo.getPath()))));
+        }
+        assertEquals(pkgInfo.getSha256(), FileUtils.sha256(tempDir.resolve("build-2").resolve(pkgInfo.getPath())));
+    }
+
+    public void testInvalidMaterializationFails() throws Exception {
+        try {
+            lookupConfiguredMojo("teleport", "build-1").execute();
+            fail("expected MojoFailureException for an invalid materialization");
+        } catch (final MojoFailureException e) {
+            assertTrue(e.getMessage().contains("teleport"));
+        }
+    }
+
+    private Path cachedObject(final PackageInfo pkgInfo) {
+        return tempDir.resolve("cache").resolve("objects").resolve(pkgInfo.getSha256().substring(0, 2))
+                .resolve(pkgInfo.getSha256().substring(2));
+    }
+
+    private static Object fileKey(final Path file) throws Exception {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String materialization, final String outputDir) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.DAILY);
+        setVariableValueToObject(mojo, "materialization", materialization);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve(outputDir).toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
@@ -0,0 +1,38 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Collections;
+
+/**
+ * Runs the {@link ResolveMojo} in a process of its own, so that tests can
+ * exercise several processes which share a cache directory.
+ *
+ * Arguments: {@code <repoUri> <cacheDirectory> <outputDirectory> <abbrev>}
+ */
+public class ResolveMojoProcess {
+
+    public static void main(final String[] args) throws Exception {
+        final Package pkg = new Package();
+        setField(pkg, "abbrev", args[3]);
+
+        final ResolveMojo mojo = new ResolveMojo();
+        setField(mojo, "repoUri", args[0]);
+        setField(mojo, "existDbVersion", "6.0.0");
+        setField(mojo, "cache", true);
+        setField(mojo, "cacheDirectory", new File(args[1]));
+        setField(mojo, "outputDirectory", new File(args[2]));
+        setField(mojo, "packages", Collections.singletonList(pkg));
+        setField(mojo, "resolveThreads", 1);
+        setField(mojo, "failFast", true);
+        setField(mojo, "cacheLockTimeout", 60L);
+
+        mojo.execute();
+    }
+
+    private static void setField(final Object object, final String name, final Object value) throws ReflectiveOperationException {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+}
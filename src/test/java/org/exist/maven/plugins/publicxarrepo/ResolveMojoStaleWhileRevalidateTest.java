@@ -0,0 +1,131 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Tests the {@code stale-while-revalidate} resolution mode of {@link ResolveMojo}.
+ */
+public class ResolveMojoStaleWhileRevalidateTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testCachedPackageIsServedWhilstNewerVersionIsCachedInBackground() throws Exception {
+        final PackageInfo older = repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_DEFAULT, 60, "build-1").execute();
+
+        final PackageInfo newer = repo.addPackage("functx", "1.1.0", 1024);
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, 60, "build-2").execute();
+
+        // this build gets the cached version, whilst the newer version is cached for the next build
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(older.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("build-2").resolve(newer.getPath())));
+        assertEquals(1, repo.getRequestCount("/public/" + newer.getPath()));
+
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, 60, "build-3").execute();
+        assertTrue(Files.exists(tempDir.resolve("build-3").resolve(newer.getPath())));
+        assertEquals(1, repo.getRequestCount("/public/" + newer.getPath()));
+    }
+
+    public void testBuildDoesNotWaitForSlowRemoteRepo() throws Exception {
+        final PackageInfo older = repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_DEFAULT, 60, "build-1").execute();
+
+        repo.addPackage("functx", "1.1.0", 1024);
+        repo.setDownloadDelay(10_000);
+
+        final long start = System.nanoTime();
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, 0, "build-2").execute();
+        final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue("build waited " + elapsedMillis + "ms for the remote repo", elapsedMillis < 5_000);
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(older.getPath())));
+    }
+
+    public void testUncachedPackageIsResolvedFromRemoteRepo() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, 60, "build-1").execute();
+
+        assertTrue(Files.exists(tempDir.resolve("build-1").resolve(pkgInfo.getPath())));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+    }
+
+    /**
+     * A release that was cached for another version of eXist-db must not
+     * be served to a build for a version that it is incompatible with.
+     */
+    public void testReleaseCachedForAnotherExistDbVersionIsNotServed() throws Exception {
+        final PackageInfo forExist5 = repo.addPackage("functx", "1.0.0", 1024, "5.0.0");
+        final PackageInfo forExist6 = repo.addPackage("functx", "2.0.0", 1024, "6.0.0");
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_DEFAULT, "6.0.0", 60, "build-1").execute();
+        assertTrue(Files.exists(tempDir.resolve("build-1").resolve(forExist6.getPath())));
+
+        // never resolved for eXist-db 5, so resolved as usual
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, "5.0.0", 60, "build-2").execute();
+        assertTrue(Files.exists(tempDir.resolve("build-2").resolve(forExist5.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("build-2").resolve(forExist6.getPath())));
+
+        // served from the cache, as last resolved for eXist-db 5
+        lookupConfiguredMojo(ResolveMojo.RESOLUTION_MODE_STALE_WHILE_REVALIDATE, "5.0.0", 60, "build-3").execute();
+        assertTrue(Files.exists(tempDir.resolve("build-3").resolve(forExist5.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("build-3").resolve(forExist6.getPath())));
+        assertEquals(1, repo.getRequestCount("/public/" + forExist5.getPath()));
+    }
+
+    public void testInvalidResolutionModeFails() throws Exception {
+        try {
+            lookupConfiguredMojo("eventually", 60, "build-1").execute();
+            fail("expected MojoFailureException for an invalid resolution mode");
+        } catch (final MojoFailureException e) {
+            assertTrue(e.getMessage().contains("eventually"));
+        }
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String resolutionMode, final long revalidateTimeout,
+            final String outputDir) throws Exception {
+        return lookupConfiguredMojo(resolutionMode, "6.0.0", revalidateTimeout, outputDir);
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String resolutionMode, final String existDbVersion,
+            final long revalidateTimeout, final String outputDir) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", existDbVersion);
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "resolutionMode", resolutionMode);
+        setVariableValueToObject(mojo, "revalidateTimeout", revalidateTimeout);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve(outputDir).toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "functx");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
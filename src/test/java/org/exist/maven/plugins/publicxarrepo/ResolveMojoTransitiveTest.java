@@ -0,0 +1,139 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.exist.maven.plugins.publicxarrepo.StubRepoServer.NAME_PREFIX;
+
+/**
+ * Tests that {@link ResolveMojo} resolves the dependencies that packages
+ * declare in their {@code expath-pkg.xml}.
+ */
+public class ResolveMojoTransitiveTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testDependenciesAreResolvedOnce() throws Exception {
+        // app -> (lib-a, lib-b), lib-a -> (lib-b, lib-c), lib-c -> app
+        final PackageInfo app = repo.addPackage("app", "1.0.0", xar("app",
+                "<dependency processor='http://exist-db.org' semver-min='5.0.0'/>"
+                        + "<dependency package='" + NAME_PREFIX + "lib-a' semver-min='1.0.0'/>"
+                        + "<dependency package='" + NAME_PREFIX + "lib-b'/>"));
+        final PackageInfo libA = repo.addPackage("lib-a", "1.0.0", xar("lib-a",
+                "<dependency package='" + NAME_PREFIX + "lib-b'/>"
+                        + "<dependency package='" + NAME_PREFIX + "lib-c'/>"));
+        final PackageInfo libB = repo.addPackage("lib-b", "1.0.0", xar("lib-b", ""));
+        final PackageInfo libC = repo.addPackage("lib-c", "1.0.0", xar("lib-c",
+                "<dependency package='" + NAME_PREFIX + "app'/>"));
+
+        lookupConfiguredMojo(true).execute();
+
+        assertEquals(4, repo.getRequestCount("/find"));
+        for (final PackageInfo pkgInfo : new PackageInfo[] { app, libA, libB, libC }) {
+            assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+            assertTrue(Files.exists(tempDir.resolve("xars").resolve(pkgInfo.getPath())));
+        }
+    }
+
+    public void testDependenciesAreNotResolvedByDefault() throws Exception {
+        final PackageInfo app = repo.addPackage("app", "1.0.0", xar("app",
+                "<dependency package='" + NAME_PREFIX + "lib-b'/>"));
+        final PackageInfo libB = repo.addPackage("lib-b", "1.0.0", xar("lib-b", ""));
+
+        lookupConfiguredMojo(false).execute();
+
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve(app.getPath())));
+        assertFalse(Files.exists(tempDir.resolve("xars").resolve(libB.getPath())));
+    }
+
+    public void testDescriptorIsRead() throws Exception {
+        final Path xar = tempDir.resolve("lib-a.xar");
+        Files.write(xar, xar("lib-a", "<dependency package='" + NAME_PREFIX + "lib-b' semver-max='2.0.0'/>"));
+
+        final PackageDescriptor descriptor = PackageDescriptor.read(xar);
+        assertEquals(NAME_PREFIX + "lib-a", descriptor.getName());
+        assertEquals("lib-a", descriptor.getAbbrev());
+        assertEquals(1, descriptor.getDependencies().size());
+        assertEquals(NAME_PREFIX + "lib-b", descriptor.getDependencies().get(0).getName());
+        assertEquals("2.0.0", descriptor.getDependencies().get(0).getSemanticVersionMax());
+    }
+
+    public void testDescriptorWithDoctypeIsRejected() throws Exception {
+        final Path secret = Files.write(tempDir.resolve("secret.txt"), "secret".getBytes(StandardCharsets.UTF_8));
+        final Path xar = tempDir.resolve("evil.xar");
+        Files.write(xar, xar("<!DOCTYPE package [<!ENTITY secret SYSTEM '" + secret.toUri() + "'>]>"
+                + "<package xmlns='http://expath.org/ns/pkg' name='" + NAME_PREFIX + "evil' abbrev='evil' version='1.0.0' spec='1.0'>"
+                + "<title>&secret;</title></package>"));
+
+        try {
+            PackageDescriptor.read(xar);
+            fail("expected IOException for a descriptor with a DTD");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains(PackageDescriptor.DESCRIPTOR_ENTRY_NAME));
+        }
+    }
+
+    private static byte[] xar(final String abbrev, final String dependencies) throws IOException {
+        return xar("<package xmlns='http://expath.org/ns/pkg' name='" + NAME_PREFIX + abbrev + "' abbrev='" + abbrev
+                + "' version='1.0.0' spec='1.0'><title>" + abbrev + "</title>" + dependencies + "</package>");
+    }
+
+    private static byte[] xar(final String descriptor) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final ZipOutputStream zos = new ZipOutputStream(os)) {
+            zos.putNextEntry(new ZipEntry("content/"));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("content/module.xqm"));
+            zos.write("module namespace m='http://example.com/module';".getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry(PackageDescriptor.DESCRIPTOR_ENTRY_NAME));
+            zos.write(descriptor.getBytes(StandardCharsets.UTF_8));
+            zos.closeEntry();
+        }
+        return os.toByteArray();
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final boolean transitive) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", true);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 2);
+        setVariableValueToObject(mojo, "updatePolicy", UpdatePolicy.ALWAYS);
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve("xars").toFile());
+        setVariableValueToObject(mojo, "transitive", transitive);
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", "app");
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+}
@@ -0,0 +1,115 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link ResolveMojo} skips the resolution when the previous
+ * resolution is up to date.
+ */
+public class ResolveMojoUpToDateTest extends AbstractMojoTestCase {
+
+    private StubRepoServer repo;
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        repo = new StubRepoServer();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repo.close();
+        super.tearDown();
+    }
+
+    public void testUpToDateResolutionIsSkipped() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        // without the cache, anything other than skipping would need the remote repo
+        deleteRecursively(tempDir.resolve("cache"));
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        assertEquals(1, repo.getRequestCount("/find"));
+        assertEquals(1, repo.getRequestCount("/public/" + pkgInfo.getPath()));
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve(pkgInfo.getPath())));
+    }
+
+    public void testChangedOutputIsResolvedAgain() throws Exception {
+        final PackageInfo pkgInfo = repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        final Path output = tempDir.resolve("xars").resolve(pkgInfo.getPath());
+        Files.write(output, new byte[] { 1, 2, 3 });
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        assertEquals(pkgInfo.getSha256(), FileUtils.sha256(output));
+    }
+
+    public void testChangedConfigurationIsResolvedAgain() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        final PackageInfo other = repo.addPackage("markdown", "1.0.0", 1024);
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        lookupConfiguredMojo("markdown", UpdatePolicy.DAILY, false).execute();
+
+        assertTrue(Files.exists(tempDir.resolve("xars").resolve(other.getPath())));
+    }
+
+    public void testExpiredUpdatePolicyIsResolvedAgain() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("functx", UpdatePolicy.ALWAYS, false).execute();
+        lookupConfiguredMojo("functx", UpdatePolicy.ALWAYS, false).execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+    }
+
+    public void testForceResolvesAgain() throws Exception {
+        repo.addPackage("functx", "1.0.0", 1024);
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, false).execute();
+
+        deleteRecursively(tempDir.resolve("cache"));
+        lookupConfiguredMojo("functx", UpdatePolicy.DAILY, true).execute();
+
+        assertEquals(2, repo.getRequestCount("/find"));
+    }
+
+    private ResolveMojo lookupConfiguredMojo(final String abbrev, final String updatePolicy, final boolean force)
+            throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/resolve-basic-test/pom.xml");
+        final ResolveMojo mojo = (ResolveMojo) lookupMojo("resolve", testPom);
+        setVariableValueToObject(mojo, "repoUri", repo.getUri());
+        setVariableValueToObject(mojo, "existDbVersion", "6.0.0");
+        setVariableValueToObject(mojo, "cache", Boolean.TRUE);
+        setVariableValueToObject(mojo, "cacheDirectory", tempDir.resolve("cache").toFile());
+        setVariableValueToObject(mojo, "cacheLockTimeout", 60L);
+        setVariableValueToObject(mojo, "resolveThreads", 1);
+        setVariableValueToObject(mojo, "updatePolicy", updatePolicy);
+        setVariableValueToObject(mojo, "force", force);
+        setVariableValueToObject(mojo, "buildDirectory", tempDir.toFile());
+        setVariableValueToObject(mojo, "outputDirectory", tempDir.resolve("xars").toFile());
+
+        final Package pkg = new Package();
+        setVariableValueToObject(pkg, "abbrev", abbrev);
+        setVariableValueToObject(mojo, "packages", Collections.singletonList(pkg));
+        return mojo;
+    }
+
+    private static void deleteRecursively(final Path dir) throws IOException {
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the throughput of computing the checksums of the packages in a
+ * cache: by the earlier implementation of {@link FileUtils#sha256(Path)}
+ * (a 1 KB buffer, one file at a time), by the current implementation one
+ * file at a time, and by the current implementation on a work-stealing
+ * pool, as the {@code verify-cache} goal does.
+ *
+ * Not run by the tests, run it by hand with the test classpath, optionally
+ * with the number of packages, the size of each package in MB, and the
+ * number of threads as arguments.
+ */
+public class Sha256Benchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(final String[] args) throws Exception {
+        final int packages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final Path dir = Files.createTempDirectory("public-xar-repo-plugin-benchmark");
+        final List<Path> files = new ArrayList<>(packages);
+        final Random random = new Random(42);
+        final byte[] buf = new byte[1024 * 1024];
+        for (int i = 0; i < packages; i++) {
+            final Path file = dir.resolve("pkg-" + i + ".xar");
+            try (final OutputStream os = Files.newOutputStream(file)) {
+                for (int j = 0; j < sizeMB; j++) {
+                    random.nextBytes(buf);
+                    os.write(buf);
+                }
+            }
+            files.add(file);
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // warm up, which also brings the files into the page cache
+            final List<String> expected = sequential(files, false);
+            if (!expected.equals(sequential(files, true)) || !expected.equals(parallel(files, pool))) {
+                throw new IllegalStateException("checksums differ");
+            }
+
+            final double totalMB = (double) packages * sizeMB;
+            System.out.printf("%d packages, %.0f MB, %d thread(s)%n", packages, totalMB, threads);
+            System.out.printf("earlier, sequential:  %8.1f MB/s%n", totalMB / measure(() -> sequential(files, false)));
+            System.out.printf("current, sequential:  %8.1f MB/s%n", totalMB / measure(() -> sequential(files, true)));
+            System.out.printf("current, parallel:    %8.1f MB/s%n", totalMB / measure(() -> parallel(files, pool)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the best time of several iterations, in seconds.
+     */
+    private static double measure(final Callable<List<String>> task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = System.nanoTime();
+            task.call();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000_000.0;
+    }
+
+    private static List<String> sequential(final List<Path> files, final boolean current) throws IOException {
+        final List<String> sha256s = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            sha256s.add(current ? FileUtils.sha256(file) : earlierSha256(file));
+        }
+        return sha256s;
+    }
+
+    private static List<String> parallel(final List<Path> files, final ForkJoinPool pool) throws Exception {
+        final List<Callable<String>> tasks = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            tasks.add(() -> FileUtils.sha256(file));
+        }
+        final List<String> sha256s = new ArrayList<>(files.size());
+        for (final Future<String> future : pool.invokeAll(tasks)) {
+            sha256s.add(future.get());
+        }
+        return sha256s;
+    }
+
+    /**
+     * The earlier implementation of {@link FileUtils#sha256(Path)}.
+     */
+    private static String earlierSha256(final Path path) throws IOException {
+        final MessageDigest digest = FileUtils.newSha256Digest();
+
+        try (final InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+            final byte[] buf = new byte[1024];
+            int read = -1;
+            while ((read = is.read(buf)) > -1) {
+                digest.update(buf, 0, read);
+            }
+        }
+
+        return FileUtils.toHexString(digest.digest());
+    }
+}
@@ -0,0 +1,438 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal stand-in for the Public Repo which runs on the loopback interface.
+ *
+ * It answers {@code /find} requests for the packages that have been added to it,
+ * and serves their content from {@code /public/}. The content of a package is
+ * generated on the fly, so arbitrarily large packages can be served without
+ * holding them in memory.
+ *
+ * It also serves a catalog of every package that has been added to it,
+ * at {@code /public/apps.xml}. The name of each package is
+ * {@code http://example.com/} followed by its abbreviated name, and
+ * {@code /find} answers for either.
+ *
+ * Responses to {@code /find} carry an {@code ETag} and {@code Last-Modified},
+ * and conditional requests for unchanged package info are answered with
+ * {@code 304 Not Modified}.
+ */
+class StubRepoServer implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2024 00:00:00 GMT";
+    static final String NAME_PREFIX = "http://example.com/";
+
+    /**
+     * Faults that can be injected when serving a package.
+     */
+    enum Fault {
+        /**
+         * Serve different content to that described by the package info.
+         */
+        WRONG_CONTENT,
+
+        /**
+         * Close the connection half way through the content.
+         */
+        TRUNCATED
+    }
+
+    private final HttpServer server;
+    private final Map<String, StubPackage> packagesByPath = new ConcurrentHashMap<>();
+    private final List<StubPackage> releases = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> bytesSent = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> notModifiedCounts = new ConcurrentHashMap<>();
+    private final Map<String, Fault> faults = new ConcurrentHashMap<>();
+    private volatile long downloadDelayMillis;
+    private volatile boolean catalogAvailable = true;
+
+    StubRepoServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/find", this::handleFind);
+        server.createContext("/public/", this::handlePublic);
+        server.createContext(Catalog.CATALOG_PATH, this::handleCatalog);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * @return the URI of the repo, suitable for use as the {@code repoUri} of the mojo.
+     */
+    String getUri() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Add a package to the repo.
+     *
+     * @param abbrev the abbreviated name of the package.
+     * @param version the version of the package.
+     * @param size the size of the package content in bytes.
+     *
+     * @return the info about the package, as the repo will report it.
+     */
+    PackageInfo addPackage(final String abbrev, final String version, final long size) {
+        return addPackage(abbrev, version, size, null);
+    }
+
+    /**
+     * Add a package with the given content to the repo.
+     *
+     * @param abbrev the abbreviated name of the package.
+     * @param version the version of the package.
+     * @param content the content of the package, e.g. a XAR.
+     *
+     * @return the info about the package, as the repo will report it.
+     */
+    PackageInfo addPackage(final String abbrev, final String version, final byte[] content) {
+        final String path = abbrev + "-" + version + ".xar";
+        final StubPackage pkg = new StubPackage(new PackageInfo(sha256(content), version, path), content.length,
+                abbrev, null, content);
+        packagesByPath.put(path, pkg);
+        releases.add(pkg);
+        return pkg.info;
+    }
+
+    /**
+     * Add a package to the repo, which requires a minimum version of eXist-db.
+     *
+     * {@code /find} answers with the package that was added last for an
+     * abbreviated name and is compatible with the requested version of
+     * eXist-db, whereas the catalog lists every package.
+     *
+     * @param abbrev the abbreviated name of the package.
+     * @param version the version of the package.
+     * @param size the size of the package content in bytes.
+     * @param existSemverMin the minimum version of eXist-db required by the package, or null.
+     *
+     * @return the info about the package, as the repo will report it.
+     */
+    PackageInfo addPackage(final String abbrev, final String version, final long size,
+            @Nullable final String existSemverMin) {
+        final String path = abbrev + "-" + version + ".xar";
+        final StubPackage pkg = new StubPackage(new PackageInfo(sha256(path, size), version, path), size, abbrev,
+                existSemverMin, null);
+        packagesByPath.put(path, pkg);
+        releases.add(pkg);
+        return pkg.info;
+    }
+
+    /**
+     * Make the catalog available, or not (in which case it is answered with a 404).
+     *
+     * @param catalogAvailable true if the catalog is available.
+     */
+    void setCatalogAvailable(final boolean catalogAvailable) {
+        this.catalogAvailable = catalogAvailable;
+    }
+
+    /**
+     * Inject a fault into the serving of a package.
+     *
+     * @param pkgInfo the info about the package.
+     * @param fault the fault to inject.
+     */
+    void setFault(final PackageInfo pkgInfo, final Fault fault) {
+        faults.put(pkgInfo.getPath(), fault);
+    }
+
+    /**
+     * Delay the serving of every package, so that concurrent downloads overlap.
+     *
+     * @param downloadDelayMillis the delay in milliseconds.
+     */
+    void setDownloadDelay(final long downloadDelayMillis) {
+        this.downloadDelayMillis = downloadDelayMillis;
+    }
+
+    /**
+     * Get the number of requests that were received for a path.
+     *
+     * @param path the path of the request, e.g. {@code /public/functx-1.0.xar}.
+     *
+     * @return the number of requests received.
+     */
+    int getRequestCount(final String path) {
+        final AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Get the number of bytes of response bodies that were sent for a path.
+     *
+     * @param path the path of the request, e.g. {@code /find}.
+     *
+     * @return the number of bytes sent.
+     */
+    long getBytesSent(final String path) {
+        final AtomicLong count = bytesSent.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Get the number of {@code 304 Not Modified} responses that were sent for a path.
+     *
+     * @param path the path of the request, e.g. {@code /find}.
+     *
+     * @return the number of responses.
+     */
+    int getNotModifiedCount(final String path) {
+        final AtomicInteger count = notModifiedCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handleFind(final HttpExchange exchange) throws IOException {
+        countRequest(exchange);
+        final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        final String name = query.get("name");
+        final String abbrev = query.containsKey("abbrev") ? query.get("abbrev")
+                : name != null && name.startsWith(NAME_PREFIX) ? name.substring(NAME_PREFIX.length()) : "";
+        final StubPackage pkg = find(abbrev, query.get("processor"));
+        if (pkg == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        final String etag = "\"" + pkg.info.getSha256() + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifNoneMatch != null ? ifNoneMatch.equals(etag) : LAST_MODIFIED.equals(ifModifiedSince)) {
+            notModifiedCounts.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+            sendEmpty(exchange, 304);
+            return;
+        }
+
+        final byte[] body = ("<found sha256=\"" + pkg.info.getSha256() + "\" version=\"" + pkg.info.getVersion()
+                + "\" path=\"" + pkg.info.getPath() + "\"/>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+        countBytes(exchange, body.length);
+    }
+
+    /**
+     * Find the package that was added last for an abbreviated name, and
+     * which is compatible with a version of eXist-db.
+     */
+    private @Nullable StubPackage find(final String abbrev, @Nullable final String existDbVersion) {
+        for (int i = releases.size() - 1; i >= 0; i--) {
+            final StubPackage release = releases.get(i);
+            if (release.abbrev.equals(abbrev) && (release.existSemverMin == null || existDbVersion == null
+                    || SemanticVersion.parse(existDbVersion).compareTo(SemanticVersion.parse(release.existSemverMin)) >= 0)) {
+                return release;
+            }
+        }
+        return null;
+    }
+
+    private void handleCatalog(final HttpExchange exchange) throws IOException {
+        countRequest(exchange);
+        if (!catalogAvailable) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        final StringBuilder catalog = new StringBuilder("<apps>");
+        for (final StubPackage release : releases) {
+            catalog.append("<app path=\"").append(release.info.getPath())
+                    .append("\" sha256=\"").append(release.info.getSha256()).append("\">")
+                    .append("<name>").append(NAME_PREFIX).append(release.abbrev).append("</name>")
+                    .append("<abbrev>").append(release.abbrev).append("</abbrev>")
+                    .append("<version>").append(release.info.getVersion()).append("</version>");
+            if (release.existSemverMin != null) {
+                catalog.append("<requires processor=\"http://exist-db.org\" semver-min=\"")
+                        .append(release.existSemverMin).append("\"/>");
+            }
+            catalog.append("</app>");
+        }
+        catalog.append("</apps>");
+        final byte[] body = catalog.toString().getBytes(StandardCharsets.UTF_8);
+
+        final String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedCounts.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+            sendEmpty(exchange, 304);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+        countBytes(exchange, body.length);
+    }
+
+    private void handlePublic(final HttpExchange exchange) throws IOException {
+        countRequest(exchange);
+        final String path = exchange.getRequestURI().getPath().substring("/public/".length());
+        final StubPackage pkg = packagesByPath.get(path);
+        if (pkg == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        if (downloadDelayMillis > 0) {
+            try {
+                Thread.sleep(downloadDelayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final Fault fault = faults.get(path);
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, pkg.size);
+        if (fault == Fault.TRUNCATED) {
+            writeContent(path, pkg.size / 2, exchange.getResponseBody());
+            countBytes(exchange, pkg.size / 2);
+            exchange.getResponseBody().flush();
+            // closing an incomplete fixed length response drops the connection
+            exchange.close();
+            return;
+        }
+        try (final OutputStream os = exchange.getResponseBody()) {
+            if (pkg.content != null && fault == null) {
+                os.write(pkg.content);
+            } else {
+                writeContent(fault == Fault.WRONG_CONTENT ? path + "-wrong" : path, pkg.size, os);
+            }
+        }
+        countBytes(exchange, pkg.size);
+    }
+
+    private void countRequest(final HttpExchange exchange) {
+        requestCounts.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void countBytes(final HttpExchange exchange, final long count) {
+        bytesSent.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicLong()).addAndGet(count);
+    }
+
+    private static void sendEmpty(final HttpExchange exchange, final int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static Map<String, String> parseQuery(final String rawQuery) throws IOException {
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (final String param : rawQuery.split("&")) {
+                final int idx = param.indexOf('=');
+                if (idx > 0) {
+                    query.put(URLDecoder.decode(param.substring(0, idx), "UTF-8"), URLDecoder.decode(param.substring(idx + 1), "UTF-8"));
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Write the deterministic content of a package.
+     */
+    private static void writeContent(final String path, final long size, final OutputStream os) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        final int seed = path.hashCode();
+        long remaining = size;
+        long offset = 0;
+        while (remaining > 0) {
+            final int len = (int) Math.min(buf.length, remaining);
+            for (int i = 0; i < len; i++) {
+                buf[i] = (byte) ((offset + i) * 31 + seed);
+            }
+            os.write(buf, 0, len);
+            offset += len;
+            remaining -= len;
+        }
+    }
+
+    private static String sha256(final String path, final long size) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            writeContent(path, size, new OutputStream() {
+                @Override
+                public void write(final int b) {
+                    digest.update((byte) b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                    digest.update(b, off, len);
+                }
+            });
+            return toHexString(digest.digest());
+        } catch (final NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256(final byte[] content) {
+        try {
+            return toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHexString(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static class StubPackage {
+        final PackageInfo info;
+        final long size;
+        final String abbrev;
+        @Nullable final String existSemverMin;
+        @Nullable final byte[] content;
+
+        StubPackage(final PackageInfo info, final long size, final String abbrev, @Nullable final String existSemverMin,
+                @Nullable final byte[] content) {
+            this.info = info;
+            this.size = size;
+            this.abbrev = abbrev;
+            this.existSemverMin = existSemverMin;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UpdatePolicyTest {
+
+    private static final long NOW = LocalDate.of(2024, 6, 15).atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    @Test
+    public void always() {
+        assertTrue(UpdatePolicy.parse("always").isExpired(NOW, NOW));
+        assertEquals("always", UpdatePolicy.parse(null).toString());
+    }
+
+    @Test
+    public void never() {
+        assertFalse(UpdatePolicy.parse("never").isExpired(0, NOW));
+    }
+
+    @Test
+    public void daily() {
+        final UpdatePolicy daily = UpdatePolicy.parse("daily");
+        assertFalse(daily.isExpired(NOW - TimeUnit.HOURS.toMillis(11), NOW));
+        assertTrue(daily.isExpired(NOW - TimeUnit.HOURS.toMillis(13), NOW));
+    }
+
+    @Test
+    public void interval() {
+        final UpdatePolicy interval = UpdatePolicy.parse("interval:30");
+        assertFalse(interval.isExpired(NOW - TimeUnit.MINUTES.toMillis(29), NOW));
+        assertTrue(interval.isExpired(NOW - TimeUnit.MINUTES.toMillis(30), NOW));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalid() {
+        UpdatePolicy.parse("interval:soon");
+    }
+}
@@ -0,0 +1,63 @@
+package org.exist.maven.plugins.publicxarrepo;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests that {@link VerifyCacheMojo} removes corrupt packages from the cache.
+ */
+public class VerifyCacheMojoTest extends AbstractMojoTestCase {
+
+    private Path tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // required for mojo lookups to work
+        getContainer().getContext().put("project.groupId", "blah");
+        super.setUp();
+        tempDir = Files.createTempDirectory("public-xar-repo-plugin-test");
+    }
+
+    public void testCorruptPackageIsRemoved() throws Exception {
+        final Path cacheDir = Files.createDirectories(tempDir.resolve("cache"));
+        final CacheManager cacheManager = new CacheManager(cacheDir, new SystemStreamLog());
+        final PackageInfo intact = put(cacheManager, "functx", "functx-content");
+        final PackageInfo corrupt = put(cacheManager, "markdown", "markdown-content");
+        Files.write(cacheManager.objectPath(corrupt.getSha256()), "tampered".getBytes(StandardCharsets.UTF_8));
+
+        lookupConfiguredMojo(cacheDir).execute();
+
+        assertTrue(Files.exists(cacheManager.objectPath(intact.getSha256())));
+        assertFalse(Files.exists(cacheManager.objectPath(corrupt.getSha256())));
+    }
+
+    public void testMissingCacheIsIgnored() throws Exception {
+        lookupConfiguredMojo(tempDir.resolve("no-cache")).execute();
+    }
+
+    private PackageInfo put(final CacheManager cacheManager, final String abbrev, final String content) throws Exception {
+        final Path xar = tempDir.resolve(abbrev + "-1.0.0.xar");
+        Files.write(xar, content.getBytes(StandardCharsets.UTF_8));
+        final PackageInfo pkgInfo = new PackageInfo(FileUtils.sha256(xar), "1.0.0", abbrev + "-1.0.0.xar");
+
+        final Package pkg = new Package();
+        final Field field = Package.class.getDeclaredField("abbrev");
+        field.setAccessible(true);
+        field.set(pkg, abbrev);
+        cacheManager.put(pkg, pkgInfo, xar);
+        return pkgInfo;
+    }
+
+    private VerifyCacheMojo lookupConfiguredMojo(final Path cacheDir) throws Exception {
+        final File testPom = new File(getBasedir(), "src/test/resources/unit/verify-cache-test/pom.xml");
+        final VerifyCacheMojo mojo = (VerifyCacheMojo) lookupMojo("verify-cache", testPom);
+        setVariableValueToObject(mojo, "cacheDirectory", cacheDir.toFile());
+        return mojo;
+    }
+}